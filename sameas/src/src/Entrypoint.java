@@ -14,7 +14,10 @@ public class Entrypoint {
 	public static void main(String[] args) {
 		System.out.println("Start...");
 		SAEngine saEngine = new SAEngine();
-		saEngine.run();
+		boolean success = saEngine.run();
 		System.out.println("End...");
+		if (!success) {
+			System.exit(1);
+		}
 	}
 }
@@ -5,6 +5,7 @@
 package com.samsung.scrc.wsg.k.index.core;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
 import java.util.List;
 
@@ -50,7 +51,8 @@ public class BasicIndexWriter {
 			} catch (IOException ioe) {
 				// TODO Auto-generated catch block
 //				log.error(ioe);
-				System.err.println(ioe);
+				// a lost document fails the index being written
+				throw new UncheckedIOException(ioe);
 			}
 		}
 //		log.debug("Doc number into Lucene:\t" + count);
@@ -0,0 +1,207 @@
+/**
+ * IndexSchema.java
+ * Column layout of the rows of a Lucene index
+ */
+package com.samsung.scrc.wsg.k.index.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.util.BytesRef;
+
+import com.samsung.scrc.wsg.k.util.Tools;
+
+/**
+ * Declares, column by column, how a row (String[]) is laid out in a Lucene
+ * index: which values are stored, term-indexed, kept as sorted, numeric or
+ * binary doc values
+ */
+public class IndexSchema {
+
+	/**
+	 * Role of a column inside the index. A column without any role is
+	 * accepted on insert but never written.
+	 */
+	public enum Role {
+		// stored field, loaded with the document
+		STORED,
+		// single term (StringField), for term lookups
+		INDEXED,
+		// SortedDocValuesField under the sort name, for sorting and reading
+		SORTED,
+		// NumericDocValuesField, for integer columns
+		NUMERIC,
+		// BinaryDocValuesField of the bytes of a hex value, for bitsets
+		BINARY
+	}
+
+	public static class Column {
+		private String name;
+		private String sortName;
+		private EnumSet<Role> roles;
+
+		public Column(String name, String sortName, EnumSet<Role> roles) {
+			this.name = name;
+			this.sortName = sortName;
+			this.roles = roles;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getSortName() {
+			return sortName;
+		}
+
+		public boolean has(Role role) {
+			return roles.contains(role);
+		}
+
+		public boolean isWritten() {
+			return !roles.isEmpty();
+		}
+	}
+
+	private List<Column> columns = new ArrayList<Column>();
+	private Map<String, Column> columnMap = new HashMap<String, Column>();
+	// position of the column rows are sharded by
+	private int shardKey = -1;
+
+	public IndexSchema() {
+
+	}
+
+	/**
+	 * Append the next positional column
+	 *
+	 * @param name
+	 * @param sortName
+	 *            doc values field name, only used with Role.SORTED
+	 * @param roles
+	 * @return this schema
+	 */
+	public IndexSchema column(String name, String sortName, Role... roles) {
+		EnumSet<Role> roleSet = EnumSet.noneOf(Role.class);
+		roleSet.addAll(Arrays.asList(roles));
+		Column column = new Column(name, sortName, roleSet);
+		columns.add(column);
+		columnMap.put(name, column);
+		return this;
+	}
+
+	/**
+	 * Append the next positional column which is not sorted
+	 *
+	 * @param name
+	 * @param roles
+	 * @return this schema
+	 */
+	public IndexSchema column(String name, Role... roles) {
+		return column(name, null, roles);
+	}
+
+	/**
+	 * Partition the index by the hash of a column
+	 *
+	 * @param name
+	 * @return this schema
+	 */
+	public IndexSchema shardBy(String name) {
+		shardKey = indexOf(name);
+		return this;
+	}
+
+	/**
+	 * @return the column rows are sharded by, or null
+	 */
+	public Column getShardKey() {
+		return shardKey < 0 ? null : columns.get(shardKey);
+	}
+
+	/**
+	 * Shard of a row, out of count shards
+	 *
+	 * @param item
+	 * @param count
+	 * @return
+	 */
+	public int shardOf(String[] item, int count) {
+		return shardOf(item[shardKey], count);
+	}
+
+	/**
+	 * Shard of a key value, out of count shards
+	 *
+	 * @param key
+	 * @param count
+	 * @return
+	 */
+	public static int shardOf(String key, int count) {
+		return (key.hashCode() & Integer.MAX_VALUE) % count;
+	}
+
+	/**
+	 * @param name
+	 * @return position of a column in a row, -1 if unknown
+	 */
+	public int indexOf(String name) {
+		return columns.indexOf(columnMap.get(name));
+	}
+
+	public Column getColumn(String name) {
+		return columnMap.get(name);
+	}
+
+	public List<Column> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Build a Lucene document from a positional row, skipping columns without
+	 * role
+	 *
+	 * @param item
+	 * @return
+	 */
+	public Document toDocument(String[] item) {
+		Document doc = new Document();
+		for (int i = 0; i < columns.size() && i < item.length; i++) {
+			Column column = columns.get(i);
+			String value = item[i];
+			if (!column.isWritten() || value == null) {
+				continue;
+			}
+			if (column.has(Role.INDEXED)) {
+				doc.add(new StringField(column.name, value, column
+						.has(Role.STORED) ? Field.Store.YES : Field.Store.NO));
+			} else if (column.has(Role.STORED)) {
+				doc.add(new StoredField(column.name, value));
+			}
+			if (column.has(Role.SORTED)) {
+				doc.add(new SortedDocValuesField(column.sortName, new BytesRef(
+						value)));
+			}
+			if (column.has(Role.NUMERIC)) {
+				doc.add(new NumericDocValuesField(column.name, Long
+						.valueOf(value)));
+			}
+			if (column.has(Role.BINARY)) {
+				doc.add(new BinaryDocValuesField(column.name, new BytesRef(
+						Tools.decodeHex2Bytes(value))));
+			}
+		}
+		return doc;
+	}
+}
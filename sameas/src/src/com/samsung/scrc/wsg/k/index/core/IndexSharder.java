@@ -0,0 +1,133 @@
+/**
+ * IndexSharder.java
+ * Re-shards an existing index by the hash of a key
+ */
+package com.samsung.scrc.wsg.k.index.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Re-shards an existing index (sharded or not) by the hash of a key kept as
+ * sorted doc values, the same routing SAWriter applies on insert.
+ * <p>
+ * Like MultiPassIndexSplitter, every target shard is produced by adding the
+ * source segments with the documents of other shards hidden behind fake
+ * deletions, so nothing is re-analyzed; MultiPassIndexSplitter itself only
+ * splits by document number, not by key
+ */
+public class IndexSharder {
+
+	/**
+	 * Hides the documents which do not belong to a shard
+	 */
+	private static class ShardReader extends FilterCodecReader {
+		private FixedBitSet liveDocs;
+
+		public ShardReader(CodecReader in, String keyField, int shard,
+				int count) throws IOException {
+			super(in);
+			liveDocs = new FixedBitSet(in.maxDoc());
+			Bits inLiveDocs = in.getLiveDocs();
+			SortedDocValues keys = in.getSortedDocValues(keyField);
+			for (int i = 0; i < in.maxDoc(); i++) {
+				if (inLiveDocs != null && !inLiveDocs.get(i)) {
+					continue;
+				}
+				String key = keys == null || keys.getOrd(i) == -1 ? "" : keys
+						.get(i).utf8ToString();
+				if (IndexSchema.shardOf(key, count) == shard) {
+					liveDocs.set(i);
+				}
+			}
+		}
+
+		@Override
+		public Bits getLiveDocs() {
+			return liveDocs;
+		}
+
+		@Override
+		public int numDocs() {
+			return liveDocs.cardinality();
+		}
+	}
+
+	/**
+	 * Write the source index into count shards under target
+	 *
+	 * @param source
+	 * @param target
+	 *            must differ from source
+	 * @param keyField
+	 *            sorted doc values field holding the shard key, e.g.
+	 *            GlobalParameters.COL_MD5_SORT
+	 * @param count
+	 * @throws IOException
+	 */
+	public static void reshard(String source, String target, String keyField,
+			int count) throws IOException {
+		List<DirectoryReader> readers = new ArrayList<DirectoryReader>();
+		for (String shardPath : IndexStore.shards(source)) {
+			Directory directory = FSDirectory.open(new File(shardPath)
+					.toPath());
+			readers.add(DirectoryReader.open(directory));
+			directory.close();
+		}
+		IndexStore.clear(target);
+		for (int shard = 0; shard < count; shard++) {
+			List<CodecReader> parts = new ArrayList<CodecReader>();
+			for (DirectoryReader reader : readers) {
+				for (LeafReaderContext leaf : reader.leaves()) {
+					parts.add(new ShardReader(SlowCodecReaderWrapper.wrap(leaf
+							.reader()), keyField, shard, count));
+				}
+			}
+			Directory directory = FSDirectory.open(new File(
+					count == 1 ? target : IndexStore.shardPath(target, shard))
+					.toPath());
+			IndexWriterConfig config = new IndexWriterConfig(null);
+			config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+			IndexWriter writer = new IndexWriter(directory, config);
+			writer.addIndexes(parts.toArray(new CodecReader[parts.size()]));
+			System.out.println("Shard " + shard + ":\t" + writer.maxDoc());
+			writer.close();
+			directory.close();
+		}
+		for (DirectoryReader reader : readers) {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Usage: IndexSharder source target keyField count
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length != 4) {
+			System.err.println("Usage: IndexSharder <source> <target> <keyField> <count>");
+			return;
+		}
+		try {
+			reshard(args[0], args[1], args[2], Integer.valueOf(args[3]));
+		} catch (IOException ioe) {
+			System.err.println(ioe);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * IndexStore.java
+ * Resolves the shard directories of a sharded index, and removes an index with all its shards
+ */
+package com.samsung.scrc.wsg.k.index.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IndexStore {
+	/**
+	 * Path of one shard of a sharded index
+	 *
+	 * @param path
+	 * @param shard
+	 * @return
+	 */
+	public static String shardPath(String path, int shard) {
+		return (path.endsWith("/") ? path : path + "/") + "shard-" + shard
+				+ "/";
+	}
+
+	/**
+	 * Shard paths of an index, the path itself if it is not sharded
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static synchronized List<String> shards(String path) {
+		List<String> paths = new ArrayList<String>();
+		String shardPath = shardPath(path, 0);
+		while (new File(shardPath).isDirectory()) {
+			paths.add(shardPath);
+			shardPath = shardPath(path, paths.size());
+		}
+		if (paths.isEmpty()) {
+			paths.add(path);
+		}
+		return paths;
+	}
+
+	/**
+	 * Path of the i-th entry of shards(path). Shards other than the first do
+	 * not need to be listed, so it still resolves once earlier shards were
+	 * released
+	 *
+	 * @param path
+	 * @param shard
+	 * @return
+	 */
+	public static synchronized String shard(String path, int shard) {
+		String shardPath = shardPath(path, shard);
+		if (shard > 0 || new File(shardPath).isDirectory()) {
+			return shardPath;
+		}
+		return path;
+	}
+
+	/**
+	 * Remove an index with all its shards, before it is written again
+	 *
+	 * @param path
+	 */
+	public static synchronized void clear(String path) {
+		ReaderRegistry.invalidate(path);
+		deleteDirectory(new File(path).toPath());
+	}
+
+	private static void deleteDirectory(Path path) {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try {
+			Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir,
+						IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException ioe) {
+			System.err.println(ioe);
+		}
+	}
+}
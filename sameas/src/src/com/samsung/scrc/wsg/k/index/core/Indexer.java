@@ -6,6 +6,7 @@ package com.samsung.scrc.wsg.k.index.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
@@ -73,7 +74,8 @@ public class Indexer {
 			} catch (IOException ioe) {
 				// TODO Auto-generated catch block
 //				log.error(this, ioe);
-				System.err.println(ioe);
+				// the documents are committed on close
+				throw new UncheckedIOException(ioe);
 			}
 		}
 		if (directory != null) {
@@ -0,0 +1,128 @@
+/**
+ * ReaderRegistry.java
+ * Shares one open DirectoryReader per index path
+ */
+package com.samsung.scrc.wsg.k.index.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import com.samsung.scrc.wsg.k.index.core.IndexSchema.Role;
+
+/**
+ * Keeps one open, warmed DirectoryReader per index (shard) path and lends it
+ * out by reference counting, in the way of Lucene's SearcherManager: successive
+ * pipeline stages searching the same index share a reader instead of re-opening
+ * it
+ */
+public class ReaderRegistry {
+	// open readers, each holding one reference of the registry
+	private static Map<String, DirectoryReader> readers = new HashMap<String, DirectoryReader>();
+
+	/**
+	 * Borrow the reader of an index path, opening and warming it on first use.
+	 * Every acquire must be paired with a release
+	 *
+	 * @param path
+	 * @param schema
+	 *            columns to warm, may be null
+	 * @return
+	 * @throws IOException
+	 */
+	public static DirectoryReader acquire(String path, IndexSchema schema)
+			throws IOException {
+		synchronized (ReaderRegistry.class) {
+			DirectoryReader reader = readers.get(path);
+			if (reader != null && reader.tryIncRef()) {
+				return reader;
+			}
+		}
+		// opened outside the registry lock
+		Directory directory = FSDirectory.open(new File(path).toPath());
+		DirectoryReader opened = DirectoryReader.open(directory);
+		directory.close();
+		warm(opened, schema);
+		synchronized (ReaderRegistry.class) {
+			DirectoryReader reader = readers.get(path);
+			if (reader != null && reader.tryIncRef()) {
+				// another stage opened it meanwhile
+				opened.close();
+				return reader;
+			}
+			readers.put(path, opened);
+			opened.incRef();
+			return opened;
+		}
+	}
+
+	/**
+	 * Give back a borrowed reader. It is closed once invalidated and released
+	 * by every borrower
+	 *
+	 * @param reader
+	 */
+	public static void release(DirectoryReader reader) {
+		try {
+			reader.decRef();
+		} catch (IOException ioe) {
+			System.err.println(ioe);
+		}
+	}
+
+	/**
+	 * Forget the readers of an index and its shards, because it is rewritten
+	 * or deleted. Readers still borrowed stay usable until released
+	 *
+	 * @param path
+	 */
+	public static synchronized void invalidate(String path) {
+		Iterator<Map.Entry<String, DirectoryReader>> iterator = readers
+				.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, DirectoryReader> entry = iterator.next();
+			if (entry.getKey().startsWith(path)) {
+				release(entry.getValue());
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drop every reader, at the end of the pipeline
+	 */
+	public static synchronized void closeAll() {
+		for (DirectoryReader reader : readers.values()) {
+			release(reader);
+		}
+		readers.clear();
+	}
+
+	// load the doc values the schema reads, so the first search does not
+	private static void warm(DirectoryReader reader, IndexSchema schema)
+			throws IOException {
+		if (schema == null) {
+			return;
+		}
+		for (LeafReaderContext leaf : reader.leaves()) {
+			LeafReader leafReader = leaf.reader();
+			for (IndexSchema.Column column : schema.getColumns()) {
+				if (column.has(Role.SORTED)) {
+					leafReader.getSortedDocValues(column.getSortName());
+				} else if (column.has(Role.NUMERIC)) {
+					leafReader.getNumericDocValues(column.getName());
+				} else if (column.has(Role.BINARY)) {
+					leafReader.getBinaryDocValues(column.getName());
+				}
+			}
+		}
+	}
+}
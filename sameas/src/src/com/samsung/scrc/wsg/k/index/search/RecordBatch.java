@@ -0,0 +1,225 @@
+/**
+ * RecordBatch.java
+ * A page of search results held by column
+ */
+package com.samsung.scrc.wsg.k.index.search;
+
+import java.nio.charset.StandardCharsets;
+
+import com.samsung.scrc.wsg.k.util.EntityIds;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.util.Tools;
+
+/**
+ * A page of search results held by column: entity id columns as EntityIds
+ * codes, count columns as ints, language set columns as LangSet words. A batch
+ * is filled from the doc values, without a String per cell, and refilled page
+ * after page
+ */
+public class RecordBatch {
+	private String[] idKeys;
+	private String[] countKeys;
+	private String[] setKeys;
+	private int size = 0;
+	// [column][row], -1 for the ids EntityIds cannot encode
+	private long[][] ids;
+	// [column][row], only set for the ids EntityIds cannot encode
+	private String[][] otherIds;
+	private int[][] counts;
+	// [column][row * LangSet.WORDS + word]
+	private long[][] sets;
+
+	/**
+	 * @param idKeys
+	 *            entity id columns
+	 * @param countKeys
+	 *            integer columns
+	 * @param capacity
+	 *            rows of a page
+	 */
+	public RecordBatch(String[] idKeys, String[] countKeys, int capacity) {
+		this(idKeys, countKeys, new String[0], capacity);
+	}
+
+	/**
+	 * @param idKeys
+	 *            entity id columns
+	 * @param countKeys
+	 *            integer columns
+	 * @param setKeys
+	 *            language set columns
+	 * @param capacity
+	 *            rows of a page
+	 */
+	public RecordBatch(String[] idKeys, String[] countKeys, String[] setKeys,
+			int capacity) {
+		this.idKeys = idKeys;
+		this.countKeys = countKeys;
+		this.setKeys = setKeys;
+		ids = new long[idKeys.length][capacity];
+		otherIds = new String[idKeys.length][capacity];
+		counts = new int[countKeys.length][capacity];
+		sets = new long[setKeys.length][capacity * LangSet.WORDS];
+	}
+
+	public String[] getIdKeys() {
+		return idKeys;
+	}
+
+	public String[] getCountKeys() {
+		return countKeys;
+	}
+
+	public String[] getSetKeys() {
+		return setKeys;
+	}
+
+	public int capacity() {
+		return counts.length > 0 ? counts[0].length : ids[0].length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @return the EntityIds code, -1 if the id is not encodable
+	 */
+	public long getId(int column, int row) {
+		return ids[column][row];
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @return the id, decoded
+	 */
+	public String getIdString(int column, int row) {
+		long code = ids[column][row];
+		return code >= 0 ? EntityIds.decode(code) : otherIds[column][row];
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @param code
+	 *            EntityIds code of id
+	 * @param id
+	 * @return whether the id of a cell is the given one
+	 */
+	public boolean isId(int column, int row, long code, String id) {
+		if (code >= 0) {
+			return ids[column][row] == code;
+		}
+		return ids[column][row] < 0 && id != null
+				&& id.equals(otherIds[column][row]);
+	}
+
+	public int getCount(int column, int row) {
+		return counts[column][row];
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @param word
+	 * @return a word of the language set of a cell
+	 */
+	public long getSetWord(int column, int row, int word) {
+		return sets[column][row * LangSet.WORDS + word];
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @return the languages of the set of a cell
+	 */
+	public int getSetSize(int column, int row) {
+		int size = 0;
+		for (int i = row * LangSet.WORDS; i < (row + 1) * LangSet.WORDS; i++) {
+			size += Long.bitCount(sets[column][i]);
+		}
+		return size;
+	}
+
+	/**
+	 * Empty the batch before a page
+	 */
+	public void clear() {
+		for (String[] column : otherIds) {
+			for (int i = 0; i < size; i++) {
+				column[i] = null;
+			}
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return index of a new row, or -1 if the batch is full
+	 */
+	public int add() {
+		return size < capacity() ? size++ : -1;
+	}
+
+	public void setId(int column, int row, byte[] utf8, int offset, int length) {
+		ids[column][row] = EntityIds.encode(utf8, offset, length);
+		if (ids[column][row] < 0) {
+			otherIds[column][row] = new String(utf8, offset, length,
+					StandardCharsets.UTF_8);
+		}
+	}
+
+	public void setId(int column, int row, String id) {
+		ids[column][row] = EntityIds.encode(id);
+		if (ids[column][row] < 0) {
+			otherIds[column][row] = id;
+		}
+	}
+
+	public void setCount(int column, int row, int count) {
+		counts[column][row] = count;
+	}
+
+	public void setSet(int column, int row, byte[] bytes, int offset,
+			int length) {
+		LangSet.read(bytes, offset, length, sets[column], row * LangSet.WORDS);
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @param hex
+	 *            the set as rows carry it, null for the empty set
+	 */
+	public void setSet(int column, int row, String hex) {
+		byte[] bytes = hex == null ? new byte[0] : Tools.decodeHex2Bytes(hex);
+		setSet(column, row, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Append a row of string values: the id columns, the count columns then
+	 * the set columns
+	 *
+	 * @param values
+	 * @return false if the batch is full
+	 */
+	public boolean addRow(String[] values) {
+		int row = add();
+		if (row < 0) {
+			return false;
+		}
+		for (int i = 0; i < idKeys.length; i++) {
+			setId(i, row, values[i]);
+		}
+		for (int i = 0; i < countKeys.length; i++) {
+			String value = values[idKeys.length + i];
+			setCount(i, row, value == null ? 0 : Integer.parseInt(value));
+		}
+		for (int i = 0; i < setKeys.length; i++) {
+			setSet(i, row, values[idKeys.length + countKeys.length + i]);
+		}
+		return true;
+	}
+}
@@ -4,17 +4,36 @@
  */
 package com.samsung.scrc.wsg.k.index.search;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.DocValuesRangeFilter;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
@@ -23,8 +42,14 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import com.samsung.scrc.wsg.k.index.core.IndexSchema;
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
+import com.samsung.scrc.wsg.k.index.core.ReaderRegistry;
+import com.samsung.scrc.wsg.k.index.core.IndexSchema.Role;
+import com.samsung.scrc.wsg.k.util.Tools;
 
 /**
  * @author yuxie
@@ -36,28 +61,148 @@ public class SearchIndex {
 //	private static Logger log = LogManager.getLogger(SearchIndex.class
 //			.getName());
 	private IndexReader reader;
+	private DirectoryReader[] shardReaders;
 	private IndexSearcher searcher;
 	private String indexPath;
+	private IndexSchema schema;
+	// per thread and per segment enums of the field last looked up
+	private ThreadLocal<LookupEnums> lookupEnums = new ThreadLocal<LookupEnums>();
 	private ScoreDoc tmpSortPagSearchSD = null;
 	private ScoreDoc tmpPagSearchSD = null;
+	private int tmpRangePagSearchDoc = 0;
+
+	private static class LookupEnums {
+		private String field;
+		private TermsEnum[] termsEnums;
+		private DocsEnum[] docsEnums;
+
+		private LookupEnums(String field, int leaves) {
+			this.field = field;
+			termsEnums = new TermsEnum[leaves];
+			docsEnums = new DocsEnum[leaves];
+		}
+	}
 
 	public SearchIndex(String indexPath) {
+		this(indexPath, null);
+	}
+
+	/**
+	 * With a schema, values of columns which are not stored are read from
+	 * their doc values
+	 * 
+	 * @param indexPath
+	 * @param schema
+	 */
+	public SearchIndex(String indexPath, IndexSchema schema) {
 		try {
 			this.indexPath = indexPath;
+			this.schema = schema;
 			loadSearcher();
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
+			throw new UncheckedIOException(ioe);
 		}
 	}
 
 	private void loadSearcher() throws IOException {
-		Directory directory = FSDirectory.open(new File(indexPath).toPath()); // disk
-		// index storage
-		reader = DirectoryReader.open(directory);
+		// a sharded index is searched through all of its shards, each reader
+		// is borrowed from the registry
+		List<String> shardPaths = IndexStore.shards(indexPath);
+		shardReaders = new DirectoryReader[shardPaths.size()];
+		for (int i = 0; i < shardReaders.length; i++) {
+			shardReaders[i] = ReaderRegistry.acquire(shardPaths.get(i), schema);
+		}
+		long docs = 0;
+		for (DirectoryReader shardReader : shardReaders) {
+			docs += shardReader == null ? 0 : shardReader.maxDoc();
+		}
+		if (shardReaders.length > 1 && docs > IndexWriter.MAX_DOCS) {
+			// more than a composite reader can hold, shards are to be read
+			// one at a time (SASearcher.openShards)
+			for (DirectoryReader shardReader : shardReaders) {
+				if (shardReader != null) {
+					ReaderRegistry.release(shardReader);
+				}
+			}
+			shardReaders = null;
+			throw new IllegalStateException("Too many documents to search "
+					+ indexPath + " as a whole, read it shard by shard:\t"
+					+ docs);
+		}
+		reader = shardReaders.length == 1 ? shardReaders[0] : new MultiReader(
+				shardReaders, false);
 		searcher = new IndexSearcher(reader);
-		directory.close();
+	}
+
+	/**
+	 * Load the values of keys for one document: stored columns from the
+	 * stored document, the others from sorted or numeric doc values
+	 * 
+	 * @param docId
+	 * @param keys
+	 * @return
+	 * @throws IOException
+	 */
+	private String[] loadValues(int docId, String[] keys) throws IOException {
+		List<LeafReaderContext> leaves = reader.leaves();
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+		return loadValues(leaf.reader(), docId - leaf.docBase, keys);
+	}
+
+	private String[] loadValues(LeafReader leafReader, int leafDocId,
+			String[] keys) throws IOException {
+		String[] values = new String[keys.length];
+		if (schema == null) {
+			Document d = leafReader.document(leafDocId);
+			for (int i = 0; i < keys.length; i++) {
+				values[i] = d.get(keys[i]);
+			}
+			return values;
+		}
+		Set<String> storedKeys = null;
+		for (int i = 0; i < keys.length; i++) {
+			IndexSchema.Column column = schema.getColumn(keys[i]);
+			if (column == null) {
+				continue;
+			}
+			if (column.has(Role.STORED)) {
+				if (storedKeys == null) {
+					storedKeys = new HashSet<String>();
+				}
+				storedKeys.add(keys[i]);
+			} else if (column.has(Role.SORTED)) {
+				SortedDocValues sdv = leafReader.getSortedDocValues(column
+						.getSortName());
+				if (sdv != null && sdv.getOrd(leafDocId) != -1) {
+					values[i] = sdv.get(leafDocId).utf8ToString();
+				}
+			} else if (column.has(Role.NUMERIC)) {
+				NumericDocValues ndv = leafReader.getNumericDocValues(column
+						.getName());
+				if (ndv != null) {
+					values[i] = String.valueOf(ndv.get(leafDocId));
+				}
+			} else if (column.has(Role.BINARY)) {
+				BinaryDocValues bdv = leafReader.getBinaryDocValues(column
+						.getName());
+				if (bdv != null) {
+					BytesRef bytes = bdv.get(leafDocId);
+					values[i] = Tools.encodeBytes2Hex(bytes.bytes,
+							bytes.offset, bytes.length);
+				}
+			}
+		}
+		if (storedKeys != null) {
+			Document d = leafReader.document(leafDocId, storedKeys);
+			for (int i = 0; i < keys.length; i++) {
+				if (storedKeys.contains(keys[i])) {
+					values[i] = d.get(keys[i]);
+				}
+			}
+		}
+		return values;
 	}
 
 	public String[] termSearch(String[] keys, String[] condKey,
@@ -74,24 +219,66 @@ public class SearchIndex {
 			// log.trace("Term Search Found " + count + " out of "
 			// + hits.totalHits + ".");
 			if (count > 0) {
-				String[] results = new String[keys.length];
 				int docId = hits.scoreDocs[0].doc;
-				Document d = searcher.doc(docId);
-				for (int i = 0; i < keys.length; i++) {
-					results[i] = d.get(keys[i]);
-				}
-				return results;
+				return loadValues(docId, keys);
 			} else {
 				return null;
 			}
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
-			return null;
+			throw new UncheckedIOException(ioe);
 		}
 	}
 
+	/**
+	 * Point lookup of the first document holding a term: the term is sought
+	 * in the terms dictionary of each segment and its first posting is read,
+	 * without building, scoring or collecting a query. Term and postings
+	 * enums are reused by the calling thread
+	 * 
+	 * @param keys
+	 * @param condKey
+	 * @param condKeyword
+	 * @return values of keys, or null if no document holds the term
+	 */
+	public String[] lookup(String[] keys, String condKey, String condKeyword) {
+		BytesRef term = new BytesRef(condKeyword);
+		List<LeafReaderContext> leaves = reader.leaves();
+		LookupEnums enums = lookupEnums.get();
+		if (enums == null || !condKey.equals(enums.field)) {
+			enums = new LookupEnums(condKey, leaves.size());
+			lookupEnums.set(enums);
+		}
+		try {
+			for (int i = 0; i < leaves.size(); i++) {
+				LeafReader leafReader = leaves.get(i).reader();
+				if (enums.termsEnums[i] == null) {
+					Terms terms = leafReader.terms(condKey);
+					if (terms == null) {
+						continue;
+					}
+					enums.termsEnums[i] = terms.iterator(null);
+				}
+				if (!enums.termsEnums[i].seekExact(term)) {
+					continue;
+				}
+				enums.docsEnums[i] = enums.termsEnums[i].docs(
+						leafReader.getLiveDocs(), enums.docsEnums[i],
+						DocsEnum.FLAG_NONE);
+				int leafDocId = enums.docsEnums[i].nextDoc();
+				if (leafDocId != DocIdSetIterator.NO_MORE_DOCS) {
+					return loadValues(leafReader, leafDocId, keys);
+				}
+			}
+		} catch (IOException ioe) {
+			// TODO Auto-generated catch block
+//			log.error(this, ioe);
+			throw new UncheckedIOException(ioe);
+		}
+		return null;
+	}
+
 	public String[] termSearch(String[] keys, String condKey, String condKeyword) {
 		Query query = new TermQuery(new Term(condKey, condKeyword));
 		TopDocs hits = null;
@@ -101,21 +288,15 @@ public class SearchIndex {
 			// log.trace("Term Search Found " + count + " out of "
 			// + hits.totalHits + ".");
 			if (count > 0) {
-				String[] results = new String[keys.length];
 				int docId = hits.scoreDocs[0].doc;
-				Document d = searcher.doc(docId);
-				for (int i = 0; i < keys.length; i++) {
-					results[i] = d.get(keys[i]);
-				}
-				return results;
+				return loadValues(docId, keys);
 			} else {
 				return null;
 			}
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
-			return null;
+			throw new UncheckedIOException(ioe);
 		}
 	}
 
@@ -139,8 +320,7 @@ public class SearchIndex {
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
-			return false;
+			throw new UncheckedIOException(ioe);
 		}
 	}
 
@@ -155,16 +335,13 @@ public class SearchIndex {
 			hits = searcher.searchAfter(tmpPagSearchSD, query, limit);
 			int count = hits.scoreDocs.length;
 			if (count > 0) {
-				String[][] searchResults = new String[count][keys.length];
+				String[][] searchResults = new String[count][];
 //				log.trace("Full Sort Search Found " + count + " hits out of "
 //						+ hits.totalHits + ".");
 				
 				for (int i = 0; i < count; ++i) {
 					int docId = hits.scoreDocs[i].doc;
-					Document d = searcher.doc(docId);
-					for (int j = 0; j < keys.length; j++) {
-						searchResults[i][j] = d.get(keys[j]);
-					}
+					searchResults[i] = loadValues(docId, keys);
 				}
 				tmpPagSearchSD = hits.scoreDocs[count - 1];
 				return searchResults;
@@ -174,13 +351,245 @@ public class SearchIndex {
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
-			return null;
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Next page of the documents whose doc ids are in [from, to), in index
+	 * order, so that the ranges of a reader can be read apart
+	 * 
+	 * @param keys
+	 * @param from
+	 * @param to
+	 * @param limit
+	 * @param init
+	 * @return null at the end of the range
+	 */
+	public String[][] rangePagSearch(String[] keys, int from, int to,
+			int limit, boolean init) {
+		if (init) {
+			tmpRangePagSearchDoc = from;
+		}
+		Bits liveDocs = MultiFields.getLiveDocs(reader);
+		int end = Math.min(to, reader.maxDoc());
+		List<String[]> searchResults = new ArrayList<String[]>();
+		try {
+			while (tmpRangePagSearchDoc < end && searchResults.size() < limit) {
+				int docId = tmpRangePagSearchDoc++;
+				if (liveDocs == null || liveDocs.get(docId)) {
+					searchResults.add(loadValues(docId, keys));
+				}
+			}
+		} catch (IOException ioe) {
+			// TODO Auto-generated catch block
+//			log.error(this, ioe);
+			throw new UncheckedIOException(ioe);
+		}
+		return searchResults.isEmpty() ? null : searchResults
+				.toArray(new String[searchResults.size()][]);
+	}
+
+	/**
+	 * @return one more than the largest doc id of the index
+	 */
+	public int maxDoc() {
+		return reader.maxDoc();
+	}
+
+	/**
+	 * Next page of the documents in index order into a batch
+	 * 
+	 * @param batch
+	 *            refilled with up to its capacity rows
+	 * @param init
+	 * @return false at the end
+	 */
+	public boolean pagSearch(RecordBatch batch, boolean init) {
+		if (init) {
+			tmpPagSearchSD = null;
+		}
+		batch.clear();
+		try {
+			TopDocs hits = searcher.searchAfter(tmpPagSearchSD,
+					new MatchAllDocsQuery(), batch.capacity());
+			if (hits.scoreDocs.length == 0) {
+				return false;
+			}
+			fill(batch, hits.scoreDocs);
+			tmpPagSearchSD = hits.scoreDocs[hits.scoreDocs.length - 1];
+			return true;
+		} catch (IOException ioe) {
+			// TODO Auto-generated catch block
+//			log.error(this, ioe);
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Next page of the documents sorted by sortKeys into a batch
+	 * 
+	 * @param batch
+	 *            refilled with up to its capacity rows
+	 * @param sortKeys
+	 * @param init
+	 * @return false at the end
+	 */
+	public boolean sortPagSearch(RecordBatch batch, String[] sortKeys,
+			boolean init) {
+		if (init) {
+			tmpSortPagSearchSD = null;
+		}
+		batch.clear();
+		SortField[] sf = new SortField[sortKeys.length];
+		for (int i = 0; i < sortKeys.length; i++) {
+			sf[i] = new SortField(sortKeys[i], SortField.Type.STRING);
+		}
+		try {
+			TopDocs topDocs = searcher.searchAfter(tmpSortPagSearchSD,
+					new MatchAllDocsQuery(), null, batch.capacity(),
+					new Sort(sf));
+			if (topDocs.scoreDocs.length == 0) {
+				return false;
+			}
+			fill(batch, topDocs.scoreDocs);
+			tmpSortPagSearchSD = topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+			return true;
+		} catch (IOException ioe) {
+			// TODO Auto-generated catch block
+//			log.error(this, ioe);
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Read the columns of a batch from the sorted, numeric and binary doc
+	 * values, a column without them is loaded as a string
+	 * 
+	 * @param batch
+	 * @param docs
+	 * @throws IOException
+	 */
+	private void fill(RecordBatch batch, ScoreDoc[] docs) throws IOException {
+		String[] idKeys = batch.getIdKeys();
+		String[] countKeys = batch.getCountKeys();
+		String[] setKeys = batch.getSetKeys();
+		String[] keys = new String[idKeys.length + countKeys.length
+				+ setKeys.length];
+		System.arraycopy(idKeys, 0, keys, 0, idKeys.length);
+		System.arraycopy(countKeys, 0, keys, idKeys.length, countKeys.length);
+		System.arraycopy(setKeys, 0, keys, idKeys.length + countKeys.length,
+				setKeys.length);
+		SortedDocValues[] idValues = new SortedDocValues[idKeys.length];
+		NumericDocValues[] countValues = new NumericDocValues[countKeys.length];
+		BinaryDocValues[] setValues = new BinaryDocValues[setKeys.length];
+		List<LeafReaderContext> leaves = reader.leaves();
+		LeafReaderContext leaf = null;
+		for (ScoreDoc doc : docs) {
+			int leafIndex = ReaderUtil.subIndex(doc.doc, leaves);
+			if (leaf == null || leaf.ord != leafIndex) {
+				leaf = leaves.get(leafIndex);
+				for (int i = 0; i < idKeys.length; i++) {
+					IndexSchema.Column column = schema == null ? null : schema
+							.getColumn(idKeys[i]);
+					idValues[i] = column != null && column.has(Role.SORTED) ? leaf
+							.reader().getSortedDocValues(column.getSortName())
+							: null;
+				}
+				for (int i = 0; i < countKeys.length; i++) {
+					IndexSchema.Column column = schema == null ? null : schema
+							.getColumn(countKeys[i]);
+					countValues[i] = column != null && column.has(Role.NUMERIC) ? leaf
+							.reader().getNumericDocValues(column.getName())
+							: null;
+				}
+				for (int i = 0; i < setKeys.length; i++) {
+					IndexSchema.Column column = schema == null ? null : schema
+							.getColumn(setKeys[i]);
+					setValues[i] = column != null && column.has(Role.BINARY) ? leaf
+							.reader().getBinaryDocValues(column.getName())
+							: null;
+				}
+			}
+			int leafDocId = doc.doc - leaf.docBase;
+			int row = batch.add();
+			String[] values = null;
+			for (int i = 0; i < idKeys.length; i++) {
+				if (idValues[i] != null) {
+					int ord = idValues[i].getOrd(leafDocId);
+					if (ord != -1) {
+						BytesRef id = idValues[i].lookupOrd(ord);
+						batch.setId(i, row, id.bytes, id.offset, id.length);
+					} else {
+						batch.setId(i, row, null);
+					}
+					continue;
+				}
+				if (values == null) {
+					values = loadValues(leaf.reader(), leafDocId, keys);
+				}
+				batch.setId(i, row, values[i]);
+			}
+			for (int i = 0; i < countKeys.length; i++) {
+				if (countValues[i] != null) {
+					batch.setCount(i, row, (int) countValues[i].get(leafDocId));
+					continue;
+				}
+				if (values == null) {
+					values = loadValues(leaf.reader(), leafDocId, keys);
+				}
+				String value = values[idKeys.length + i];
+				batch.setCount(i, row, value == null ? 0 : Integer
+						.parseInt(value));
+			}
+			for (int i = 0; i < setKeys.length; i++) {
+				if (setValues[i] != null) {
+					BytesRef set = setValues[i].get(leafDocId);
+					batch.setSet(i, row, set.bytes, set.offset, set.length);
+					continue;
+				}
+				if (values == null) {
+					values = loadValues(leaf.reader(), leafDocId, keys);
+				}
+				batch.setSet(i, row, values[idKeys.length + countKeys.length
+						+ i]);
+			}
 		}
 	}
 
 	public String[][] sortPagSearch(String[] keys, String[] sortKeys,
 			int limit, boolean init) {
+		return sortPagSearch(keys, sortKeys, null, limit, init);
+	}
+
+	/**
+	 * Sorted pagination restricted to the documents whose sorted doc values
+	 * of rangeKey fall in [lower, upper)
+	 * 
+	 * @param keys
+	 * @param sortKeys
+	 * @param rangeKey
+	 * @param lower
+	 *            null for no lower bound
+	 * @param upper
+	 *            null for no upper bound
+	 * @param limit
+	 * @param init
+	 * @return
+	 */
+	public String[][] sortPagSearch(String[] keys, String[] sortKeys,
+			String rangeKey, String lower, String upper, int limit,
+			boolean init) {
+		Filter filter = null;
+		if (lower != null || upper != null) {
+			filter = DocValuesRangeFilter.newStringRange(rangeKey, lower,
+					upper, true, false);
+		}
+		return sortPagSearch(keys, sortKeys, filter, limit, init);
+	}
+
+	private String[][] sortPagSearch(String[] keys, String[] sortKeys,
+			Filter filter, int limit, boolean init) {
 		if (init) {
 			tmpSortPagSearchSD = null;
 		}
@@ -192,21 +601,16 @@ public class SearchIndex {
 		}
 		Sort sort = new Sort(sf);
 		try {
-			topDocs = searcher.searchAfter(tmpSortPagSearchSD, query, limit,
-					sort);
+			topDocs = searcher.searchAfter(tmpSortPagSearchSD, query, filter,
+					limit, sort);
 			int count = topDocs.scoreDocs.length;
 //			log.trace("Sort Pagination Search Found " + count + " hits out of "
 //					+ topDocs.totalHits + ".");
 			if (count > 0) {
-				String[][] searchResults = new String[count][keys.length];
+				String[][] searchResults = new String[count][];
 				for (int i = 0; i < count; ++i) {
 					int docId = topDocs.scoreDocs[i].doc;
-					Document d = searcher.doc(docId);
-					String[] searchResultItem = new String[keys.length];
-					for (int j = 0; j < keys.length; j++) {
-						searchResultItem[j] = d.get(keys[j]);
-					}
-					searchResults[i] = searchResultItem;
+					searchResults[i] = loadValues(docId, keys);
 				}
 				tmpSortPagSearchSD = topDocs.scoreDocs[count - 1];
 				return searchResults;
@@ -216,8 +620,7 @@ public class SearchIndex {
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
-			return null;
+			throw new UncheckedIOException(ioe);
 		}
 	}
 
@@ -231,13 +634,13 @@ public class SearchIndex {
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
+			throw new UncheckedIOException(ioe);
 		}
 		return totalCount;
 	}
 
 	public void close() {
-		if (reader != null) {
+		if (reader != null && shardReaders.length > 1) {
 			try {
 				reader.close();
 			} catch (IOException ioe) {
@@ -246,5 +649,12 @@ public class SearchIndex {
 				System.err.println(ioe);
 			}
 		}
+		if (shardReaders != null) {
+			for (DirectoryReader shardReader : shardReaders) {
+				if (shardReader != null) {
+					ReaderRegistry.release(shardReader);
+				}
+			}
+		}
 	}
 }
\ No newline at end of file
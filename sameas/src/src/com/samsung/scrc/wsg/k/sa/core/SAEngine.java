@@ -4,17 +4,26 @@
  */
 package com.samsung.scrc.wsg.k.sa.core;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
+import com.samsung.scrc.wsg.k.index.core.ReaderRegistry;
 import com.samsung.scrc.wsg.k.sa.matcher.FullMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.IncrementalRun;
 import com.samsung.scrc.wsg.k.sa.matcher.Matcher;
+import com.samsung.scrc.wsg.k.sa.matcher.ResidueMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.StatSAMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.StatSAScan;
 import com.samsung.scrc.wsg.k.sa.output.TSVgenerator;
 import com.samsung.scrc.wsg.k.sa.preproc.Preproc;
 import com.samsung.scrc.wsg.k.sa.stat.Stat;
@@ -27,8 +36,12 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  * 
  */
 public class SAEngine {
+	// the stage of the shared scan of the sameAs statistics
+	private static final String SCAN_STAGE = "stat-sa-scan";
 //	private static Logger log = LogManager.getLogger(SAWriter.class.getName());
 	private List<Matcher> matchers = new ArrayList<Matcher>();
+	// patches the results of an earlier run, null for a full run
+	private IncrementalRun incremental = null;
 
 	public SAEngine() {
 
@@ -63,6 +76,150 @@ public class SAEngine {
 					}
 				}
 			}
+			String budget = props
+					.getProperty(GlobalParameters.PROP_TMP_BUDGET);
+			if (budget != null && !budget.trim().equals("")) {
+				GlobalParameters.TMP_INDEX_BUDGET_MB = Long.valueOf(budget
+						.trim());
+			}
+			String intermediate = props
+					.getProperty(GlobalParameters.PROP_INTERMEDIATE);
+			if (intermediate != null && !intermediate.trim().equals("")) {
+				GlobalParameters.INTERMEDIATE_STORE = intermediate.trim();
+			}
+			String shards = props.getProperty(GlobalParameters.PROP_SHARDS);
+			if (shards != null && !shards.trim().equals("")) {
+				GlobalParameters.SHARD_COUNT = Integer.valueOf(shards.trim());
+			}
+			String workers = props
+					.getProperty(GlobalParameters.PROP_WORKERS);
+			if (workers != null && !workers.trim().equals("")) {
+				GlobalParameters.WORKER_COUNT = Integer.valueOf(workers.trim());
+			}
+			String ranges = props
+					.getProperty(GlobalParameters.PROP_JOIN_RANGES);
+			if (ranges != null && !ranges.trim().equals("")) {
+				GlobalParameters.JOIN_RANGES = Integer.valueOf(ranges.trim());
+			}
+			String join = props.getProperty(GlobalParameters.PROP_JOIN);
+			if (join != null && !join.trim().equals("")) {
+				GlobalParameters.JOIN_MODE = join.trim();
+			}
+			String joinBudget = props
+					.getProperty(GlobalParameters.PROP_JOIN_BUDGET);
+			if (joinBudget != null && !joinBudget.trim().equals("")) {
+				GlobalParameters.JOIN_BUDGET_MB = Long.valueOf(joinBudget
+						.trim());
+			}
+			String bloom = props.getProperty(GlobalParameters.PROP_BLOOM);
+			if (bloom != null && !bloom.trim().equals("")) {
+				GlobalParameters.BLOOM_FILTER = Boolean.valueOf(bloom.trim());
+			}
+			String bloomFpp = props
+					.getProperty(GlobalParameters.PROP_BLOOM_FPP);
+			if (bloomFpp != null && !bloomFpp.trim().equals("")) {
+				GlobalParameters.BLOOM_FPP = Double.valueOf(bloomFpp.trim());
+			}
+			String stageWorkers = props
+					.getProperty(GlobalParameters.PROP_STAGE_WORKERS);
+			if (stageWorkers != null && !stageWorkers.trim().equals("")) {
+				GlobalParameters.STAGE_WORKERS = Integer.valueOf(stageWorkers
+						.trim());
+			}
+			String threshold = props
+					.getProperty(GlobalParameters.PROP_THRESHOLD);
+			if (threshold != null && !threshold.trim().equals("")) {
+				GlobalParameters.THRESHOLD = Double.valueOf(threshold.trim());
+			}
+			String sweep = props
+					.getProperty(GlobalParameters.PROP_THRESHOLD_SWEEP);
+			if (sweep != null && !sweep.trim().equals("")) {
+				String[] values = sweep.split(",");
+				GlobalParameters.THRESHOLD_SWEEP = new double[values.length];
+				for (int i = 0; i < values.length; i++) {
+					GlobalParameters.THRESHOLD_SWEEP[i] = Double
+							.valueOf(values[i].trim());
+				}
+			}
+			String gold = props
+					.getProperty(GlobalParameters.PROP_THRESHOLD_GOLD);
+			if (gold != null && !gold.trim().equals("")) {
+				GlobalParameters.THRESHOLD_GOLD = gold.trim();
+			}
+			String bands = props
+					.getProperty(GlobalParameters.PROP_RESIDUE_BANDS);
+			if (bands != null && !bands.trim().equals("")) {
+				GlobalParameters.RESIDUE_BANDS = Integer.valueOf(bands.trim());
+			}
+			String rows = props.getProperty(GlobalParameters.PROP_RESIDUE_ROWS);
+			if (rows != null && !rows.trim().equals("")) {
+				GlobalParameters.RESIDUE_ROWS = Integer.valueOf(rows.trim());
+			}
+			String similarity = props
+					.getProperty(GlobalParameters.PROP_RESIDUE_SIMILARITY);
+			if (similarity != null && !similarity.trim().equals("")) {
+				GlobalParameters.RESIDUE_SIMILARITY = Double.valueOf(similarity
+						.trim());
+			}
+			String base = props
+					.getProperty(GlobalParameters.PROP_INCREMENTAL_BASE);
+			if (base != null && !base.trim().equals("")) {
+				GlobalParameters.INCREMENTAL_BASE = base.trim();
+			}
+			String exact = props
+					.getProperty(GlobalParameters.PROP_ASSIGNMENT_EXACT);
+			if (exact != null && !exact.trim().equals("")) {
+				GlobalParameters.ASSIGNMENT_EXACT = Integer.valueOf(exact
+						.trim());
+			}
+			String langSets = props
+					.getProperty(GlobalParameters.PROP_LANG_SETS);
+			if (langSets != null && !langSets.trim().equals("")) {
+				GlobalParameters.LANG_SETS = Boolean.valueOf(langSets.trim());
+			}
+			String measure = props
+					.getProperty(GlobalParameters.PROP_OVERLAP_MEASURE);
+			if (measure != null && !measure.trim().equals("")) {
+				GlobalParameters.OVERLAP_MEASURE = measure.trim();
+			}
+			String overlap = props
+					.getProperty(GlobalParameters.PROP_OVERLAP_THRESHOLD);
+			if (overlap != null && !overlap.trim().equals("")) {
+				GlobalParameters.OVERLAP_THRESHOLD = Double.valueOf(overlap
+						.trim());
+			}
+			String voters = props
+					.getProperty(GlobalParameters.PROP_VOTE_MATCHERS);
+			if (voters != null && !voters.trim().equals("")) {
+				String[] names = voters.split(",");
+				for (int i = 0; i < names.length; i++) {
+					names[i] = names[i].trim();
+				}
+				GlobalParameters.VOTE_MATCHERS = names;
+			}
+			String voteMin = props.getProperty(GlobalParameters.PROP_VOTE_MIN);
+			if (voteMin != null && !voteMin.trim().equals("")) {
+				GlobalParameters.VOTE_MIN = Integer.valueOf(voteMin.trim());
+			}
+			String compression = props
+					.getProperty(GlobalParameters.PROP_EXPORT_COMPRESSION);
+			if (compression != null && !compression.trim().equals("")) {
+				GlobalParameters.EXPORT_COMPRESSION = compression.trim();
+			}
+			String parts = props
+					.getProperty(GlobalParameters.PROP_EXPORT_PARTS);
+			if (parts != null && !parts.trim().equals("")) {
+				GlobalParameters.EXPORT_PARTS = Integer.valueOf(parts.trim());
+			}
+			String format = props
+					.getProperty(GlobalParameters.PROP_EXPORT_FORMAT);
+			if (format != null && !format.trim().equals("")) {
+				GlobalParameters.EXPORT_FORMAT = format.trim();
+			}
+			String graph = props.getProperty(GlobalParameters.PROP_RDF_GRAPH);
+			if (graph != null && !graph.trim().equals("")) {
+				GlobalParameters.RDF_GRAPH = graph.trim();
+			}
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
@@ -83,36 +240,226 @@ public class SAEngine {
 	}
 
 	/**
-	 * Engine Run EntryPoint
+	 * The pipeline as a stage graph, every stage declaring the index paths it
+	 * reads and writes
+	 * 
+	 * @return
 	 */
-	public void run() {
-		this.init();
-//		log.info("Start to run SameAs Extraction ....");
-		System.out.println("Start to run SameAs Extraction ....");
+	private StageGraph stages() {
+		StageGraph graph = new StageGraph();
+		String[] none = {};
 		// indexing (extracting Wikidata Link from Freebase RDF dump & Wikidata
 		// SQL database)
-		Preproc.proc();
+		String[] keys = { GlobalParameters.PATH_INDEX_FB,
+				GlobalParameters.PATH_INDEX_FB_FILTERED,
+				GlobalParameters.PATH_INDEX_WD };
+		boolean residue = false;
+		for (Matcher matcher : matchers) {
+			residue |= matcher instanceof ResidueMatcher;
+		}
+		// the Freebase keys sa.bloom drops are kept for the residue matcher
+		final boolean keepFiltered = residue;
+		graph.stage("preproc", none, keys, new Runnable() {
+			@Override
+			public void run() {
+				Preproc.proc(keepFiltered);
+			}
+		});
 		// engine core
-		// 1- statistics (count entities according to language)
-		Stat.statLang();
-		// 2- full matching
-		FullMatcher fMatcher = new FullMatcher();
-		fMatcher.init();
-		fMatcher.match();
-		fMatcher.close();
+		// 1- statistics (count entities according to language), per side
+		String[] fbKeys = { GlobalParameters.PATH_INDEX_FB };
+		String[] fbStat = { GlobalParameters.PATH_INDEX_STAT_FB };
+		graph.stage("stat-lang-fb", fbKeys, fbStat, new Runnable() {
+			@Override
+			public void run() {
+				Stat.statLang(GlobalParameters.PATH_INDEX_STAT_FB,
+						GlobalParameters.PATH_INDEX_FB);
+			}
+		});
+		String[] wdKeys = { GlobalParameters.PATH_INDEX_WD };
+		String[] wdStat = { GlobalParameters.PATH_INDEX_STAT_WD };
+		graph.stage("stat-lang-wd", wdKeys, wdStat, new Runnable() {
+			@Override
+			public void run() {
+				Stat.statLang(GlobalParameters.PATH_INDEX_STAT_WD,
+						GlobalParameters.PATH_INDEX_WD);
+			}
+		});
+		// 2- full matching, or only the pairs of the entities whose keys
+		// changed since the earlier run
+		if (incremental == null) {
+			stage(graph, new FullMatcher());
+		} else {
+			String[] origin = { GlobalParameters.PATH_INDEX_SA_ORIGIN };
+			graph.stage("origin-patch", keys, origin, new Runnable() {
+				@Override
+				public void run() {
+					incremental.diff();
+					incremental.patchOrigin();
+				}
+			});
+		}
 		// 3 - statistics (count all)
-		Stat.statSA();
+		String[] saInputs = { GlobalParameters.PATH_INDEX_SA_ORIGIN,
+				GlobalParameters.PATH_INDEX_STAT_FB,
+				GlobalParameters.PATH_INDEX_STAT_WD };
+		String[] saStat = { GlobalParameters.PATH_INDEX_STAT_SA };
+		graph.stage("stat-sa", saInputs, saStat, new Runnable() {
+			@Override
+			public void run() {
+				if (incremental == null) {
+					Stat.statSA();
+				} else {
+					incremental.patchStatSA();
+				}
+			}
+		});
 		// for specific matcher approaches
 		// 4 - matcher
+		Set<String> results = new HashSet<String>();
+		results.add(GlobalParameters.PATH_INDEX_SA_ORIGIN);
+		// the first passes reading the sameAs statistics share one scan
+		final List<StatSAMatcher> scanned = new ArrayList<StatSAMatcher>();
+		List<String> scanOutputs = new ArrayList<String>();
+		for (Matcher matcher : matchers) {
+			if (matcher instanceof StatSAMatcher) {
+				scanned.add((StatSAMatcher) matcher);
+				String scanOutput = ((StatSAMatcher) matcher).getScanOutput();
+				if (scanOutput != null) {
+					scanOutputs.add(scanOutput);
+				}
+			}
+		}
+		if (!scanned.isEmpty() && incremental != null) {
+			// the decisions that may have changed are taken again, in a
+			// single stage patching every result
+			for (StatSAMatcher matcher : scanned) {
+				scanOutputs.addAll(Arrays.asList(matcher.getOutputs()));
+			}
+			graph.stage("stat-sa-rematch", saStat,
+					scanOutputs.toArray(new String[scanOutputs.size()]),
+					new Runnable() {
+						@Override
+						public void run() {
+							incremental.rematch(scanned);
+						}
+					});
+		} else if (!scanned.isEmpty()) {
+			graph.stage(SCAN_STAGE, saStat,
+					scanOutputs.toArray(new String[scanOutputs.size()]),
+					new Runnable() {
+						@Override
+						public void run() {
+							StatSAScan.run(scanned);
+						}
+					});
+		}
+		boolean scanOnly = incremental == null && !scanned.isEmpty();
 		for (Matcher matcher : matchers) {
-			matcher.init();
-			matcher.match();
-			matcher.close();
+			if (matcher instanceof StatSAMatcher) {
+				if (incremental == null) {
+					stageAfterScan(graph, (StatSAMatcher) matcher);
+				}
+			} else {
+				stage(graph, matcher);
+			}
+			results.addAll(Arrays.asList(matcher.getOutputs()));
+		}
+		// 5- generate tsv result files, each as soon as its index is complete
+		final TSVgenerator generator = new TSVgenerator();
+		for (final String index : generator.getIndexes()) {
+			if (!results.contains(index)) {
+				continue;
+			}
+			String[] inputs = { index };
+			graph.stage("tsv " + new File(index).getName(), inputs, none,
+					new Runnable() {
+						@Override
+						public void run() {
+							generator.generate(index);
+						}
+					});
+		}
+		// the sameAs statistics may be kept in sort runs if the shared scan
+		// is their only reader (the origin pairs are read by their TSV export
+		// too)
+		if (GlobalParameters.INTERMEDIATE_STORE.equals("sort") && scanOnly
+				&& graph.readers(GlobalParameters.PATH_INDEX_STAT_SA) == 1) {
+			SortedRunStore.select(GlobalParameters.PATH_INDEX_STAT_SA);
+		}
+		return graph;
+	}
+
+	private static void stage(StageGraph graph, final Matcher matcher) {
+		graph.stage(matcher.getClass().getSimpleName(), matcher.getInputs(),
+				matcher.getOutputs(), new Runnable() {
+					@Override
+					public void run() {
+						matcher.init();
+						matcher.match();
+						matcher.close();
+					}
+				});
+	}
+
+	/**
+	 * The passes of a matcher after the shared scan, none if the scan writes
+	 * its result
+	 * 
+	 * @param graph
+	 * @param matcher
+	 */
+	private static void stageAfterScan(StageGraph graph,
+			final StatSAMatcher matcher) {
+		List<String> outputs = new ArrayList<String>(Arrays.asList(matcher
+				.getOutputs()));
+		outputs.remove(matcher.getScanOutput());
+		if (outputs.isEmpty()) {
+			return;
+		}
+		// the rows the scan leaves in memory
+		String[] inputs = { SCAN_STAGE };
+		graph.stage(matcher.getClass().getSimpleName(), inputs,
+				outputs.toArray(new String[outputs.size()]), new Runnable() {
+					@Override
+					public void run() {
+						matcher.init();
+						matcher.matchAfterScan();
+						matcher.close();
+					}
+				});
+	}
+
+	/**
+	 * Engine Run EntryPoint
+	 * 
+	 * @return false if a stage failed, was skipped or could not run
+	 */
+	public boolean run() {
+		this.init();
+//		log.info("Start to run SameAs Extraction ....");
+		System.out.println("Start to run SameAs Extraction ....");
+		if (GlobalParameters.INCREMENTAL_BASE != null) {
+			incremental = new IncrementalRun(GlobalParameters.INCREMENTAL_BASE);
+			if (!incremental.isAvailable(matchers)) {
+				System.out.println("Incremental base "
+						+ GlobalParameters.INCREMENTAL_BASE
+						+ " is incomplete, running in full");
+				incremental = null;
+				GlobalParameters.INCREMENTAL_BASE = null;
+			}
+		}
+		// independent stages run concurrently
+		boolean success = this.stages().run(GlobalParameters.STAGE_WORKERS);
+		// readers shared by the stages
+		ReaderRegistry.closeAll();
+		if (!success) {
+//			log.error("SameAs Extraction failed!");
+			System.err.println("SameAs Extraction failed!");
+			return false;
 		}
-		// 5- generate tsv result files
-		TSVgenerator generator = new TSVgenerator();
-		generator.generate();
 //		log.info("SameAs Extraction is finished!");
 		System.out.println("SameAs Extraction is finished!");
+		return true;
 	}
 }
@@ -1,5 +1,5 @@
 /**
- * LuceneSearcher.java
+ * SASearcher.java
  */
 package com.samsung.scrc.wsg.k.sa.core;
 
@@ -9,7 +9,10 @@ import java.util.List;
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
 import com.samsung.scrc.wsg.k.index.search.SearchIndex;
+import com.samsung.scrc.wsg.k.util.LangSet;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -24,42 +27,180 @@ public class SASearcher {
 //	private static Logger log = LogManager
 //			.getLogger(SASearcher.class.getName());
 	private SearchIndex searcher;
+	// set instead of searcher when the index is kept in sort runs
+	private SortedRunStore runs;
+	private SortedRunStore.Pager pager;
+	private String path;
+	private int shard = -1;
 
 	public SASearcher(String path) {
-		this.searcher = new SearchIndex(path);
+		this.path = path;
+		runs = SortedRunStore.get(path);
+		if (runs != null) {
+			int[] shards = new int[runs.getShardCount()];
+			for (int i = 0; i < shards.length; i++) {
+				shards[i] = i;
+			}
+			pager = runs.pager(shards);
+			return;
+		}
+		this.searcher = new SearchIndex(path, SchemaRegistry.lookup(path));
 	}
 
+	/**
+	 * Search a single shard of an index
+	 * 
+	 * @param path
+	 * @param shard
+	 */
+	public SASearcher(String path, int shard) {
+		this.path = path;
+		this.shard = shard;
+		runs = SortedRunStore.get(path);
+		if (runs != null) {
+			pager = runs.pager(new int[] { shard });
+			return;
+		}
+		this.searcher = new SearchIndex(IndexStore.shard(path, shard),
+				SchemaRegistry.lookup(path));
+	}
+
+	/**
+	 * @param path
+	 * @return the number of shards of an index
+	 */
+	public static int shards(String path) {
+		SortedRunStore runs = SortedRunStore.get(path);
+		if (runs != null) {
+			return runs.getShardCount();
+		}
+		return IndexStore.shards(path).size();
+	}
+
+	/**
+	 * Open a searcher per shard of an index. A whole index is read shard
+	 * after shard rather than through a single reader over its shards, which
+	 * cannot hold more than IndexWriter.MAX_DOCS documents
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public static SASearcher[] openShards(String path) {
+		SASearcher[] searchers = new SASearcher[shards(path)];
+		for (int i = 0; i < searchers.length; i++) {
+			searchers[i] = new SASearcher(path, i);
+		}
+		return searchers;
+	}
+
+	/**
+	 * @param path
+	 * @return the number of documents of an index, over all its shards
+	 */
+	public static long totalCount(String path) {
+		long count = 0;
+		for (SASearcher searcher : openShards(path)) {
+			count += searcher.fetchTotalCount();
+			searcher.close();
+		}
+		return count;
+	}
+
+	private String[][] sortPagSearch(String[] keys, String[] sortKeys,
+			int limit, boolean init) {
+		if (pager == null) {
+			return searcher.sortPagSearch(keys, sortKeys, limit, init);
+		}
+		// sort runs are ordered by the shard key only
+		if (sortKeys.length != 1
+				|| !sortKeys[0].equals(runs.getSchema().getShardKey()
+						.getSortName())) {
+			throw new IllegalStateException("Sort runs of " + path
+					+ " are not sorted by:\t" + String.join(",", sortKeys));
+		}
+		return pager.page(keys, limit, init);
+	}
+
+	private String[][] pagSearch(String[] keys, int limit, boolean init) {
+		if (pager == null) {
+			return searcher.pagSearch(keys, limit, init);
+		}
+		return pager.page(keys, limit, init);
+	}
+
+	/**
+	 * Next page of the items ordered by id, counted per entity: ID,
+	 * LANG_COUNT, LANG_SET (the set of the languages of the URLs, null
+	 * unless GlobalParameters.LANG_SETS)
+	 * 
+	 * @param flag
+	 * @return
+	 */
 	public List<String[]> fetchEntityCount(boolean flag) {
 		List<String[]> entityCounts = new ArrayList<String[]>();
-		String[] keys = { GlobalParameters.COL_ID, GlobalParameters.COL_LANG };
+		// the language is the URL host, the LANG column is not written
+		String[] keys = { GlobalParameters.COL_ID,
+				GlobalParameters.LANG_SETS ? GlobalParameters.COL_URL
+						: GlobalParameters.COL_LANG };
 		String[] sortKeys = { GlobalParameters.COL_ID_SORT };
-		String[][] results = searcher.sortPagSearch(keys, sortKeys,
+		String[][] results = sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 		if (results != null && results.length != 0) {
 			String preEntity = results[0][0];
 			int currCount = 0;
+			long[] currSet = LangSet.create();
 			for (int i = 0; i < results.length; i++) {
-				if (results[i][0].equalsIgnoreCase(preEntity)) {
-					currCount++;
-				} else {
-					String[] entityCount = { preEntity,
-							String.valueOf(currCount) };
-					entityCounts.add(entityCount);
+				if (!results[i][0].equalsIgnoreCase(preEntity)) {
+					entityCounts.add(entityCount(preEntity, currCount,
+							currSet));
 					preEntity = results[i][0];
-					currCount = 1;
+					currCount = 0;
+					currSet = LangSet.create();
+				}
+				currCount++;
+				if (GlobalParameters.LANG_SETS) {
+					LangSet.add(currSet,
+							LangSet.bit(LangSet.language(results[i][1])));
 				}
 			}
-			String[] lastEntityCount = { preEntity, String.valueOf(currCount) };
-			entityCounts.add(lastEntityCount);
+			entityCounts.add(entityCount(preEntity, currCount, currSet));
 		}
 		return entityCounts;
 	}
 
+	private static String[] entityCount(String id, int count, long[] set) {
+		String[] entityCount = { id, String.valueOf(count),
+				GlobalParameters.LANG_SETS ? LangSet.toHex(set) : null };
+		return entityCount;
+	}
+
+	public String[][] fetchLangCounts(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID,
+				GlobalParameters.COL_LANG_COUNT };
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	public String[][] fetchLangSets(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID,
+				GlobalParameters.COL_LANG_SET };
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	/**
+	 * @param id
+	 * @return the language set of an entity, null if it is absent
+	 */
+	public String fetchLangSet(String id) {
+		String[] keys = { GlobalParameters.COL_LANG_SET };
+		String[] results = searcher.lookup(keys, GlobalParameters.COL_ID, id);
+		return results != null ? results[0] : null;
+	}
+
 	public String fetchLangCount(String id) {
 		String[] keys = { GlobalParameters.COL_LANG_COUNT };
 		String condKey = GlobalParameters.COL_ID;
 		String condKeyword = id;
-		String[] results = searcher.termSearch(keys, condKey, condKeyword);
+		String[] results = searcher.lookup(keys, condKey, condKeyword);
 		if (results != null) {
 			return results[0];
 		} else {
@@ -69,14 +210,52 @@ public class SASearcher {
 	}
 	
 	public String[][] fetchData(boolean flag) {
+		return fetchData(null, null, flag);
+	}
+
+	/**
+	 * Fetch the items whose MD5 falls in [lower, upper), ordered by MD5
+	 * 
+	 * @param lower
+	 *            null for no lower bound
+	 * @param upper
+	 *            null for no upper bound
+	 * @param flag
+	 * @return
+	 */
+	public String[][] fetchData(String lower, String upper, boolean flag) {
 		String[] keys = { GlobalParameters.COL_ID, GlobalParameters.COL_URL,
 				GlobalParameters.COL_MD5, GlobalParameters.COL_LANG };
 		String[] sortKey = { GlobalParameters.COL_MD5_SORT };
 		String[][] items = searcher.sortPagSearch(keys, sortKey,
+				GlobalParameters.COL_MD5_SORT, lower, upper,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 		return items;
 	}
 
+	/**
+	 * Fetch the same columns as fetchData, in index order (no sorting)
+	 * 
+	 * @param flag
+	 * @return
+	 */
+	public String[][] scanData(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID, GlobalParameters.COL_URL,
+				GlobalParameters.COL_MD5, GlobalParameters.COL_LANG };
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	/**
+	 * Fetch the ID & URL of the items, in index order
+	 * 
+	 * @param flag
+	 * @return
+	 */
+	public String[][] fetchIdUrls(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID, GlobalParameters.COL_URL };
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
 	/**
 	 * Fetch a SASearcher total count number
 	 * 
@@ -95,15 +274,18 @@ public class SASearcher {
 		String[] keys = { GlobalParameters.COL_ID_FB,
 				GlobalParameters.COL_ID_WD, GlobalParameters.COL_LANG_COUNT,
 				GlobalParameters.COL_LANG_COUNT_FB,
-				GlobalParameters.COL_LANG_COUNT_WD };
-		return searcher.pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+				GlobalParameters.COL_LANG_COUNT_WD,
+				GlobalParameters.COL_LANG_SET,
+				GlobalParameters.COL_LANG_SET_FB,
+				GlobalParameters.COL_LANG_SET_WD };
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
 	}
 
 	private long feetchDistinctEntityCount(String colId, String colSortId) {
 		long count = 0;
 		String[] keys = { colId };
 		String[] sortKeys = { colSortId };
-		String[][] results = searcher.sortPagSearch(keys, sortKeys,
+		String[][] results = sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, true);
 		String currEntityId = null;
 		while (results != null && results.length != 0) {
@@ -113,7 +295,7 @@ public class SASearcher {
 					currEntityId = results[i][0];
 				}
 			}
-			results = searcher.sortPagSearch(keys, sortKeys,
+			results = sortPagSearch(keys, sortKeys,
 					GlobalParameters.BATCH_SIZE_MAX, false);
 		}
 //		log.debug("Distinct Entity Count:\t" + count);
@@ -138,14 +320,52 @@ public class SASearcher {
 	public String[][] fetchPairs(boolean flag) {
 		String[] keys = { GlobalParameters.COL_ID_FB,
 				GlobalParameters.COL_ID_WD };
-		return searcher.pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	/**
+	 * Next page of the rows whose doc ids are in [from, to), in index order
+	 * 
+	 * @param keys
+	 * @param from
+	 * @param to
+	 * @param flag
+	 * @return
+	 */
+	public String[][] fetchRows(String[] keys, int from, int to, boolean flag) {
+		if (pager != null) {
+			throw new IllegalStateException("Sort runs of " + path
+					+ " are not read by doc ids");
+		}
+		return searcher.rangePagSearch(keys, from, to,
+				GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	/**
+	 * @return one more than the largest doc id of the index, 0 for sort runs
+	 */
+	public int maxDoc() {
+		return pager == null ? searcher.maxDoc() : 0;
+	}
+
+	/**
+	 * Fetch the pairs with their language count, in index order
+	 * 
+	 * @param flag
+	 * @return
+	 */
+	public String[][] fetchPairsWithCount(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD, GlobalParameters.COL_LANG_COUNT,
+				GlobalParameters.COL_LANG_SET };
+		return pagSearch(keys, GlobalParameters.BATCH_SIZE_MAX, flag);
 	}
 
 	public String[][] fetchPairsFBSorted(boolean flag) {
 		String[] keys = { GlobalParameters.COL_ID_FB,
 				GlobalParameters.COL_ID_WD };
 		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT };
-		return searcher.sortPagSearch(keys, sortKeys,
+		return sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 	}
 
@@ -153,7 +373,22 @@ public class SASearcher {
 		String[] keys = { GlobalParameters.COL_ID_FB,
 				GlobalParameters.COL_ID_WD };
 		String[] sortKeys = { GlobalParameters.COL_ID_WD_SORT };
-		return searcher.sortPagSearch(keys, sortKeys,
+		return sortPagSearch(keys, sortKeys,
+				GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	/**
+	 * Fetch the pairs ordered by ID_FB then ID_WD
+	 * 
+	 * @param flag
+	 * @return
+	 */
+	public String[][] fetchPairsFullSorted(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD };
+		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT,
+				GlobalParameters.COL_ID_WD_SORT };
+		return sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 	}
 
@@ -162,7 +397,16 @@ public class SASearcher {
 				GlobalParameters.COL_ID_WD, GlobalParameters.COL_LANG };
 		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT,
 				GlobalParameters.COL_ID_WD_SORT };
-		return searcher.sortPagSearch(keys, sortKeys,
+		return sortPagSearch(keys, sortKeys,
+				GlobalParameters.BATCH_SIZE_MAX, flag);
+	}
+
+	public String[][] fetchPairsCountFBSorted(boolean flag) {
+		String[] keys = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD, GlobalParameters.COL_LANG_COUNT,
+				GlobalParameters.COL_LANG_SET };
+		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT };
+		return sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 	}
 
@@ -172,7 +416,7 @@ public class SASearcher {
 				GlobalParameters.COL_LANG_COUNT_FB,
 				GlobalParameters.COL_LANG_COUNT_WD };
 		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT };
-		String[][] results = searcher.sortPagSearch(keys, sortKeys,
+		String[][] results = sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 		return results;
 	}
@@ -183,18 +427,113 @@ public class SASearcher {
 				GlobalParameters.COL_LANG_COUNT_WD,
 				GlobalParameters.COL_LANG_COUNT_FB };
 		String[] sortKeys = { GlobalParameters.COL_ID_WD_SORT };
-		String[][] results = searcher.sortPagSearch(keys, sortKeys,
+		String[][] results = sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 		return results;
 	}
 
+	/**
+	 * Next page into a batch
+	 * 
+	 * @param batch
+	 * @param sortKeys
+	 *            null for index order
+	 * @param init
+	 * @return false at the end
+	 */
+	private boolean batchSearch(RecordBatch batch, String[] sortKeys,
+			boolean init) {
+		if (pager == null) {
+			return sortKeys == null ? searcher.pagSearch(batch, init)
+					: searcher.sortPagSearch(batch, sortKeys, init);
+		}
+		String[] idKeys = batch.getIdKeys();
+		String[] countKeys = batch.getCountKeys();
+		String[] setKeys = batch.getSetKeys();
+		String[] keys = new String[idKeys.length + countKeys.length
+				+ setKeys.length];
+		System.arraycopy(idKeys, 0, keys, 0, idKeys.length);
+		System.arraycopy(countKeys, 0, keys, idKeys.length, countKeys.length);
+		System.arraycopy(setKeys, 0, keys, idKeys.length + countKeys.length,
+				setKeys.length);
+		String[][] rows = sortKeys == null ? pagSearch(keys,
+				batch.capacity(), init) : sortPagSearch(keys, sortKeys,
+				batch.capacity(), init);
+		batch.clear();
+		if (rows == null) {
+			return false;
+		}
+		for (String[] row : rows) {
+			batch.addRow(row);
+		}
+		return batch.size() != 0;
+	}
+
+	/**
+	 * A batch of the sameAs statistics: ids ID_FB, ID_WD, counts LANG_COUNT,
+	 * LANG_COUNT_FB, LANG_COUNT_WD
+	 * 
+	 * @return
+	 */
+	public static RecordBatch statSABatch() {
+		String[] idKeys = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD };
+		String[] countKeys = { GlobalParameters.COL_LANG_COUNT,
+				GlobalParameters.COL_LANG_COUNT_FB,
+				GlobalParameters.COL_LANG_COUNT_WD };
+		return new RecordBatch(idKeys, countKeys,
+				GlobalParameters.BATCH_SIZE_MAX);
+	}
+
+	/**
+	 * A batch of statSABatch() with the language sets LANG_SET, LANG_SET_FB,
+	 * LANG_SET_WD
+	 * 
+	 * @return
+	 */
+	public static RecordBatch statSASetBatch() {
+		String[] idKeys = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD };
+		String[] countKeys = { GlobalParameters.COL_LANG_COUNT,
+				GlobalParameters.COL_LANG_COUNT_FB,
+				GlobalParameters.COL_LANG_COUNT_WD };
+		String[] setKeys = { GlobalParameters.COL_LANG_SET,
+				GlobalParameters.COL_LANG_SET_FB,
+				GlobalParameters.COL_LANG_SET_WD };
+		return new RecordBatch(idKeys, countKeys, setKeys,
+				GlobalParameters.BATCH_SIZE_MAX);
+	}
+
+	/**
+	 * fetchStatSAPairs into a batch of statSABatch()
+	 * 
+	 * @param batch
+	 * @param flag
+	 * @return false at the end
+	 */
+	public boolean fetchStatSAPairs(RecordBatch batch, boolean flag) {
+		return batchSearch(batch, null, flag);
+	}
+
+	/**
+	 * fetchPairLangFB into a batch of statSABatch()
+	 * 
+	 * @param batch
+	 * @param flag
+	 * @return false at the end
+	 */
+	public boolean fetchPairLangFB(RecordBatch batch, boolean flag) {
+		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT };
+		return batchSearch(batch, sortKeys, flag);
+	}
+
 	public List<String[]> fetchPairsCount(boolean flag) {
 		List<String[]> pairCounts = new ArrayList<String[]>();
 		String[] keys = { GlobalParameters.COL_ID_FB,
 				GlobalParameters.COL_ID_WD };
 		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT,
 				GlobalParameters.COL_ID_WD_SORT };
-		String[][] results = searcher.sortPagSearch(keys, sortKeys,
+		String[][] results = sortPagSearch(keys, sortKeys,
 				GlobalParameters.BATCH_SIZE_MAX, flag);
 		if (results != null && results.length != 0) {
 			int i = 0;
@@ -221,22 +560,17 @@ public class SASearcher {
 		return pairCounts;
 	}
 
-	public boolean checkPairExist(String freebase, String wikidata) {
-		String[] condKey = { GlobalParameters.COL_ID_FB,
-				GlobalParameters.COL_ID_WD };
-		String[] condKeyword = { freebase, wikidata };
-		return searcher.termSearchExist(condKey, condKeyword);
-	}
-
-	public String[] fetchSALangAll(String freebase, String wikidata) {
-		String[] condKey = { GlobalParameters.COL_ID_FB,
-				GlobalParameters.COL_ID_WD };
-		String[] condKeyword = { freebase, wikidata };
-		String[] keys = { GlobalParameters.COL_LANG_COUNT };
-		return searcher.termSearch(keys, condKey, condKeyword);
-	}
-
 	public void close() {
+		if (pager != null) {
+			// sort runs have a single consumer
+			pager.close();
+			if (shard >= 0) {
+				runs.release(shard);
+			} else {
+				SortedRunStore.release(path);
+			}
+			return;
+		}
 		searcher.close();
 	}
 }
@@ -1,23 +1,20 @@
 /**
- * FBLDelegator.java
+ * SAWriter.java
  */
 package com.samsung.scrc.wsg.k.sa.core;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.SortedDocValuesField;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.util.BytesRef;
 
 import com.samsung.scrc.wsg.k.index.core.BasicIndexWriter;
+import com.samsung.scrc.wsg.k.index.core.IndexSchema;
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -28,166 +25,106 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  */
 public class SAWriter {
 //	private static Logger log = LogManager.getLogger(SAWriter.class.getName());
-	private BasicIndexWriter writer;
+	// one writer per shard
+	private BasicIndexWriter[] writers;
+	// set instead of writers when the index is kept in sort runs
+	private SortedRunStore runs;
+	private IndexSchema schema;
+	private String path;
 
 	public SAWriter(String path) {
+		this(path, SchemaRegistry.lookup(path));
+	}
+
+	/**
+	 * A schema with a shard key spreads the index over
+	 * GlobalParameters.SHARD_COUNT shards
+	 * 
+	 * @param path
+	 * @param schema
+	 */
+	public SAWriter(String path, IndexSchema schema) {
+		this.path = path;
+		this.schema = schema;
+		int shards = 1;
+		if (schema != null && schema.getShardKey() != null) {
+			shards = GlobalParameters.SHARD_COUNT;
+		}
+		// drop the previous index, whatever its shard layout
+		IndexStore.clear(path);
+		SortedRunStore.release(path);
+		if (SortedRunStore.accepts(path, schema)) {
+			runs = SortedRunStore.create(path, schema, shards);
+			writers = new BasicIndexWriter[0];
+			return;
+		}
+		writers = new BasicIndexWriter[shards];
 		try {
 //			log.trace("Lucene Delegator:\t" + path);
-			writer = new BasicIndexWriter(path);
+			for (int i = 0; i < shards; i++) {
+				writers[i] = new BasicIndexWriter(shards == 1 ? path
+						: IndexStore.shardPath(path, i));
+			}
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
+			throw new UncheckedIOException(ioe);
 		}
 	}
 
-	public void insertData(List<String[]> items) {
-		// COL_ID, COL_URL, COL_LANG, COL_MD5
-		List<Document> docs = new ArrayList<>();
-		for (String[] item : items) {
-			Document doc = new Document();
-			doc.add(new StringField(GlobalParameters.COL_ID, item[0],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_SORT,
-					new BytesRef(item[0])));
-			doc.add(new StringField(GlobalParameters.COL_URL, item[1],
-					Field.Store.YES));
-			doc.add(new StringField(GlobalParameters.COL_LANG, item[2],
-					Field.Store.YES));
-			doc.add(new StringField(GlobalParameters.COL_MD5, item[3],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_MD5_SORT,
-					new BytesRef(item[3])));
-			docs.add(doc);
+	/**
+	 * Write positional rows, laid out as declared by the index schema and
+	 * routed to their shard. It may be called from several threads
+	 * 
+	 * @param items
+	 */
+	public void insert(List<String[]> items) {
+		if (schema == null) {
+			System.err.println("No schema registered for index:\t" + path);
+			return;
 		}
-		writer.write(docs);
-	}
-
-	public void insertSameAsRelations(String freebase, Set<String> wikidatas) {
-		List<Document> docs = new ArrayList<>();
-		for (String wikidata : wikidatas) {
-			Document doc = new Document();
-			doc.add(new StringField(GlobalParameters.COL_ID_FB, freebase,
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_FB_SORT,
-					new BytesRef(freebase)));
-			doc.add(new StringField(GlobalParameters.COL_ID_WD, wikidata,
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_WD_SORT,
-					new BytesRef(wikidata)));
-			docs.add(doc);
+		if (runs != null) {
+			List<List<String[]>> shardItems = new ArrayList<>();
+			for (int i = 0; i < runs.getShardCount(); i++) {
+				shardItems.add(new ArrayList<String[]>());
+			}
+			for (String[] item : items) {
+				shardItems.get(schema.shardOf(item, runs.getShardCount())).add(
+						item);
+			}
+			for (int i = 0; i < runs.getShardCount(); i++) {
+				runs.insert(i, shardItems.get(i));
+			}
+			return;
 		}
-		writer.write(docs);
-	}
-
-	public void insertSameAsRelations(List<String[]> items) {
-		// COL_ID, COL_URL, COL_LANG, COL_MD5
-		List<Document> docs = new ArrayList<>();
-		for (String[] item : items) {
-			Document doc = new Document();
-			doc.add(new StringField(GlobalParameters.COL_ID_FB, item[0],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_FB_SORT,
-					new BytesRef(item[0])));
-			doc.add(new StringField(GlobalParameters.COL_URL_FB, item[1],
-					Field.Store.YES));
-			doc.add(new StringField(GlobalParameters.COL_LANG_FB, item[2],
-					Field.Store.YES));
-			doc.add(new StringField(GlobalParameters.COL_ID_WD, item[3],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_WD_SORT,
-					new BytesRef(item[3])));
-			doc.add(new StringField(GlobalParameters.COL_URL_WD, item[4],
-					Field.Store.YES));
-			doc.add(new StringField(GlobalParameters.COL_LANG_WD, item[5],
-					Field.Store.YES));
-			doc.add(new StringField(GlobalParameters.COL_MD5, item[6],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_MD5_SORT,
-					new BytesRef(item[6])));
-			docs.add(doc);
+		if (writers.length == 1) {
+			List<Document> docs = new ArrayList<>();
+			for (String[] item : items) {
+				docs.add(schema.toDocument(item));
+			}
+			writers[0].write(docs);
+			return;
 		}
-		writer.write(docs);
-	}
-
-	public void insertLangStat(List<String[]> items) {
-		List<Document> docs = new ArrayList<>();
-//		log.info("Insert doc size:\t" + items.size());
-		System.out.println("Insert doc size:\t" + items.size());
-		for (String[] item : items) {
-			Document doc = new Document();
-			// log.trace(item[0] + "\t" + item[1]);
-			doc.add(new StringField(GlobalParameters.COL_ID, item[0],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_SORT,
-					new BytesRef(item[0])));
-			doc.add(new IntField(GlobalParameters.COL_LANG_COUNT, Integer
-					.valueOf(item[1]), Field.Store.YES));
-			docs.add(doc);
+		List<List<Document>> shardDocs = new ArrayList<>();
+		for (int i = 0; i < writers.length; i++) {
+			shardDocs.add(new ArrayList<Document>());
 		}
-		writer.write(docs);
-	}
-
-	public void insertMCRaw(List<String[]> items) {
-		List<Document> docs = new ArrayList<>();
 		for (String[] item : items) {
-			Document doc = new Document();
-			doc.add(new StringField(GlobalParameters.COL_ID_FB, item[0],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_FB_SORT,
-					new BytesRef(item[0])));
-			doc.add(new StringField(GlobalParameters.COL_ID_WD, item[1],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_WD_SORT,
-					new BytesRef(item[1])));
-			doc.add(new IntField(GlobalParameters.COL_LANG_COUNT, Integer
-					.valueOf(item[2]), Field.Store.YES));
-			docs.add(doc);
+			shardDocs.get(schema.shardOf(item, writers.length)).add(
+					schema.toDocument(item));
 		}
-		writer.write(docs);
-	}
-
-	public void insertSAPairs(List<String[]> items) {
-		List<Document> docs = new ArrayList<>();
-		for (String[] item : items) {
-			Document doc = new Document();
-			doc.add(new StringField(GlobalParameters.COL_ID_FB, item[0],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_FB_SORT,
-					new BytesRef(item[0])));
-			doc.add(new StringField(GlobalParameters.COL_ID_WD, item[1],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_WD_SORT,
-					new BytesRef(item[1])));
-			docs.add(doc);
+		for (int i = 0; i < writers.length; i++) {
+			if (!shardDocs.get(i).isEmpty()) {
+				writers[i].write(shardDocs.get(i));
+			}
 		}
-		writer.write(docs);
-	}
-
-	public void insertSAStat(List<String[]> items) {
-		List<Document> docs = new ArrayList<>();
-		for (String[] item : items) {
-			Document doc = new Document();
-			doc.add(new StringField(GlobalParameters.COL_ID_FB, item[0],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_FB_SORT,
-					new BytesRef(item[0])));
-			doc.add(new StringField(GlobalParameters.COL_ID_WD, item[1],
-					Field.Store.YES));
-			doc.add(new SortedDocValuesField(GlobalParameters.COL_ID_WD_SORT,
-					new BytesRef(item[1])));
-			doc.add(new IntField(GlobalParameters.COL_LANG_COUNT, Integer
-					.valueOf(item[2]), Field.Store.YES));
-			doc.add(new IntField(GlobalParameters.COL_LANG_COUNT_FB, Integer
-					.valueOf(item[3]), Field.Store.YES));
-			doc.add(new IntField(GlobalParameters.COL_LANG_COUNT_WD, Integer
-					.valueOf(item[4]), Field.Store.YES));
-			docs.add(doc);
-		}
-		writer.write(docs);
 	}
 
 	public void close() {
-		writer.close();
+		for (BasicIndexWriter writer : writers) {
+			if (writer != null) {
+				writer.close();
+			}
+		}
 	}
 }
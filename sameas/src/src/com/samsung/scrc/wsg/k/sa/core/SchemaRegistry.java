@@ -0,0 +1,169 @@
+/**
+ * SchemaRegistry.java
+ * Layouts of the indexes written by the pipeline
+ */
+package com.samsung.scrc.wsg.k.sa.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.samsung.scrc.wsg.k.index.core.IndexSchema;
+import com.samsung.scrc.wsg.k.index.core.IndexSchema.Role;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Declares the layout of every index written by the pipeline, keyed by its
+ * index path. Each index only carries the columns its consumers read, and is
+ * sharded by the key its consumer groups on
+ */
+public class SchemaRegistry {
+
+	/**
+	 * Freebase & Wikidata keys: ID, URL, LANG, MD5. The join reads ID and MD5
+	 * ordered by MD5, the language statistics read ID ordered by ID, the
+	 * residue matcher reads ID and URL; LANG has no reader (it is the URL
+	 * host)
+	 */
+	public static final IndexSchema KEYS = new IndexSchema()
+			.column(GlobalParameters.COL_ID, GlobalParameters.COL_ID_SORT,
+					Role.SORTED)
+			.column(GlobalParameters.COL_URL, Role.STORED)
+			.column(GlobalParameters.COL_LANG)
+			.column(GlobalParameters.COL_MD5, GlobalParameters.COL_MD5_SORT,
+					Role.SORTED).shardBy(GlobalParameters.COL_MD5);
+
+	/**
+	 * Entity language statistics: ID, LANG_COUNT, LANG_SET, looked up by ID
+	 * or scanned whole into a LangCountTable (LangSetTable)
+	 */
+	public static final IndexSchema LANG_STAT = new IndexSchema()
+			.column(GlobalParameters.COL_ID, GlobalParameters.COL_ID_SORT,
+					Role.INDEXED, Role.SORTED)
+			.column(GlobalParameters.COL_LANG_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_LANG_SET, Role.BINARY)
+			.shardBy(GlobalParameters.COL_ID);
+
+	/**
+	 * sameAs statistics: ID_FB, ID_WD, LANG_COUNT, LANG_COUNT_FB,
+	 * LANG_COUNT_WD, LANG_SET, LANG_SET_FB, LANG_SET_WD
+	 */
+	public static final IndexSchema SA_STAT = new IndexSchema()
+			.column(GlobalParameters.COL_ID_FB,
+					GlobalParameters.COL_ID_FB_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_ID_WD,
+					GlobalParameters.COL_ID_WD_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_LANG_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_LANG_COUNT_FB, Role.NUMERIC)
+			.column(GlobalParameters.COL_LANG_COUNT_WD, Role.NUMERIC)
+			.column(GlobalParameters.COL_LANG_SET, Role.BINARY)
+			.column(GlobalParameters.COL_LANG_SET_FB, Role.BINARY)
+			.column(GlobalParameters.COL_LANG_SET_WD, Role.BINARY)
+			.shardBy(GlobalParameters.COL_ID_FB);
+
+	/**
+	 * sameAs pairs: ID_FB, ID_WD (an optional third column is ignored)
+	 */
+	public static final IndexSchema SA_PAIRS = new IndexSchema().column(
+			GlobalParameters.COL_ID_FB, GlobalParameters.COL_ID_FB_SORT,
+			Role.SORTED).column(GlobalParameters.COL_ID_WD,
+			GlobalParameters.COL_ID_WD_SORT, Role.SORTED).shardBy(
+			GlobalParameters.COL_ID_FB);
+
+	/**
+	 * Distinct sameAs pairs of the join with their language count: ID_FB,
+	 * ID_WD, LANG_COUNT, LANG_SET, read as pairs or by the pair statistics
+	 */
+	public static final IndexSchema SA_PAIRS_COUNT = new IndexSchema()
+			.column(GlobalParameters.COL_ID_FB,
+					GlobalParameters.COL_ID_FB_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_ID_WD,
+					GlobalParameters.COL_ID_WD_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_LANG_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_LANG_SET, Role.BINARY)
+			.shardBy(GlobalParameters.COL_ID_FB);
+
+	/**
+	 * Votes of the matchers on a pair: ID_FB, ID_WD, VOTE_MASK (bit i set if
+	 * the i-th voter kept it), VOTE_COUNT
+	 */
+	public static final IndexSchema SA_VOTES = new IndexSchema()
+			.column(GlobalParameters.COL_ID_FB,
+					GlobalParameters.COL_ID_FB_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_ID_WD,
+					GlobalParameters.COL_ID_WD_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_VOTE_MASK, Role.NUMERIC)
+			.column(GlobalParameters.COL_VOTE_COUNT, Role.NUMERIC)
+			.shardBy(GlobalParameters.COL_ID_FB);
+
+	/**
+	 * Clusters of the pairs of the join: ID_FB, ID_WD, CLUSTER, FB_COUNT,
+	 * WD_COUNT (the Freebase & Wikidata entities of the cluster)
+	 */
+	public static final IndexSchema SA_CLUSTERS = new IndexSchema()
+			.column(GlobalParameters.COL_ID_FB,
+					GlobalParameters.COL_ID_FB_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_ID_WD,
+					GlobalParameters.COL_ID_WD_SORT, Role.SORTED)
+			.column(GlobalParameters.COL_CLUSTER, Role.NUMERIC)
+			.column(GlobalParameters.COL_FB_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_WD_COUNT, Role.NUMERIC)
+			.shardBy(GlobalParameters.COL_ID_FB);
+
+	/**
+	 * Cluster shapes: FB_COUNT, WD_COUNT, CLUSTER_COUNT, PAIR_COUNT, a few
+	 * rows in a single shard
+	 */
+	public static final IndexSchema CLUSTER_SHAPES = new IndexSchema()
+			.column(GlobalParameters.COL_FB_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_WD_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_CLUSTER_COUNT, Role.NUMERIC)
+			.column(GlobalParameters.COL_PAIR_COUNT, Role.NUMERIC);
+
+	// the schema of each index path
+	private static final Map<String, IndexSchema> SCHEMAS = new HashMap<String, IndexSchema>();
+
+	static {
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_FB, KEYS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_WD, KEYS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_FB_FILTERED, KEYS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_STAT_FB, LANG_STAT);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_STAT_WD, LANG_STAT);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_STAT_SA, SA_STAT);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_ORIGIN, SA_PAIRS_COUNT);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_MC, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_THRESHOLD, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_ONE_ONLY, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_BELIEF, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_RESIDUE, SA_PAIRS_COUNT);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_CLUSTER_ONE, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_CLUSTER, SA_CLUSTERS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_CLUSTER_SHAPES,
+				CLUSTER_SHAPES);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_ASSIGNMENT, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_OVERLAP, SA_PAIRS);
+		SCHEMAS.put(GlobalParameters.PATH_INDEX_SA_VOTE, SA_VOTES);
+	}
+
+	/**
+	 * Find the schema of an index path
+	 *
+	 * @param path
+	 * @return the schema, or null if the path is not a pipeline index
+	 */
+	public static IndexSchema lookup(String path) {
+		IndexSchema schema = SCHEMAS.get(path);
+		if (schema == null && path.startsWith(GlobalParameters.PATH_INDEX)) {
+			// an index of an earlier run, in another SCHEMA directory, has
+			// the layout of the current one
+			String relative = path.substring(GlobalParameters.PATH_INDEX
+					.length());
+			int slash = relative.indexOf('/');
+			if (slash > 0) {
+				schema = SCHEMAS.get(
+						GlobalParameters.PATH_INDEX + GlobalParameters.SCHEMA
+								+ relative.substring(slash));
+			}
+		}
+		return schema;
+	}
+}
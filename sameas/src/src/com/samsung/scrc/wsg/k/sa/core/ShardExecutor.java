@@ -0,0 +1,74 @@
+/**
+ * ShardExecutor.java
+ * Runs a task once per shard of an index, GlobalParameters.WORKER_COUNT shards at a time
+ */
+package com.samsung.scrc.wsg.k.sa.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+public class ShardExecutor {
+
+	public interface ShardTask {
+		void process(int shard);
+	}
+
+	/**
+	 * Process every shard and wait for all of them. The first failure of a
+	 * shard is rethrown once every shard is done, as it is by the sequential
+	 * run
+	 * 
+	 * @param shards
+	 * @param task
+	 */
+	public static void run(int shards, final ShardTask task) {
+		if (shards == 1 || GlobalParameters.WORKER_COUNT <= 1) {
+			for (int i = 0; i < shards; i++) {
+				task.process(i);
+			}
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(shards,
+				GlobalParameters.WORKER_COUNT));
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < shards; i++) {
+			final int shard = i;
+			futures.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					task.process(shard);
+				}
+			}));
+		}
+		Throwable failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException ee) {
+				System.err.println(ee.getCause());
+				if (failure == null) {
+					failure = ee.getCause();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = ie;
+				}
+			}
+		}
+		pool.shutdown();
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * SortedRunStore.java
+ * Keeps intermediate data in external sort runs
+ */
+package com.samsung.scrc.wsg.k.sa.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.samsung.scrc.wsg.k.index.core.IndexSchema;
+import com.samsung.scrc.wsg.k.util.EntityCoder;
+import com.samsung.scrc.wsg.k.util.ExternalSorter;
+import com.samsung.scrc.wsg.k.util.MemoryBudget;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Keeps intermediate data in external sort runs instead of a Lucene index
+ * (sa.intermediate = sort), for the index paths SAEngine selects: those read
+ * once, by a single stage. Rows are sorted by the shard key of their schema,
+ * which is the key their consumer groups on, encoded as a fixed-width
+ * EntityIds code
+ */
+public class SortedRunStore {
+	private static Map<String, SortedRunStore> stores = new HashMap<String, SortedRunStore>();
+	// index paths kept in sort runs
+	private static Set<String> selected = new HashSet<String>();
+
+	private IndexSchema schema;
+	private File dir;
+	private ExternalSorter[] sorters;
+	// shared with the other consumers of the memory budget
+	private MemoryBudget budget;
+	// shards whose runs are released
+	private boolean[] consumed;
+	// codes of the keys, negative for those EntityIds cannot encode
+	private EntityCoder coder = new EntityCoder();
+
+	private SortedRunStore(String path, IndexSchema schema, int shards) {
+		this.schema = schema;
+		final int keyColumn = schema.indexOf(schema.getShardKey().getName());
+		ExternalSorter.KeyEncoder encoder = new ExternalSorter.KeyEncoder() {
+			@Override
+			public void encode(String[] record, byte[] key) {
+				ByteBuffer.wrap(key).putLong(coder.encode(record[keyColumn]));
+			}
+		};
+		budget = MemoryBudget.lease(
+				GlobalParameters.TMP_INDEX_BUDGET_MB * 1024L * 1024L, shards);
+		dir = new File(GlobalParameters.PATH_INDEX_TMP + "runs/"
+				+ new File(path).getName());
+		sorters = new ExternalSorter[shards];
+		consumed = new boolean[shards];
+		for (int i = 0; i < shards; i++) {
+			sorters[i] = new ExternalSorter(new File(dir, "shard-" + i), 8,
+					encoder, ExternalSorter.UNSIGNED, budget);
+		}
+	}
+
+	/**
+	 * Keep an index in sort runs rather than a Lucene index, if its schema
+	 * has a shard key. Its single reader must read every shard once, in
+	 * index order or ordered by the shard key
+	 *
+	 * @param path
+	 */
+	public static synchronized void select(String path) {
+		selected.add(path);
+	}
+
+	/**
+	 * Whether the pipeline keeps an index in sort runs
+	 *
+	 * @param path
+	 * @param schema
+	 * @return
+	 */
+	public static synchronized boolean accepts(String path,
+			IndexSchema schema) {
+		return selected.contains(path) && schema != null
+				&& schema.getShardKey() != null;
+	}
+
+	/**
+	 * Start (again) the runs of an index
+	 *
+	 * @param path
+	 * @param schema
+	 * @param shards
+	 * @return
+	 */
+	public static synchronized SortedRunStore create(String path,
+			IndexSchema schema, int shards) {
+		release(path);
+		SortedRunStore store = new SortedRunStore(path, schema, shards);
+		stores.put(path, store);
+		return store;
+	}
+
+	/**
+	 * @param path
+	 * @return the runs of an index, null if it is not kept in runs
+	 */
+	public static synchronized SortedRunStore get(String path) {
+		return stores.get(path);
+	}
+
+	/**
+	 * Delete the runs of an index, once consumed
+	 *
+	 * @param path
+	 */
+	public static synchronized void release(String path) {
+		SortedRunStore store = stores.remove(path);
+		if (store != null) {
+			for (ExternalSorter sorter : store.sorters) {
+				sorter.close();
+			}
+			store.dir.delete();
+			store.budget.release();
+		}
+	}
+
+	/**
+	 * Delete the runs of one shard, once consumed
+	 *
+	 * @param shard
+	 */
+	public synchronized void release(int shard) {
+		sorters[shard].close();
+		// the last shard takes the (then empty) directory along
+		dir.delete();
+		consumed[shard] = true;
+		for (boolean done : consumed) {
+			if (!done) {
+				return;
+			}
+		}
+		budget.release();
+	}
+
+	public int getShardCount() {
+		return sorters.length;
+	}
+
+	public IndexSchema getSchema() {
+		return schema;
+	}
+
+	public void insert(int shard, List<String[]> items) {
+		try {
+			sorters[shard].addAll(items);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Rows of some shards in key order of each shard. A key never spans two
+	 * shards, so the rows of a key stay together
+	 *
+	 * @param shards
+	 * @return
+	 */
+	public Pager pager(int[] shards) {
+		return new Pager(shards);
+	}
+
+	/**
+	 * Pages of projected columns, the way SearchIndex pages its documents
+	 */
+	public class Pager {
+		private int[] shards;
+		private int current = -1;
+		private ExternalSorter.Cursor cursor;
+
+		private Pager(int[] shards) {
+			this.shards = shards;
+		}
+
+		/**
+		 * @param keys
+		 *            columns to project, a column the schema does not write
+		 *            reads as null
+		 * @param limit
+		 * @param init
+		 *            restart from the first row
+		 * @return the next page, null at the end
+		 */
+		public String[][] page(String[] keys, int limit, boolean init) {
+			if (init) {
+				close();
+				current = -1;
+			}
+			int[] positions = new int[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				IndexSchema.Column column = schema.getColumn(keys[i]);
+				positions[i] = column != null && column.isWritten() ? schema
+						.indexOf(keys[i]) : -1;
+			}
+			List<String[]> results = new ArrayList<String[]>();
+			try {
+				while (results.size() < limit) {
+					String[] record = cursor == null ? null : cursor.next();
+					if (record == null) {
+						close();
+						if (current + 1 >= shards.length) {
+							break;
+						}
+						current++;
+						cursor = sorters[shards[current]].sort();
+						continue;
+					}
+					String[] values = new String[keys.length];
+					for (int i = 0; i < keys.length; i++) {
+						if (positions[i] >= 0 && positions[i] < record.length) {
+							values[i] = record[positions[i]];
+						}
+					}
+					results.add(values);
+				}
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			return results.isEmpty() ? null : results
+					.toArray(new String[results.size()][]);
+		}
+
+		public void close() {
+			if (cursor != null) {
+				cursor.close();
+				cursor = null;
+			}
+		}
+	}
+}
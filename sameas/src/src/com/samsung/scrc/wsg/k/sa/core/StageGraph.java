@@ -0,0 +1,202 @@
+/**
+ * StageGraph.java
+ * Runs the pipeline stages as their inputs complete
+ */
+package com.samsung.scrc.wsg.k.sa.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipeline stages with the index paths they read and write. A stage is ready
+ * once every input written by another stage of the graph is complete, an
+ * input may also name a stage whose in-memory result it reads; ready stages
+ * run concurrently, GlobalParameters.STAGE_WORKERS at a time
+ */
+public class StageGraph {
+
+	private static class Stage {
+		private String name;
+		private List<String> inputs;
+		private List<String> outputs;
+		private Runnable body;
+		private boolean failed = false;
+
+		private Stage(String name, String[] inputs, String[] outputs,
+				Runnable body) {
+			this.name = name;
+			this.inputs = Arrays.asList(inputs);
+			this.outputs = Arrays.asList(outputs);
+			this.body = body;
+		}
+	}
+
+	private List<Stage> stages = new ArrayList<Stage>();
+
+	public StageGraph() {
+
+	}
+
+	/**
+	 * Declare a stage
+	 *
+	 * @param name
+	 * @param inputs
+	 *            index paths read, or names of the stages read; a path no
+	 *            stage writes is taken as ready
+	 * @param outputs
+	 *            index paths written
+	 * @param body
+	 * @return this graph
+	 */
+	public StageGraph stage(String name, String[] inputs, String[] outputs,
+			Runnable body) {
+		stages.add(new Stage(name, inputs, outputs, body));
+		return this;
+	}
+
+	/**
+	 * @param path
+	 * @return the number of stages reading an index path written by another
+	 */
+	public int readers(String path) {
+		int readers = 0;
+		for (Stage stage : stages) {
+			if (stage.inputs.contains(path) && !stage.outputs.contains(path)) {
+				readers++;
+			}
+		}
+		return readers;
+	}
+
+	/**
+	 * Run every stage once its inputs are complete, and wait for all of them.
+	 * The stages depending on a failed one are skipped
+	 *
+	 * @param workers
+	 *            stages running at once
+	 * @return false if a stage failed or was skipped
+	 */
+	public boolean run(int workers) {
+		// paths written by some stage, and stage names, not complete yet
+		final Set<String> pending = new HashSet<String>();
+		for (Stage stage : stages) {
+			pending.addAll(stage.outputs);
+			pending.add(stage.name);
+		}
+		Set<String> failed = new HashSet<String>();
+		List<Stage> waiting = new ArrayList<Stage>(stages);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+				workers));
+		CompletionService<Stage> completion = new ExecutorCompletionService<Stage>(
+				pool);
+		int running = 0;
+		boolean success = true;
+		while (!waiting.isEmpty() || running > 0) {
+			for (int i = 0; i < waiting.size(); i++) {
+				final Stage stage = waiting.get(i);
+				if (!isReady(stage, pending)) {
+					continue;
+				}
+				waiting.remove(i--);
+				if (dependsOn(stage, failed)) {
+					System.err.println("Stage skipped:\t" + stage.name);
+					failed.addAll(stage.outputs);
+					failed.add(stage.name);
+					pending.removeAll(stage.outputs);
+					pending.remove(stage.name);
+					success = false;
+					continue;
+				}
+				System.out.println("Stage started:\t" + stage.name);
+				completion.submit(new Callable<Stage>() {
+					@Override
+					public Stage call() {
+						try {
+							stage.body.run();
+						} catch (RuntimeException re) {
+							System.err.println(re);
+							stage.failed = true;
+						}
+						return stage;
+					}
+				});
+				running++;
+			}
+			if (running == 0) {
+				if (!waiting.isEmpty()) {
+					// inputs which can never complete
+					for (Stage stage : waiting) {
+						System.err.println("Stage not runnable:\t" + stage.name);
+					}
+					success = false;
+				}
+				break;
+			}
+			Stage done;
+			try {
+				done = completion.take().get();
+			} catch (InterruptedException | ExecutionException e) {
+				System.err.println(e);
+				success = false;
+				// interrupt the stages still running
+				pool.shutdownNow();
+				break;
+			}
+			running--;
+			if (done.failed) {
+				System.err.println("Stage failed:\t" + done.name);
+				failed.addAll(done.outputs);
+				failed.add(done.name);
+				success = false;
+			} else {
+				System.out.println("Stage finished:\t" + done.name);
+			}
+			pending.removeAll(done.outputs);
+			pending.remove(done.name);
+		}
+		pool.shutdown();
+		// the stages still running may read shared index readers, which the
+		// caller closes once the graph returns
+		boolean interrupted = false;
+		while (!pool.isTerminated()) {
+			try {
+				pool.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return success;
+	}
+
+	private boolean isReady(Stage stage, Set<String> pending) {
+		for (String input : stage.inputs) {
+			if (pending.contains(input) && !stage.outputs.contains(input)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean dependsOn(Stage stage, Set<String> failed) {
+		for (String input : stage.inputs) {
+			if (failed.contains(input)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,372 @@
+/**
+ * AssignmentMatcher.java
+ * Links every entity at most once by a maximum weight assignment
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.util.EntityCoder;
+import com.samsung.scrc.wsg.k.util.LongIntHashMap;
+import com.samsung.scrc.wsg.k.util.UnionFind;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Links every entity at most once: the pairs of the sameAs statistics, weighted
+ * by the Dice share of languages the entities agree in, are split into
+ * connected components, and each component gets a maximum weight 1:1
+ * assignment, exact (Hungarian method) for the small ones and greedy for the
+ * others. The components are solved concurrently on a work-stealing pool
+ */
+public class AssignmentMatcher extends Matcher {
+	// a range of components with more edges is split between tasks
+	private static final int TASK_EDGES = 4096;
+
+	private UnionFind components;
+	// node of an entity, by its code
+	private EntityCoder fbCoder;
+	private EntityCoder wdCoder;
+	private LongIntHashMap fbNodes;
+	private LongIntHashMap wdNodes;
+	// entity code of every node
+	private long[] nodeCodes = new long[16];
+	// edges: Freebase node, Wikidata node, weight
+	private int edgeCount = 0;
+	private int[] edgeFB = new int[16];
+	private int[] edgeWD = new int[16];
+	private double[] weights = new double[16];
+	// edges ordered by component, the edges of component c being
+	// order[start[c]] to order[start[c + 1] - 1]
+	private int[] order;
+	private int[] start;
+	// index of a node inside its component
+	private int[] local;
+	private AtomicLong exactCount = new AtomicLong();
+	private AtomicLong greedyCount = new AtomicLong();
+	private AtomicLong assigned = new AtomicLong();
+
+	private int node(long code, String id, EntityCoder coder,
+			LongIntHashMap nodes) {
+		if (code < 0) {
+			code = coder.encode(id);
+		}
+		int node = nodes.get(code, -1);
+		if (node < 0) {
+			node = components.add();
+			nodes.put(code, node);
+			if (node == nodeCodes.length) {
+				nodeCodes = Arrays.copyOf(nodeCodes, node * 2);
+			}
+			nodeCodes[node] = code;
+		}
+		return node;
+	}
+
+	private void addEdge(int fb, int wd, double weight) {
+		if (edgeCount == edgeFB.length) {
+			edgeFB = Arrays.copyOf(edgeFB, edgeCount * 2);
+			edgeWD = Arrays.copyOf(edgeWD, edgeCount * 2);
+			weights = Arrays.copyOf(weights, edgeCount * 2);
+		}
+		edgeFB[edgeCount] = fb;
+		edgeWD[edgeCount] = wd;
+		weights[edgeCount] = weight;
+		edgeCount++;
+		components.union(fb, wd);
+	}
+
+	/**
+	 * Read the weighted graph from the sameAs statistics
+	 */
+	private void load() {
+		for (int shard = 0; shard < SASearcher
+				.shards(GlobalParameters.PATH_INDEX_STAT_SA); shard++) {
+			SASearcher searcher = new SASearcher(
+					GlobalParameters.PATH_INDEX_STAT_SA, shard);
+			RecordBatch batch = SASearcher.statSABatch();
+			boolean more = searcher.fetchStatSAPairs(batch, true);
+			while (more) {
+				for (int row = 0; row < batch.size(); row++) {
+					long fbCode = batch.getId(StatSAScan.ID_FB, row);
+					long wdCode = batch.getId(StatSAScan.ID_WD, row);
+					int fb = node(fbCode, fbCode >= 0 ? null : batch
+							.getIdString(StatSAScan.ID_FB, row), fbCoder,
+							fbNodes);
+					int wd = node(wdCode, wdCode >= 0 ? null : batch
+							.getIdString(StatSAScan.ID_WD, row), wdCoder,
+							wdNodes);
+					int sides = batch.getCount(StatSAScan.LANG_COUNT_FB, row)
+							+ batch.getCount(StatSAScan.LANG_COUNT_WD, row);
+					addEdge(fb,
+							wd,
+							sides == 0 ? 0 : 2.0
+									* batch.getCount(StatSAScan.LANG_COUNT,
+											row) / sides);
+				}
+				more = searcher.fetchStatSAPairs(batch, false);
+			}
+			searcher.close();
+		}
+	}
+
+	/**
+	 * Order the edges by component, counting sort on the component roots
+	 *
+	 * @return the number of components
+	 */
+	private int group() {
+		int[] component = new int[components.count()];
+		Arrays.fill(component, -1);
+		int count = 0;
+		int[] edgeComponent = new int[edgeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			int root = components.find(edgeFB[e]);
+			if (component[root] < 0) {
+				component[root] = count++;
+			}
+			edgeComponent[e] = component[root];
+		}
+		start = new int[count + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			start[edgeComponent[e] + 1]++;
+		}
+		for (int c = 0; c < count; c++) {
+			start[c + 1] += start[c];
+		}
+		int[] next = Arrays.copyOf(start, count);
+		order = new int[edgeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			order[next[edgeComponent[e]]++] = e;
+		}
+		return count;
+	}
+
+	/**
+	 * Solves a range of components, split in halves as long as it holds
+	 * several components and enough edges
+	 */
+	private class Solver extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int from;
+		private int to;
+		private SAWriter writer;
+
+		private Solver(int from, int to, SAWriter writer) {
+			this.from = from;
+			this.to = to;
+			this.writer = writer;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && start[to] - start[from] > TASK_EDGES) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Solver(from, mid, writer), new Solver(mid, to,
+						writer));
+				return;
+			}
+			List<String[]> pairs = new ArrayList<String[]>();
+			for (int c = from; c < to; c++) {
+				for (int e : solve(c)) {
+					String[] pair = { fbCoder.decode(nodeCodes[edgeFB[e]]),
+							wdCoder.decode(nodeCodes[edgeWD[e]]) };
+					pairs.add(pair);
+				}
+			}
+			assigned.addAndGet(pairs.size());
+			writer.insert(pairs);
+		}
+	}
+
+	/**
+	 * @param c
+	 * @return the edges assigned in a component
+	 */
+	private List<Integer> solve(int c) {
+		// number the entities of each side inside the component
+		int fbCount = 0;
+		int wdCount = 0;
+		for (int i = start[c]; i < start[c + 1]; i++) {
+			local[edgeFB[order[i]]] = -1;
+			local[edgeWD[order[i]]] = -1;
+		}
+		for (int i = start[c]; i < start[c + 1]; i++) {
+			int e = order[i];
+			if (local[edgeFB[e]] < 0) {
+				local[edgeFB[e]] = fbCount++;
+			}
+			if (local[edgeWD[e]] < 0) {
+				local[edgeWD[e]] = wdCount++;
+			}
+		}
+		if (fbCount == 1 || wdCount == 1
+				|| Math.max(fbCount, wdCount) > GlobalParameters.ASSIGNMENT_EXACT) {
+			// greedy is also exact for a single entity on a side
+			greedyCount.incrementAndGet();
+			return greedy(c, fbCount, wdCount);
+		}
+		exactCount.incrementAndGet();
+		return hungarian(c, fbCount, wdCount);
+	}
+
+	/**
+	 * Take the edges by decreasing weight, as long as both entities are free
+	 */
+	private List<Integer> greedy(int c, int fbCount, int wdCount) {
+		List<Integer> edges = new ArrayList<Integer>();
+		for (int i = start[c]; i < start[c + 1]; i++) {
+			edges.add(order[i]);
+		}
+		// stable: equal weights keep the index order
+		Collections.sort(edges, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(weights[b], weights[a]);
+			}
+		});
+		boolean[] fbTaken = new boolean[fbCount];
+		boolean[] wdTaken = new boolean[wdCount];
+		List<Integer> chosen = new ArrayList<Integer>();
+		for (int e : edges) {
+			int fb = local[edgeFB[e]];
+			int wd = local[edgeWD[e]];
+			if (!fbTaken[fb] && !wdTaken[wd]) {
+				fbTaken[fb] = true;
+				wdTaken[wd] = true;
+				chosen.add(e);
+			}
+		}
+		return chosen;
+	}
+
+	/**
+	 * Maximum weight assignment of a component by the Hungarian method, rows
+	 * being the smaller side; the missing edges weigh 0 and are dropped from
+	 * the assignment
+	 */
+	private List<Integer> hungarian(int c, int fbCount, int wdCount) {
+		boolean fbRows = fbCount <= wdCount;
+		int n = fbRows ? fbCount : wdCount;
+		int m = fbRows ? wdCount : fbCount;
+		// 1-based cost matrix (negated weights) and the edge of every cell
+		double[][] cost = new double[n + 1][m + 1];
+		int[][] edge = new int[n + 1][m + 1];
+		for (int[] row : edge) {
+			Arrays.fill(row, -1);
+		}
+		for (int i = start[c]; i < start[c + 1]; i++) {
+			int e = order[i];
+			int fb = local[edgeFB[e]] + 1;
+			int wd = local[edgeWD[e]] + 1;
+			int row = fbRows ? fb : wd;
+			int col = fbRows ? wd : fb;
+			if (edge[row][col] < 0 || weights[e] > -cost[row][col]) {
+				cost[row][col] = -weights[e];
+				edge[row][col] = e;
+			}
+		}
+		// potentials, and the row each column is assigned to
+		double[] u = new double[n + 1];
+		double[] v = new double[m + 1];
+		int[] p = new int[m + 1];
+		int[] way = new int[m + 1];
+		for (int i = 1; i <= n; i++) {
+			p[0] = i;
+			int j0 = 0;
+			double[] minv = new double[m + 1];
+			Arrays.fill(minv, Double.POSITIVE_INFINITY);
+			boolean[] used = new boolean[m + 1];
+			do {
+				used[j0] = true;
+				int i0 = p[j0];
+				double delta = Double.POSITIVE_INFINITY;
+				int j1 = 0;
+				for (int j = 1; j <= m; j++) {
+					if (!used[j]) {
+						double cur = cost[i0][j] - u[i0] - v[j];
+						if (cur < minv[j]) {
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if (minv[j] < delta) {
+							delta = minv[j];
+							j1 = j;
+						}
+					}
+				}
+				for (int j = 0; j <= m; j++) {
+					if (used[j]) {
+						u[p[j]] += delta;
+						v[j] -= delta;
+					} else {
+						minv[j] -= delta;
+					}
+				}
+				j0 = j1;
+			} while (p[j0] != 0);
+			do {
+				int j1 = way[j0];
+				p[j0] = p[j1];
+				j0 = j1;
+			} while (j0 != 0);
+		}
+		List<Integer> chosen = new ArrayList<Integer>();
+		for (int j = 1; j <= m; j++) {
+			if (p[j] != 0 && edge[p[j]][j] >= 0) {
+				chosen.add(edge[p[j]][j]);
+			}
+		}
+		return chosen;
+	}
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_ASSIGNMENT };
+		return outputs;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	 */
+	@Override
+	public void match() {
+		components = new UnionFind();
+		fbCoder = new EntityCoder();
+		wdCoder = new EntityCoder();
+		fbNodes = new LongIntHashMap();
+		wdNodes = new LongIntHashMap();
+		load();
+		fbNodes = null;
+		wdNodes = null;
+		int count = group();
+		components = null;
+		local = new int[nodeCodes.length];
+		SAWriter writer = new SAWriter(
+				GlobalParameters.PATH_INDEX_SA_ASSIGNMENT);
+		ForkJoinPool pool = new ForkJoinPool(GlobalParameters.WORKER_COUNT);
+		try {
+			pool.invoke(new Solver(0, count, writer));
+		} finally {
+			pool.shutdown();
+		}
+		writer.close();
+		System.out.println("Assignment SA pairs count:\t" + assigned.get()
+				+ " (" + count + " components, " + exactCount.get() + " exact, "
+				+ greedyCount.get() + " greedy)");
+		order = null;
+		start = null;
+		local = null;
+	}
+}
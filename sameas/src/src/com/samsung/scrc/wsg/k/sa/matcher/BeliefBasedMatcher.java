@@ -3,10 +3,7 @@
  */
 package com.samsung.scrc.wsg.k.sa.matcher;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
 import com.samsung.scrc.wsg.k.sa.core.SAWriter;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
@@ -16,38 +13,60 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  * @date Mar 30, 2015
  * 
  */
-public class BeliefBasedMatcher extends Matcher {
+public class BeliefBasedMatcher extends StatSAMatcher {
+	private SAWriter writer;
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_BELIEF };
+		return outputs;
+	}
+
+	@Override
+	public String getScanOutput() {
+		return GlobalParameters.PATH_INDEX_SA_BELIEF;
+	}
+
+	@Override
+	public void beginScan() {
+		writer = new SAWriter(GlobalParameters.PATH_INDEX_SA_BELIEF);
+	}
+
+	/**
+	 * Keeps the pairs whose language count is at least the languages each
+	 * entity has outside of the pair
 	 */
 	@Override
-	public void match() {
-		// TODO Auto-generated method stub
-		SASearcher searcher = new SASearcher(
-				GlobalParameters.PATH_INDEX_STAT_SA);
-		SAWriter writer = new SAWriter(GlobalParameters.PATH_INDEX_SA_BELIEF);
-		String[][] pairs = searcher.fetchStatSAPairs(true);
-		List<String[]> matchPairs = new ArrayList<String[]>();
-		while (pairs != null && pairs.length != 0) {
-			for (int i = 0; i < pairs.length; i++) {
-				if (Integer.valueOf(pairs[i][2]) >= Integer
-						.valueOf(pairs[i][4]) - Integer.valueOf(pairs[i][2])
-						&& Integer.valueOf(pairs[i][2]) >= Integer
-								.valueOf(pairs[i][3])
-								- Integer.valueOf(pairs[i][2])) {
-					String[] mp = { pairs[i][0], pairs[i][1] };
-					matchPairs.add(mp);
+	public StatSAScan.Sink sink() {
+		return new StatSAScan.WriterSink(writer) {
+			@Override
+			public void accept(RecordBatch batch, int row) {
+				int count = batch.getCount(StatSAScan.LANG_COUNT, row);
+				if (count >= batch.getCount(StatSAScan.LANG_COUNT_WD, row)
+						- count
+						&& count >= batch.getCount(StatSAScan.LANG_COUNT_FB,
+								row) - count) {
+					String[] mp = { batch.getIdString(StatSAScan.ID_FB, row),
+							batch.getIdString(StatSAScan.ID_WD, row) };
+					emit(mp);
 				}
 			}
-			writer.insertSAPairs(matchPairs);
-			matchPairs.clear();
-			pairs = searcher.fetchStatSAPairs(false);
-		}
-		searcher.close();
+		};
+	}
+
+	@Override
+	public void endScan() {
 		writer.close();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.StatSAMatcher#matchAfterScan()
+	 */
+	@Override
+	public void matchAfterScan() {
+		// the scan writes the result
+	}
+
 }
@@ -0,0 +1,204 @@
+/**
+ * ClusterMatcher.java
+ * Clusters the sameAs graph of the join
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.util.EntityCoder;
+import com.samsung.scrc.wsg.k.util.LongIntHashMap;
+import com.samsung.scrc.wsg.k.util.UnionFind;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Clusters the sameAs graph of the join, Freebase & Wikidata entities linked by
+ * their pairs, with a union-find over numeric entity ids. Every pair is indexed
+ * with its cluster, the clusters are counted per shape (Freebase:Wikidata
+ * entities), and the 1:1 clusters are the 1:1 pairs of the join
+ */
+public class ClusterMatcher extends Matcher {
+	private UnionFind clusters;
+	// node of an entity, by its code
+	private EntityCoder fbCoder;
+	private EntityCoder wdCoder;
+	private LongIntHashMap fbNodes;
+	private LongIntHashMap wdNodes;
+	// nodes which are Wikidata entities
+	private BitSet wdSide;
+
+	private int node(String id, EntityCoder coder, LongIntHashMap nodes,
+			boolean wd) {
+		long code = coder.encode(id);
+		int node = nodes.get(code, -1);
+		if (node < 0) {
+			node = clusters.add();
+			nodes.put(code, node);
+			if (wd) {
+				wdSide.set(node);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Union the entities of every pair of the join
+	 */
+	private void link() {
+		for (int shard = 0; shard < SASearcher
+				.shards(GlobalParameters.PATH_INDEX_SA_ORIGIN); shard++) {
+			SASearcher searcher = new SASearcher(
+					GlobalParameters.PATH_INDEX_SA_ORIGIN, shard);
+			String[][] pairs = searcher.fetchPairs(true);
+			while (pairs != null && pairs.length != 0) {
+				for (String[] pair : pairs) {
+					clusters.union(node(pair[0], fbCoder, fbNodes, false),
+							node(pair[1], wdCoder, wdNodes, true));
+				}
+				pairs = searcher.fetchPairs(false);
+			}
+			searcher.close();
+		}
+	}
+
+	@Override
+	public String[] getInputs() {
+		String[] inputs = { GlobalParameters.PATH_INDEX_SA_ORIGIN };
+		return inputs;
+	}
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_CLUSTER_ONE,
+				GlobalParameters.PATH_INDEX_SA_CLUSTER,
+				GlobalParameters.PATH_INDEX_SA_CLUSTER_SHAPES };
+		return outputs;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	 */
+	@Override
+	public void match() {
+		clusters = new UnionFind();
+		fbCoder = new EntityCoder();
+		wdCoder = new EntityCoder();
+		fbNodes = new LongIntHashMap();
+		wdNodes = new LongIntHashMap();
+		wdSide = new BitSet();
+		link();
+		// entities of each side per cluster, indexed by root
+		int[] fbCount = new int[clusters.count()];
+		int[] wdCount = new int[clusters.count()];
+		for (int node = 0; node < clusters.count(); node++) {
+			if (wdSide.get(node)) {
+				wdCount[clusters.find(node)]++;
+			} else {
+				fbCount[clusters.find(node)]++;
+			}
+		}
+		wdNodes = null;
+		wdSide = null;
+		int[] pairCount = report(fbCount, wdCount);
+		fbNodes = null;
+		histogram(fbCount, wdCount, pairCount);
+		clusters = null;
+	}
+
+	/**
+	 * Index every pair with its cluster, and the 1:1 clusters as a result
+	 *
+	 * @return pairs per cluster, indexed by root
+	 */
+	private int[] report(int[] fbCount, int[] wdCount) {
+		int[] pairCount = new int[clusters.count()];
+		SAWriter clusterWriter = new SAWriter(
+				GlobalParameters.PATH_INDEX_SA_CLUSTER);
+		SAWriter oneWriter = new SAWriter(
+				GlobalParameters.PATH_INDEX_SA_CLUSTER_ONE);
+		List<String[]> rows = new ArrayList<String[]>();
+		List<String[]> ones = new ArrayList<String[]>();
+		for (int shard = 0; shard < SASearcher
+				.shards(GlobalParameters.PATH_INDEX_SA_ORIGIN); shard++) {
+			SASearcher searcher = new SASearcher(
+					GlobalParameters.PATH_INDEX_SA_ORIGIN, shard);
+			String[][] pairs = searcher.fetchPairs(true);
+			while (pairs != null && pairs.length != 0) {
+				for (String[] pair : pairs) {
+					int root = clusters.find(fbNode(pair[0]));
+					pairCount[root]++;
+					String[] row = { pair[0], pair[1], String.valueOf(root),
+							String.valueOf(fbCount[root]),
+							String.valueOf(wdCount[root]) };
+					rows.add(row);
+					if (fbCount[root] == 1 && wdCount[root] == 1) {
+						ones.add(pair);
+					}
+				}
+				clusterWriter.insert(rows);
+				rows.clear();
+				oneWriter.insert(ones);
+				ones.clear();
+				pairs = searcher.fetchPairs(false);
+			}
+			searcher.close();
+		}
+		clusterWriter.close();
+		oneWriter.close();
+		return pairCount;
+	}
+
+	private int fbNode(String id) {
+		return fbNodes.get(fbCoder.encode(id), -1);
+	}
+
+	/**
+	 * Count the clusters & pairs of every shape (Freebase entities,
+	 * Wikidata entities)
+	 */
+	private void histogram(int[] fbCount, int[] wdCount, int[] pairCount) {
+		// shape (Freebase count << 32 | Wikidata count) -> clusters, pairs
+		Map<Long, long[]> shapes = new TreeMap<Long, long[]>();
+		long clusterTotal = 0;
+		int largest = 0;
+		for (int root = 0; root < clusters.count(); root++) {
+			if (clusters.find(root) != root) {
+				continue;
+			}
+			long shape = (long) fbCount[root] << 32 | wdCount[root];
+			long[] counts = shapes.get(shape);
+			if (counts == null) {
+				counts = new long[2];
+				shapes.put(shape, counts);
+			}
+			counts[0]++;
+			counts[1] += pairCount[root];
+			clusterTotal++;
+			largest = Math.max(largest, clusters.size(root));
+		}
+		SAWriter shapeWriter = new SAWriter(
+				GlobalParameters.PATH_INDEX_SA_CLUSTER_SHAPES);
+		List<String[]> rows = new ArrayList<String[]>();
+		for (Map.Entry<Long, long[]> shape : shapes.entrySet()) {
+			String[] row = { String.valueOf(shape.getKey() >>> 32),
+					String.valueOf(shape.getKey() & 0xFFFFFFFFL),
+					String.valueOf(shape.getValue()[0]),
+					String.valueOf(shape.getValue()[1]) };
+			rows.add(row);
+		}
+		shapeWriter.insert(rows);
+		shapeWriter.close();
+		long[] ones = shapes.get(1L << 32 | 1);
+		System.out.println("SA clusters:\t" + clusterTotal + " ("
+				+ (ones == null ? 0 : ones[0]) + " 1:1, " + shapes.size()
+				+ " shapes, largest " + largest + " entities)");
+	}
+}
@@ -4,12 +4,13 @@
 package com.samsung.scrc.wsg.k.sa.matcher;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
-import com.samsung.scrc.wsg.k.index.search.SearchIndex;
-import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.sa.preproc.KeyPrefilter;
+import com.samsung.scrc.wsg.k.util.LangSet;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -24,130 +25,200 @@ public class FullMatcher extends Matcher {
 		super();
 	}
 
-	private void pickUpMappingPairs() {
-		SAWriter rawWriter = new SAWriter(GlobalParameters.PATH_INDEX_SA_RAW);
+	/**
+	 * Freebase & Wikidata keys are sharded by MD5 alike, so every shard pair is
+	 * merged on its own. Otherwise every Freebase shard is merged with every
+	 * Wikidata shard, the items of an MD5 being all in one shard of each side.
+	 * Each merge is further cut into GlobalParameters.JOIN_RANGES ranges of
+	 * MD5, and every range is merged by a worker of its own. All workers feed
+	 * the same aggregator
+	 */
+	private void pickUpMappingPairs(final PairAggregator aggregator) {
+		final int[][] shardPairs = shardPairs();
+		if (GlobalParameters.JOIN_MODE.equals("hash")) {
+			hashJoin(shardPairs, aggregator);
+			return;
+		}
+		final int ranges = GlobalParameters.JOIN_RANGES;
+		ShardExecutor.run(shardPairs.length * ranges, new ShardTask() {
+			@Override
+			public void process(int task) {
+				int[] shardPair = shardPairs[task / ranges];
+				int range = task % ranges;
+				SASearcher fbSearcher = new SASearcher(
+						GlobalParameters.PATH_INDEX_FB, shardPair[0]);
+				SASearcher wdSearcher = new SASearcher(
+						GlobalParameters.PATH_INDEX_WD, shardPair[1]);
+				pickUpMappingPairs(fbSearcher, wdSearcher,
+						md5Bound(range, ranges), md5Bound(range + 1, ranges),
+						aggregator);
+				fbSearcher.close();
+				wdSearcher.close();
+			}
+		});
+	}
+
+	/**
+	 * @return the (Freebase shard, Wikidata shard) pairs to join
+	 */
+	private static int[][] shardPairs() {
+		int fbShards = SASearcher.shards(GlobalParameters.PATH_INDEX_FB);
+		int wdShards = SASearcher.shards(GlobalParameters.PATH_INDEX_WD);
+		if (fbShards == wdShards) {
+			int[][] shardPairs = new int[fbShards][];
+			for (int i = 0; i < fbShards; i++) {
+				shardPairs[i] = new int[] { i, i };
+			}
+			return shardPairs;
+		}
+		int[][] shardPairs = new int[fbShards * wdShards][];
+		for (int i = 0; i < shardPairs.length; i++) {
+			shardPairs[i] = new int[] { i / wdShards, i % wdShards };
+		}
+		return shardPairs;
+	}
+
+	/**
+	 * Hash join every shard pair, each worker with its share of the join
+	 * memory budget
+	 * 
+	 * @param shardPairs
+	 * @param aggregator
+	 */
+	private void hashJoin(final int[][] shardPairs,
+			final PairAggregator aggregator) {
+		final long budget = GlobalParameters.JOIN_BUDGET_MB
+				* 1024L
+				* 1024L
+				/ Math.max(1,
+						Math.min(shardPairs.length, GlobalParameters.WORKER_COUNT));
+		ShardExecutor.run(shardPairs.length, new ShardTask() {
+			@Override
+			public void process(int task) {
+				SASearcher fbSearcher = new SASearcher(
+						GlobalParameters.PATH_INDEX_FB, shardPairs[task][0]);
+				SASearcher wdSearcher = new SASearcher(
+						GlobalParameters.PATH_INDEX_WD, shardPairs[task][1]);
+				new HashJoin(fbSearcher, wdSearcher, aggregator, budget).join();
+				fbSearcher.close();
+				wdSearcher.close();
+			}
+		});
+	}
+
+	/**
+	 * Lower bound of a range of MD5 (lowercase hex), null for the open ends
+	 * 
+	 * @param range
+	 * @param ranges
+	 * @return
+	 */
+	static String md5Bound(int range, int ranges) {
+		if (range <= 0 || range >= ranges) {
+			return null;
+		}
+		return String.format("%04x", (int) (range * 65536L / ranges));
+	}
+
+	/**
+	 * Merge the Freebase & Wikidata items whose MD5 fall in [lower, upper)
+	 */
+	private void pickUpMappingPairs(SASearcher freebase, SASearcher wikidata,
+			String lower, String upper, PairAggregator aggregator) {
 		int iFB = 0;
 		int iWD = 0;
 		long offsetFB = 0;
 		long offsetWD = 0;
 		List<String[]> saPairs = new ArrayList<String[]>();
-		try {
-			String[][] fbItems = freebase.fetchData(true);
-//			log.trace("Freebase : " + offsetFB);
-			String[][] wdItems = wikidata.fetchData(true);
-//			log.trace("Wikidata : " + offsetWD);
-			String[] currFBItem = fbItems[iFB];
-			String currFBItemMD5 = currFBItem[2];
-			String[] currWDItem = wdItems[iWD];
-			String currWDItemMD5 = currWDItem[2];
-			WHILE_LOOP: while (iFB < fbItems.length && iWD < wdItems.length) {
-				int compValue = currFBItemMD5
-						.compareToIgnoreCase(currWDItemMD5);
-				if (compValue == 0) {
-					String[] saPair = new String[7];
-					// traceResult(currFBItem, currWDItem);
-					saPair[0] = currFBItem[0];
-					saPair[1] = currFBItem[1];
-					saPair[2] = currFBItem[3];
-					saPair[3] = currWDItem[0];
-					saPair[4] = currWDItem[1];
-					saPair[5] = currWDItem[3];
-					saPair[6] = currFBItemMD5;
-					saPairs.add(saPair);
-					iFB++;
-					if (iFB >= fbItems.length) {
-						rawWriter.insertSameAsRelations(saPairs);
-						saPairs.clear();
-						iFB = 0;
-						fbItems = freebase.fetchData(false);
-						offsetFB += GlobalParameters.BATCH_SIZE_MAX;
-//						log.trace("Freebase : " + offsetFB);
-						if (fbItems == null || fbItems.length == 0) {
-							break WHILE_LOOP;
-						}
+		String[][] fbItems = freebase.fetchData(lower, upper, true);
+//		log.trace("Freebase : " + offsetFB);
+		String[][] wdItems = wikidata.fetchData(lower, upper, true);
+//		log.trace("Wikidata : " + offsetWD);
+		if (fbItems == null || wdItems == null) {
+			// an empty range
+			return;
+		}
+		String[] currFBItem = fbItems[iFB];
+		String currFBItemMD5 = currFBItem[2];
+		String[] currWDItem = wdItems[iWD];
+		String currWDItemMD5 = currWDItem[2];
+		WHILE_LOOP: while (iFB < fbItems.length && iWD < wdItems.length) {
+			int compValue = currFBItemMD5
+					.compareToIgnoreCase(currWDItemMD5);
+			if (compValue == 0) {
+				String[] saPair = new String[7];
+				// traceResult(currFBItem, currWDItem);
+				saPair[0] = currFBItem[0];
+				saPair[1] = currFBItem[1];
+				// the languages are the URL hosts, LANG is not written
+				saPair[2] = LangSet.language(currFBItem[1]);
+				saPair[3] = currWDItem[0];
+				saPair[4] = currWDItem[1];
+				saPair[5] = LangSet.language(currWDItem[1]);
+				saPair[6] = currFBItemMD5;
+				saPairs.add(saPair);
+				iFB++;
+				if (iFB >= fbItems.length) {
+					aggregator.insert(saPairs);
+					saPairs.clear();
+					iFB = 0;
+					fbItems = freebase.fetchData(lower, upper, false);
+					offsetFB += GlobalParameters.BATCH_SIZE_MAX;
+//					log.trace("Freebase : " + offsetFB);
+					if (fbItems == null || fbItems.length == 0) {
+						break WHILE_LOOP;
 					}
-					currFBItem = fbItems[iFB];
-					currFBItemMD5 = currFBItem[2];
-				} else if (compValue > 0) {
-					iWD++;
-					if (iWD >= wdItems.length) {
-						rawWriter.insertSameAsRelations(saPairs);
-						saPairs.clear();
-						iWD = 0;
-						wdItems = wikidata.fetchData(false);
-						offsetWD += GlobalParameters.BATCH_SIZE_MAX;
-//						log.trace("Wikidata : " + offsetWD);
-						if (wdItems == null || wdItems.length == 0) {
-							break WHILE_LOOP;
-						}
+				}
+				currFBItem = fbItems[iFB];
+				currFBItemMD5 = currFBItem[2];
+			} else if (compValue > 0) {
+				iWD++;
+				if (iWD >= wdItems.length) {
+					aggregator.insert(saPairs);
+					saPairs.clear();
+					iWD = 0;
+					wdItems = wikidata.fetchData(lower, upper, false);
+					offsetWD += GlobalParameters.BATCH_SIZE_MAX;
+//					log.trace("Wikidata : " + offsetWD);
+					if (wdItems == null || wdItems.length == 0) {
+						break WHILE_LOOP;
 					}
-					currWDItem = wdItems[iWD];
-					currWDItemMD5 = currWDItem[2];
-				} else {
-					iFB++;
-					if (iFB >= fbItems.length) {
-						rawWriter.insertSameAsRelations(saPairs);
-						saPairs.clear();
-						iFB = 0;
-						fbItems = freebase.fetchData(false);
-						offsetFB += GlobalParameters.BATCH_SIZE_MAX;
-//						log.trace("Freebase : " + offsetFB);
-						if (fbItems == null || fbItems.length == 0) {
-							break WHILE_LOOP;
-						}
+				}
+				currWDItem = wdItems[iWD];
+				currWDItemMD5 = currWDItem[2];
+			} else {
+				iFB++;
+				if (iFB >= fbItems.length) {
+					aggregator.insert(saPairs);
+					saPairs.clear();
+					iFB = 0;
+					fbItems = freebase.fetchData(lower, upper, false);
+					offsetFB += GlobalParameters.BATCH_SIZE_MAX;
+//					log.trace("Freebase : " + offsetFB);
+					if (fbItems == null || fbItems.length == 0) {
+						break WHILE_LOOP;
 					}
-					currFBItem = fbItems[iFB];
-					currFBItemMD5 = currFBItem[2];
 				}
+				currFBItem = fbItems[iFB];
+				currFBItemMD5 = currFBItem[2];
 			}
-			if (saPairs != null && !saPairs.isEmpty()) {
-				rawWriter.insertSameAsRelations(saPairs);
-			}
-		} catch (Exception e) {
-//			log.error(this, e);
-			System.err.println(e);
-		} finally {
-			rawWriter.close();
+		}
+		if (saPairs != null && !saPairs.isEmpty()) {
+			aggregator.insert(saPairs);
 		}
 	}
 
-	private void cleansing() {
-		SearchIndex rawSearcher = new SearchIndex(
-				GlobalParameters.PATH_INDEX_SA_RAW);
-		SAWriter saWriter = new SAWriter(GlobalParameters.PATH_INDEX_SA_ORIGIN);
-		long count = 0;
-		String[] keys = { GlobalParameters.COL_ID_FB,
-				GlobalParameters.COL_ID_WD };
-		String[] sortKeys = { GlobalParameters.COL_ID_FB_SORT };
-		String[][] results = rawSearcher.sortPagSearch(keys, sortKeys,
-				GlobalParameters.BATCH_SIZE_MAX, true);
-		String currFB = results[0][0];
-		Set<String> wds = new HashSet<String>();
-		while (results != null) {
-			for (int i = 0; i < results.length; i++) {
-				String fb = results[i][0];
-				String wd = results[i][1];
-				if (fb.equalsIgnoreCase(currFB)) {
-					wds.add(wd);
-				} else {
-					// store
-					saWriter.insertSameAsRelations(currFB, wds);
-					count += wds.size();
-					// log.info("current:\t" + count);
-					currFB = fb;
-					wds.clear();
-					wds.add(wd);
-				}
-			}
-//			log.trace("current:\t" + count);
-			results = rawSearcher.sortPagSearch(keys, sortKeys,
-					GlobalParameters.BATCH_SIZE_MAX, false);
-		}
-		saWriter.insertSameAsRelations(currFB, wds);
-		count += wds.size();
-//		log.trace("Ultimate SA pairs count:\t" + count);
-		System.out.println("Ultimate SA pairs count:\t" + count);
-		saWriter.close();
+	@Override
+	public String[] getInputs() {
+		String[] inputs = { GlobalParameters.PATH_INDEX_FB,
+				GlobalParameters.PATH_INDEX_WD };
+		return inputs;
+	}
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_ORIGIN };
+		return outputs;
 	}
 
 	/*
@@ -157,11 +228,18 @@ public class FullMatcher extends Matcher {
 	 */
 	@Override
 	public void match() {
-		// TODO Auto-generated method stub
-		// pick up mapping pairs
-		this.pickUpMappingPairs();
-		// eliminate duplicated
-		this.cleansing();
+		// pick up mapping pairs, grouped by pair as they leave the join
+		PairAggregator aggregator = new PairAggregator();
+		this.pickUpMappingPairs(aggregator);
+		if (KeyPrefilter.isActive()) {
+			// every relation is a distinct matched Freebase key
+			KeyPrefilter.report(aggregator.getRelationCount());
+			KeyPrefilter.clear();
+		}
+		// distinct pairs with their language count
+		long count = aggregator.writeTo(GlobalParameters.PATH_INDEX_SA_ORIGIN);
+//		log.trace("Ultimate SA pairs count:\t" + count);
+		System.out.println("Ultimate SA pairs count:\t" + count);
 	}
 
 }
@@ -0,0 +1,392 @@
+/**
+ * GroupBy.java
+ * Streaming group-by operators for writing matchers
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.util.EntityCoder;
+import com.samsung.scrc.wsg.k.util.ExternalSorter;
+import com.samsung.scrc.wsg.k.util.MemoryBudget;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Streaming group-by operators for writing matchers: an Operator hands each
+ * group of records sharing a key to a Reducer, whose emitted rows flow to the
+ * next operator. A Regroup collects rows for a group-by on another column in
+ * memory (spilled into sorted runs past the budget), so that chained passes
+ * need no intermediate index. A row may carry a count, kept as an int in its
+ * sort key, which a CountReducer reads without parsing
+ */
+public class GroupBy {
+	// order of the keys of counted rows: the entity code, not the count
+	private static final Comparator<byte[]> CODE_ORDER = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			for (int i = 0; i < 8; i++) {
+				int diff = (a[i] & 0xff) - (b[i] & 0xff);
+				if (diff != 0) {
+					return diff;
+				}
+			}
+			return 0;
+		}
+	};
+
+	public interface Emitter {
+		void emit(String[] row);
+	}
+
+	/**
+	 * Decision of a matcher on one group
+	 */
+	public interface Reducer {
+		/**
+		 * @param group
+		 *            records sharing the key, in arrival order
+		 * @param out
+		 *            where the kept rows go
+		 */
+		void reduce(List<String[]> group, Emitter out);
+	}
+
+	/**
+	 * Decision of a matcher on one group of counted rows
+	 */
+	public interface CountReducer {
+		/**
+		 * @param group
+		 *            records sharing the key, in arrival order
+		 * @param counts
+		 *            the count of each record of the group (the array may be
+		 *            longer)
+		 * @param out
+		 *            where the kept rows go
+		 */
+		void reduce(List<String[]> group, int[] counts, Emitter out);
+	}
+
+	/**
+	 * Groups consecutive records with the same key, so records must come
+	 * grouped (sorted) by the key. One operator per thread
+	 */
+	public static class Operator implements Emitter {
+		private int keyColumn;
+		private Reducer reducer;
+		private CountReducer countReducer;
+		private Emitter out;
+		private String currKey = null;
+		private List<String[]> group = new ArrayList<String[]>();
+		// counts of the group, for a CountReducer
+		private int[] counts;
+
+		public Operator(int keyColumn, Reducer reducer, Emitter out) {
+			this.keyColumn = keyColumn;
+			this.reducer = reducer;
+			this.out = out;
+		}
+
+		/**
+		 * An operator on counted rows, fed through emit(String[], int)
+		 *
+		 * @param keyColumn
+		 * @param reducer
+		 * @param out
+		 */
+		public Operator(int keyColumn, CountReducer reducer, Emitter out) {
+			this.keyColumn = keyColumn;
+			this.countReducer = reducer;
+			this.out = out;
+			counts = new int[16];
+		}
+
+		@Override
+		public void emit(String[] record) {
+			if (!group.isEmpty() && !record[keyColumn].equals(currKey)) {
+				reduceGroup();
+			}
+			currKey = record[keyColumn];
+			group.add(record);
+		}
+
+		/**
+		 * @param record
+		 * @param count
+		 *            handed to the CountReducer
+		 */
+		public void emit(String[] record, int count) {
+			emit(record);
+			if (group.size() > counts.length) {
+				counts = Arrays.copyOf(counts, counts.length * 2);
+			}
+			counts[group.size() - 1] = count;
+		}
+
+		private void reduceGroup() {
+			if (countReducer != null) {
+				countReducer.reduce(group, counts, out);
+			} else {
+				reducer.reduce(group, out);
+			}
+			group.clear();
+		}
+
+		/**
+		 * Reduce the last group
+		 */
+		public void close() {
+			if (!group.isEmpty()) {
+				reduceGroup();
+			}
+		}
+	}
+
+	/**
+	 * Buffers rows into a writer, one per thread
+	 */
+	public static class Output implements Emitter {
+		private SAWriter writer;
+		private List<String[]> rows = new ArrayList<String[]>();
+
+		public Output(SAWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void emit(String[] row) {
+			rows.add(row);
+			if (rows.size() >= GlobalParameters.BATCH_SIZE_MAX) {
+				writer.insert(rows);
+				rows.clear();
+			}
+		}
+
+		public void close() {
+			writer.insert(rows);
+			rows.clear();
+		}
+	}
+
+	/**
+	 * Rows collected from any number of threads, then reduced by another key
+	 * column. Rows are hash partitioned by that key so the partitions are
+	 * reduced in parallel
+	 */
+	public static class Regroup implements Emitter {
+		private int keyColumn;
+		// rows carry a count, in the last 4 bytes of their key
+		private boolean counted = false;
+		private ExternalSorter[] partitions;
+		private File dir;
+		// shared with the other consumers of the memory budget
+		private MemoryBudget budget;
+		private EntityCoder coder = new EntityCoder();
+
+		/**
+		 * Rows regrouped by an entity id column
+		 *
+		 * @param keyColumn
+		 * @param name
+		 *            of the spill directory
+		 */
+		public Regroup(int keyColumn, String name) {
+			this(keyColumn, name, false);
+		}
+
+		/**
+		 * Rows regrouped by an entity id column, each carrying a count (see
+		 * emit(String[], int)), reduced by a CountReducer
+		 *
+		 * @param keyColumn
+		 * @param name
+		 *            of the spill directory
+		 * @param counted
+		 */
+		public Regroup(final int keyColumn, String name, boolean counted) {
+			this.keyColumn = keyColumn;
+			this.counted = counted;
+			if (counted) {
+				// emit(String[], int) writes the keys
+				init(name, 12, null, CODE_ORDER);
+				return;
+			}
+			init(name, 8, new ExternalSorter.KeyEncoder() {
+				@Override
+				public void encode(String[] record, byte[] key) {
+					ByteBuffer.wrap(key).putLong(
+							coder.encode(record[keyColumn]));
+				}
+			}, ExternalSorter.UNSIGNED);
+		}
+
+		/**
+		 * Rows regrouped by any column
+		 *
+		 * @param keyColumn
+		 * @param name
+		 *            of the spill directory
+		 * @param encoder
+		 *            8 byte sort key of a row, equal for equal key values
+		 */
+		public Regroup(int keyColumn, String name,
+				ExternalSorter.KeyEncoder encoder) {
+			this.keyColumn = keyColumn;
+			init(name, 8, encoder, ExternalSorter.UNSIGNED);
+		}
+
+		private void init(String name, int keyWidth,
+				ExternalSorter.KeyEncoder encoder,
+				Comparator<byte[]> comparator) {
+			int count = Math.max(1, GlobalParameters.WORKER_COUNT);
+			budget = MemoryBudget.lease(
+					GlobalParameters.TMP_INDEX_BUDGET_MB * 1024L * 1024L, count);
+			dir = new File(GlobalParameters.PATH_INDEX_TMP + "regroup/" + name);
+			partitions = new ExternalSorter[count];
+			for (int i = 0; i < count; i++) {
+				partitions[i] = new ExternalSorter(new File(dir, "part-" + i),
+						keyWidth, encoder, comparator, budget);
+			}
+		}
+
+		private ExternalSorter partition(String[] row) {
+			return partitions[Math.abs(row[keyColumn].hashCode()
+					% partitions.length)];
+		}
+
+		@Override
+		public void emit(String[] row) {
+			try {
+				partition(row).add(row);
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+
+		/**
+		 * Collect a counted row
+		 *
+		 * @param row
+		 * @param count
+		 */
+		public void emit(String[] row, int count) {
+			byte[] key = new byte[12];
+			ByteBuffer.wrap(key).putLong(coder.encode(row[keyColumn]))
+					.putInt(count);
+			try {
+				partition(row).add(key, row);
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+
+		// the count of a counted row, after the entity code of its key
+		private static int count(byte[] key) {
+			return (key[8] & 0xff) << 24 | (key[9] & 0xff) << 16
+					| (key[10] & 0xff) << 8 | (key[11] & 0xff);
+		}
+
+		/**
+		 * Reduce the groups into an index, then drop the rows
+		 *
+		 * @param reducer
+		 * @param path
+		 */
+		public void reduce(Reducer reducer, String path) {
+			SAWriter writer = new SAWriter(path);
+			reduce(reducer, null, writer, null);
+			writer.close();
+		}
+
+		/**
+		 * Reduce the groups of counted rows into an index, then drop the rows
+		 *
+		 * @param reducer
+		 * @param path
+		 */
+		public void reduce(CountReducer reducer, String path) {
+			SAWriter writer = new SAWriter(path);
+			reduce(null, reducer, writer, null);
+			writer.close();
+		}
+
+		/**
+		 * Reduce the groups, then drop the rows
+		 *
+		 * @param reducer
+		 * @param out
+		 *            shared by the partitions, so thread safe (a Regroup is);
+		 *            null if the reducer emits nothing
+		 */
+		public void reduce(Reducer reducer, Emitter out) {
+			reduce(reducer, null, null, out);
+		}
+
+		/**
+		 * Reduce the groups of counted rows, then drop the rows
+		 *
+		 * @param reducer
+		 * @param out
+		 *            shared by the partitions, so thread safe; null if the
+		 *            reducer emits nothing
+		 */
+		public void reduce(CountReducer reducer, Emitter out) {
+			reduce(null, reducer, null, out);
+		}
+
+		private void reduce(final Reducer reducer,
+				final CountReducer countReducer, final SAWriter writer,
+				final Emitter out) {
+			try {
+				ShardExecutor.run(partitions.length, new ShardTask() {
+					@Override
+					public void process(int partition) {
+						Output output = writer == null ? null : new Output(
+								writer);
+						Emitter target = output == null ? out : output;
+						Operator operator = countReducer == null ? new Operator(
+								keyColumn, reducer, target) : new Operator(
+								keyColumn, countReducer, target);
+						try {
+							ExternalSorter.Cursor cursor = partitions[partition]
+									.sort();
+							String[] record = cursor.next();
+							while (record != null) {
+								if (counted) {
+									operator.emit(record,
+											count(cursor.key()));
+								} else {
+									operator.emit(record);
+								}
+								record = cursor.next();
+							}
+							cursor.close();
+						} catch (IOException ioe) {
+							throw new UncheckedIOException(ioe);
+						}
+						operator.close();
+						if (output != null) {
+							output.close();
+						}
+						partitions[partition].close();
+					}
+				});
+			} finally {
+				// the partitions are dropped, or failed
+				budget.release();
+			}
+			dir.delete();
+			dir.getParentFile().delete();
+		}
+	}
+}
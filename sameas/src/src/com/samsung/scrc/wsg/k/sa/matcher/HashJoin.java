@@ -0,0 +1,427 @@
+/**
+ * HashJoin.java
+ * Hash join of Freebase & Wikidata keys by MD5
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.util.EntityCoder;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.util.MD5SlotTable;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Hash join of Freebase & Wikidata keys by MD5: the smaller side is built into
+ * an off-heap MD5SlotTable and the other side streamed through it. When the
+ * table would exceed its memory budget, both sides are first spilled into MD5
+ * hash partitions which are joined one by one (grace hash join)
+ */
+public class HashJoin {
+	// ordinal of a Freebase built slot once its first Wikidata item is seen
+	private static final int PAIRED = -1;
+
+	private SASearcher freebase;
+	private SASearcher wikidata;
+	private PairAggregator aggregator;
+	private long budget;
+	// codes of the Wikidata ids
+	private EntityCoder wdCoder = new EntityCoder();
+	// language ordinals
+	private List<String> langs = new ArrayList<String>();
+	private Map<String, Integer> langOrdinals = new HashMap<String, Integer>();
+	// Freebase ids of a built table, chained per MD5 by fbNext (-1 at the end)
+	private List<String> fbIds = new ArrayList<String>();
+	private int[] fbNext = new int[16];
+	private List<String[]> saPairs = new ArrayList<String[]>();
+
+	/**
+	 * @param freebase
+	 * @param wikidata
+	 * @param aggregator
+	 * @param budget
+	 *            bytes of native memory the hash table may take
+	 */
+	public HashJoin(SASearcher freebase, SASearcher wikidata,
+			PairAggregator aggregator, long budget) {
+		this.freebase = freebase;
+		this.wikidata = wikidata;
+		this.aggregator = aggregator;
+		this.budget = Math.max(MD5SlotTable.bytes(0),
+				Math.min(budget, MD5SlotTable.MAX_BYTES));
+	}
+
+	/**
+	 * Join and hand the sameAs relations to the aggregator. Like the merge
+	 * join, every Freebase item is paired with the first Wikidata item of its
+	 * MD5, whichever side the table is built from. Only the ids, the Wikidata
+	 * language and the MD5 are carried
+	 *
+	 * @return number of relations
+	 */
+	public long join() {
+		long wdCount = wikidata.fetchTotalCount();
+		long fbCount = freebase.fetchTotalCount();
+		boolean buildFreebase = fbCount < wdCount;
+		int partitions = partitions(buildFreebase ? fbCount : wdCount);
+		long count = 0;
+		try {
+			if (partitions <= 1) {
+				count = buildFreebase ? joinInMemoryFreebase(fbCount)
+						: joinInMemory(wdCount);
+			} else {
+				count = joinPartitioned(partitions, buildFreebase);
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		return count;
+	}
+
+	/**
+	 * Partitions of a side whose tables stay within the budget. A partition
+	 * is given a quarter of the slots of the largest table within the budget,
+	 * so that an uneven split of the MD5 still fits
+	 *
+	 * @param keys
+	 * @return
+	 */
+	private int partitions(long keys) {
+		if (MD5SlotTable.bytes(keys) <= budget) {
+			return 1;
+		}
+		long slots = Long.highestOneBit(budget / MD5SlotTable.SLOT_SIZE);
+		long partitionKeys = Math.max(1, slots / 4);
+		return (int) ((keys + partitionKeys - 1) / partitionKeys);
+	}
+
+	/**
+	 * @param keys
+	 * @return a table for the keys of a partition
+	 */
+	private static MD5SlotTable table(long keys) {
+		if (MD5SlotTable.bytes(keys) > MD5SlotTable.MAX_BYTES) {
+			throw new IllegalStateException(
+					"Hash join partition too large, MD5 unevenly spread:\t"
+							+ keys);
+		}
+		return new MD5SlotTable(keys);
+	}
+
+	private long joinInMemory(long wdCount) {
+		MD5SlotTable table = new MD5SlotTable(wdCount);
+		String[][] wdItems = wikidata.scanData(true);
+		while (wdItems != null) {
+			for (String[] wdItem : wdItems) {
+				if (wdItem[2] != null) {
+					long[] key = MD5SlotTable.parse(wdItem[2]);
+					table.putIfAbsent(key[0], key[1], wdCoder.encode(wdItem[0]),
+							langOrdinal(LangSet.language(wdItem[1])));
+				}
+			}
+			wdItems = wikidata.scanData(false);
+		}
+		long count = 0;
+		String[][] fbItems = freebase.scanData(true);
+		while (fbItems != null) {
+			for (String[] fbItem : fbItems) {
+				if (fbItem[2] != null) {
+					long[] key = MD5SlotTable.parse(fbItem[2]);
+					count += probe(table, key[0], key[1], fbItem[0]);
+				}
+			}
+			fbItems = freebase.scanData(false);
+		}
+		flush();
+		return count;
+	}
+
+	private long joinInMemoryFreebase(long fbCount) {
+		MD5SlotTable table = new MD5SlotTable(fbCount);
+		String[][] fbItems = freebase.scanData(true);
+		while (fbItems != null) {
+			for (String[] fbItem : fbItems) {
+				if (fbItem[2] != null) {
+					long[] key = MD5SlotTable.parse(fbItem[2]);
+					build(table, key[0], key[1], fbItem[0]);
+				}
+			}
+			fbItems = freebase.scanData(false);
+		}
+		long count = 0;
+		String[][] wdItems = wikidata.scanData(true);
+		while (wdItems != null) {
+			for (String[] wdItem : wdItems) {
+				if (wdItem[2] != null) {
+					long[] key = MD5SlotTable.parse(wdItem[2]);
+					count += probeFreebase(table, key[0], key[1],
+							wdCoder.encode(wdItem[0]),
+							langOrdinal(LangSet.language(wdItem[1])));
+				}
+			}
+			wdItems = wikidata.scanData(false);
+		}
+		flush();
+		fbIds.clear();
+		return count;
+	}
+
+	private long joinPartitioned(int partitions, boolean buildFreebase)
+			throws IOException {
+		System.out.println("Hash join partitions:\t" + partitions
+				+ (buildFreebase ? " (Freebase built)" : ""));
+		File dir = new File(GlobalParameters.PATH_INDEX_TMP);
+		dir.mkdirs();
+		dir = Files.createTempDirectory(dir.toPath(), "join-").toFile();
+		File[] wdFiles = new File[partitions];
+		File[] fbFiles = new File[partitions];
+		DataOutputStream[] outs = new DataOutputStream[partitions];
+		long[] wdCounts = new long[partitions];
+		long[] fbCounts = new long[partitions];
+		for (int i = 0; i < partitions; i++) {
+			wdFiles[i] = new File(dir, "wd-" + i);
+			fbFiles[i] = new File(dir, "fb-" + i);
+		}
+		long count = 0;
+		try {
+			// 1. spill Wikidata
+			for (int i = 0; i < partitions; i++) {
+				outs[i] = open(wdFiles[i]);
+			}
+			try {
+				String[][] wdItems = wikidata.scanData(true);
+				while (wdItems != null) {
+					for (String[] wdItem : wdItems) {
+						if (wdItem[2] != null) {
+							long[] key = MD5SlotTable.parse(wdItem[2]);
+							int p = partition(key[1], partitions);
+							outs[p].writeLong(key[0]);
+							outs[p].writeLong(key[1]);
+							outs[p].writeLong(wdCoder.encode(wdItem[0]));
+							outs[p].writeInt(langOrdinal(LangSet
+									.language(wdItem[1])));
+							wdCounts[p]++;
+						}
+					}
+					wdItems = wikidata.scanData(false);
+				}
+			} finally {
+				close(outs);
+			}
+			// 2. spill Freebase
+			for (int i = 0; i < partitions; i++) {
+				outs[i] = open(fbFiles[i]);
+			}
+			try {
+				String[][] fbItems = freebase.scanData(true);
+				while (fbItems != null) {
+					for (String[] fbItem : fbItems) {
+						if (fbItem[2] != null) {
+							long[] key = MD5SlotTable.parse(fbItem[2]);
+							int p = partition(key[1], partitions);
+							outs[p].writeLong(key[0]);
+							outs[p].writeLong(key[1]);
+							outs[p].writeUTF(fbItem[0]);
+							fbCounts[p]++;
+						}
+					}
+					fbItems = freebase.scanData(false);
+				}
+			} finally {
+				close(outs);
+			}
+			// 3. join partition by partition
+			for (int i = 0; i < partitions; i++) {
+				if (buildFreebase) {
+					count += joinPartitionFreebase(fbFiles[i], fbCounts[i],
+							wdFiles[i], wdCounts[i]);
+				} else {
+					count += joinPartition(wdFiles[i], wdCounts[i],
+							fbFiles[i]);
+				}
+				wdFiles[i].delete();
+				fbFiles[i].delete();
+			}
+		} finally {
+			// the partitions left by a failure
+			for (int i = 0; i < partitions; i++) {
+				wdFiles[i].delete();
+				fbFiles[i].delete();
+			}
+			dir.delete();
+		}
+		return count;
+	}
+
+	private long joinPartition(File wdFile, long wdCount, File fbFile)
+			throws IOException {
+		MD5SlotTable table = table(wdCount);
+		DataInputStream in = openInput(wdFile);
+		try {
+			for (long j = 0; j < wdCount; j++) {
+				table.putIfAbsent(in.readLong(), in.readLong(), in.readLong(),
+						in.readInt());
+			}
+		} finally {
+			in.close();
+		}
+		long count = 0;
+		in = openInput(fbFile);
+		try {
+			while (true) {
+				long hi = in.readLong();
+				long lo = in.readLong();
+				count += probe(table, hi, lo, in.readUTF());
+			}
+		} catch (EOFException eofe) {
+			// end of partition
+		} finally {
+			in.close();
+		}
+		flush();
+		return count;
+	}
+
+	private long joinPartitionFreebase(File fbFile, long fbCount,
+			File wdFile, long wdCount) throws IOException {
+		MD5SlotTable table = table(fbCount);
+		DataInputStream in = openInput(fbFile);
+		try {
+			for (long j = 0; j < fbCount; j++) {
+				long hi = in.readLong();
+				long lo = in.readLong();
+				build(table, hi, lo, in.readUTF());
+			}
+		} finally {
+			in.close();
+		}
+		long count = 0;
+		in = openInput(wdFile);
+		try {
+			for (long j = 0; j < wdCount; j++) {
+				count += probeFreebase(table, in.readLong(), in.readLong(),
+						in.readLong(), in.readInt());
+			}
+		} finally {
+			in.close();
+		}
+		flush();
+		fbIds.clear();
+		return count;
+	}
+
+	private int probe(MD5SlotTable table, long hi, long lo, String fbId) {
+		int slot = table.get(hi, lo);
+		if (slot < 0) {
+			return 0;
+		}
+		pair(fbId, table.getValue(slot), table.getOrdinal(slot), hi, lo);
+		return 1;
+	}
+
+	/**
+	 * Chain a Freebase item to the slot of its MD5
+	 */
+	private void build(MD5SlotTable table, long hi, long lo, String fbId) {
+		int item = fbIds.size();
+		fbIds.add(fbId);
+		if (item == fbNext.length) {
+			fbNext = Arrays.copyOf(fbNext, item * 2);
+		}
+		int slot = table.get(hi, lo);
+		if (slot < 0) {
+			fbNext[item] = -1;
+			table.putIfAbsent(hi, lo, item, 0);
+		} else {
+			fbNext[item] = (int) table.getValue(slot);
+			table.setValue(slot, item);
+		}
+	}
+
+	/**
+	 * Pair the Freebase items of an MD5 with its first Wikidata item, the
+	 * next ones being skipped
+	 */
+	private int probeFreebase(MD5SlotTable table, long hi, long lo,
+			long wdValue, int lang) {
+		int slot = table.get(hi, lo);
+		if (slot < 0 || table.getOrdinal(slot) == PAIRED) {
+			return 0;
+		}
+		table.setOrdinal(slot, PAIRED);
+		int count = 0;
+		for (int item = (int) table.getValue(slot); item >= 0; item = fbNext[item]) {
+			pair(fbIds.get(item), wdValue, lang, hi, lo);
+			count++;
+		}
+		return count;
+	}
+
+	private void pair(String fbId, long wdValue, int lang, long hi, long lo) {
+		String[] saPair = new String[7];
+		saPair[0] = fbId;
+		saPair[3] = wdCoder.decode(wdValue);
+		saPair[5] = langs.get(lang);
+		saPair[6] = MD5SlotTable.format(hi, lo);
+		saPairs.add(saPair);
+		if (saPairs.size() >= GlobalParameters.BATCH_SIZE_MAX) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		if (!saPairs.isEmpty()) {
+			aggregator.insert(saPairs);
+			saPairs.clear();
+		}
+	}
+
+	private static int partition(long lo, int partitions) {
+		return (int) ((lo & Long.MAX_VALUE) % partitions);
+	}
+
+	private int langOrdinal(String lang) {
+		Integer ordinal = langOrdinals.get(lang);
+		if (ordinal == null) {
+			ordinal = langs.size();
+			langs.add(lang);
+			langOrdinals.put(lang, ordinal);
+		}
+		return ordinal;
+	}
+
+	private static DataOutputStream open(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+	}
+
+	private static DataInputStream openInput(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+	}
+
+	private static void close(DataOutputStream[] outs) throws IOException {
+		for (int i = 0; i < outs.length; i++) {
+			if (outs[i] != null) {
+				outs[i].close();
+				outs[i] = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,550 @@
+/**
+ * IncrementalRun.java
+ * Patches the results of an earlier run
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samsung.scrc.wsg.k.index.core.IndexSchema;
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.util.EntitySet;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Patches the results of an earlier run instead of recomputing them: the
+ * Freebase & Wikidata keys are diffed against the earlier ones by MD5, only the
+ * pairs of the entities whose keys changed are joined again, and the statistics
+ * matchers only decide again for the pairs connected to them
+ */
+public class IncrementalRun {
+	// SCHEMA directory of the earlier run
+	private String base;
+	// entities whose keys were added, removed or changed
+	private EntitySet affectedFB = new EntitySet();
+	private EntitySet affectedWD = new EntitySet();
+	// join pairs of the affected entities: Freebase id TAB Wikidata id ->
+	// language count
+	private Map<String, Integer> pairs = new HashMap<String, Integer>();
+	// and language set, if recorded
+	private Map<String, long[]> pairSets = new HashMap<String, long[]>();
+	// Freebase entities with a pair added, removed or changed
+	private EntitySet changedFB = new EntitySet();
+	// Wikidata entities whose decisions are taken again
+	private EntitySet rematchWD = new EntitySet();
+
+	/**
+	 * @param base
+	 *            SCHEMA directory of the earlier run
+	 */
+	public IncrementalRun(String base) {
+		this.base = base;
+	}
+
+	/**
+	 * @param path
+	 *            index of this run
+	 * @return the same index in the earlier run
+	 */
+	public String previous(String path) {
+		return path.replace(GlobalParameters.PATH_INDEX
+				+ GlobalParameters.SCHEMA + "/", GlobalParameters.PATH_INDEX
+				+ base + "/");
+	}
+
+	/**
+	 * @param matchers
+	 * @return whether the earlier run left every index patched by this one
+	 */
+	public boolean isAvailable(List<? extends Matcher> matchers) {
+		if (base.equals(GlobalParameters.SCHEMA)) {
+			System.err.println("Incremental base is the current schema:\t"
+					+ base);
+			return false;
+		}
+		List<String> paths = new ArrayList<String>(Arrays.asList(
+				GlobalParameters.PATH_INDEX_FB, GlobalParameters.PATH_INDEX_WD,
+				GlobalParameters.PATH_INDEX_SA_ORIGIN,
+				GlobalParameters.PATH_INDEX_STAT_SA));
+		for (Matcher matcher : matchers) {
+			if (matcher instanceof StatSAMatcher) {
+				paths.addAll(Arrays.asList(matcher.getOutputs()));
+			}
+		}
+		boolean available = true;
+		for (String path : paths) {
+			if (!new File(IndexStore.shard(previous(path), 0)).isDirectory()) {
+				System.err.println("Missing index of the incremental base:\t"
+						+ previous(path));
+				available = false;
+			}
+		}
+		return available;
+	}
+
+	/**
+	 * Items of a key index ordered by MD5, read one MD5 at a time. The
+	 * shards are read side by side, the items of an MD5 being all in the same
+	 * shard
+	 */
+	private static class KeyCursor {
+		private SASearcher[] searchers;
+		private String lower;
+		private String upper;
+		private String[][][] items;
+		private int[] next;
+		// shard of the next item, -1 once all are read
+		private int shard = -1;
+
+		private KeyCursor(String path, String lower, String upper) {
+			this.lower = lower;
+			this.upper = upper;
+			searchers = SASearcher.openShards(path);
+			items = new String[searchers.length][][];
+			next = new int[searchers.length];
+			for (int i = 0; i < searchers.length; i++) {
+				items[i] = searchers[i].fetchData(lower, upper, true);
+			}
+			seek();
+		}
+
+		private String md5(int shard) {
+			return items[shard] == null || next[shard] >= items[shard].length ? null
+					: items[shard][next[shard]][2];
+		}
+
+		/**
+		 * Find the shard of the lowest MD5
+		 */
+		private void seek() {
+			shard = -1;
+			for (int i = 0; i < searchers.length; i++) {
+				if (md5(i) != null
+						&& (shard < 0 || md5(i).compareToIgnoreCase(md5(shard)) < 0)) {
+					shard = i;
+				}
+			}
+		}
+
+		/**
+		 * @return MD5 of the next item, null once all are read
+		 */
+		private String md5() {
+			return shard < 0 ? null : md5(shard);
+		}
+
+		/**
+		 * @return URL of the next item
+		 */
+		private String url() {
+			return items[shard][next[shard]][1];
+		}
+
+		/**
+		 * @param md5
+		 * @return ids of the items of an MD5, read past them
+		 */
+		private List<String> group(String md5) {
+			List<String> ids = new ArrayList<String>();
+			while (md5() != null && md5().equalsIgnoreCase(md5)) {
+				ids.add(items[shard][next[shard]][0]);
+				next[shard]++;
+				if (next[shard] >= items[shard].length) {
+					items[shard] = searchers[shard].fetchData(lower, upper,
+							false);
+					next[shard] = 0;
+				}
+				seek();
+			}
+			return ids;
+		}
+
+		private void close() {
+			for (SASearcher searcher : searchers) {
+				searcher.close();
+			}
+		}
+	}
+
+	/**
+	 * Find the entities whose keys changed since the earlier run, each side
+	 * and MD5 range by a worker of its own
+	 */
+	public void diff() {
+		final int ranges = GlobalParameters.JOIN_RANGES;
+		ShardExecutor.run(2 * ranges, new ShardTask() {
+			@Override
+			public void process(int task) {
+				boolean fb = task < ranges;
+				String path = fb ? GlobalParameters.PATH_INDEX_FB
+						: GlobalParameters.PATH_INDEX_WD;
+				int range = task % ranges;
+				diff(previous(path), path,
+						FullMatcher.md5Bound(range, ranges),
+						FullMatcher.md5Bound(range + 1, ranges),
+						fb ? affectedFB : affectedWD, !fb);
+			}
+		});
+		System.out.println("Entities with changed keys:\tFreebase "
+				+ affectedFB.size() + ", Wikidata " + affectedWD.size());
+	}
+
+	/**
+	 * Merge the earlier & current items whose MD5 fall in [lower, upper): an
+	 * id found with an MD5 in only one of them is affected. The Freebase items
+	 * of an MD5 are only paired with its first Wikidata item, so the earlier
+	 * & current first items of an MD5 are affected when they differ
+	 * 
+	 * @param first
+	 *            whether only the first item of an MD5 is paired
+	 */
+	private static void diff(String previousPath, String path, String lower,
+			String upper, EntitySet affected, boolean first) {
+		KeyCursor before = new KeyCursor(previousPath, lower, upper);
+		KeyCursor after = new KeyCursor(path, lower, upper);
+		while (before.md5() != null || after.md5() != null) {
+			String md5 = before.md5();
+			if (md5 == null
+					|| (after.md5() != null && after.md5()
+							.compareToIgnoreCase(md5) < 0)) {
+				md5 = after.md5();
+			}
+			List<String> beforeGroup = before.group(md5);
+			List<String> afterGroup = after.group(md5);
+			if (first && !beforeGroup.isEmpty() && !afterGroup.isEmpty()
+					&& !beforeGroup.get(0).equals(afterGroup.get(0))) {
+				affected.add(beforeGroup.get(0));
+				affected.add(afterGroup.get(0));
+			}
+			Set<String> beforeIds = new HashSet<String>(beforeGroup);
+			Set<String> afterIds = new HashSet<String>(afterGroup);
+			for (String id : beforeIds) {
+				if (!afterIds.contains(id)) {
+					affected.add(id);
+				}
+			}
+			for (String id : afterIds) {
+				if (!beforeIds.contains(id)) {
+					affected.add(id);
+				}
+			}
+		}
+		before.close();
+		after.close();
+	}
+
+	/**
+	 * Join again the pairs of the affected entities, and write the join
+	 * result: the earlier pairs without affected entity, then the new ones
+	 */
+	public void patchOrigin() {
+		final int ranges = GlobalParameters.JOIN_RANGES;
+		ShardExecutor.run(ranges, new ShardTask() {
+			@Override
+			public void process(int range) {
+				join(FullMatcher.md5Bound(range, ranges),
+						FullMatcher.md5Bound(range + 1, ranges));
+			}
+		});
+		final SAWriter writer = new SAWriter(
+				GlobalParameters.PATH_INDEX_SA_ORIGIN);
+		final String previous = previous(GlobalParameters.PATH_INDEX_SA_ORIGIN);
+		final AtomicLong kept = new AtomicLong();
+		ShardExecutor.run(SASearcher.shards(previous), new ShardTask() {
+			@Override
+			public void process(int shard) {
+				SASearcher searcher = new SASearcher(previous, shard);
+				List<String[]> rows = new ArrayList<String[]>();
+				String[][] items = searcher.fetchPairsWithCount(true);
+				while (items != null && items.length != 0) {
+					for (String[] item : items) {
+						if (affectedFB.contains(item[0])
+								|| affectedWD.contains(item[1])) {
+							// joined again if it still holds
+							changedFB.add(item[0]);
+							rematchWD.add(item[1]);
+						} else {
+							rows.add(item);
+						}
+					}
+					writer.insert(rows);
+					kept.addAndGet(rows.size());
+					rows.clear();
+					items = searcher.fetchPairsWithCount(false);
+				}
+				searcher.close();
+			}
+		});
+		List<String[]> rows = new ArrayList<String[]>();
+		for (Map.Entry<String, Integer> pair : pairs.entrySet()) {
+			String[] ids = pair.getKey().split("\t");
+			String[] row = { ids[0], ids[1], String.valueOf(pair.getValue()),
+					langSet(pair.getKey()) };
+			rows.add(row);
+			changedFB.add(ids[0]);
+		}
+		writer.insert(rows);
+		writer.close();
+		System.out.println("Patched SA pairs count:\t" + kept.get()
+				+ " kept, " + rows.size() + " joined again");
+	}
+
+	/**
+	 * Merge the current items whose MD5 fall in [lower, upper), keeping the
+	 * pairs with an affected entity
+	 */
+	private void join(String lower, String upper) {
+		Map<String, Integer> found = new HashMap<String, Integer>();
+		Map<String, long[]> foundSets = new HashMap<String, long[]>();
+		KeyCursor fb = new KeyCursor(GlobalParameters.PATH_INDEX_FB, lower,
+				upper);
+		KeyCursor wd = new KeyCursor(GlobalParameters.PATH_INDEX_WD, lower,
+				upper);
+		while (fb.md5() != null && wd.md5() != null) {
+			int compValue = fb.md5().compareToIgnoreCase(wd.md5());
+			if (compValue < 0) {
+				fb.group(fb.md5());
+			} else if (compValue > 0) {
+				wd.group(wd.md5());
+			} else {
+				String md5 = fb.md5();
+				int bit = LangSet.bit(LangSet.language(wd.url()));
+				List<String> fbIds = fb.group(md5);
+				// like the full join, the first Wikidata item of the MD5 only
+				String wdId = wd.group(md5).get(0);
+				for (String fbId : fbIds) {
+					if (affectedFB.contains(fbId) || affectedWD.contains(wdId)) {
+						String pair = fbId + "\t" + wdId;
+						Integer count = found.get(pair);
+						found.put(pair, count == null ? 1 : count + 1);
+						if (GlobalParameters.LANG_SETS) {
+							long[] set = foundSets.get(pair);
+							if (set == null) {
+								set = LangSet.create();
+								foundSets.put(pair, set);
+							}
+							LangSet.add(set, bit);
+						}
+					}
+				}
+			}
+		}
+		fb.close();
+		wd.close();
+		synchronized (pairs) {
+			for (Map.Entry<String, Integer> pair : found.entrySet()) {
+				Integer count = pairs.get(pair.getKey());
+				pairs.put(pair.getKey(), count == null ? pair.getValue()
+						: count + pair.getValue());
+			}
+			for (Map.Entry<String, long[]> pair : foundSets.entrySet()) {
+				long[] set = pairSets.get(pair.getKey());
+				if (set == null) {
+					pairSets.put(pair.getKey(), pair.getValue());
+				} else {
+					LangSet.or(set, pair.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param pair
+	 *            Freebase id TAB Wikidata id
+	 * @return the hex of the language set of a pair joined again, null if
+	 *         sets are not recorded
+	 */
+	private String langSet(String pair) {
+		if (!GlobalParameters.LANG_SETS) {
+			return null;
+		}
+		long[] set = pairSets.get(pair);
+		return LangSet.toHex(set == null ? LangSet.create() : set);
+	}
+
+	/**
+	 * Write the sameAs statistics: the earlier records without affected
+	 * entity, then the new pairs with the entity counts (& sets) of this run
+	 */
+	public void patchStatSA() {
+		final SAWriter writer = new SAWriter(
+				GlobalParameters.PATH_INDEX_STAT_SA);
+		final String previous = previous(GlobalParameters.PATH_INDEX_STAT_SA);
+		ShardExecutor.run(SASearcher.shards(previous), new ShardTask() {
+			@Override
+			public void process(int shard) {
+				SASearcher searcher = new SASearcher(previous, shard);
+				List<String[]> rows = new ArrayList<String[]>();
+				String[][] items = searcher.fetchStatSAPairs(true);
+				while (items != null && items.length != 0) {
+					for (String[] item : items) {
+						if (!affectedFB.contains(item[0])
+								&& !affectedWD.contains(item[1])) {
+							rows.add(item);
+						}
+					}
+					writer.insert(rows);
+					rows.clear();
+					items = searcher.fetchStatSAPairs(false);
+				}
+				searcher.close();
+			}
+		});
+		// entity counts are looked up in the shard of their id
+		SASearcher[] fbCounts = SASearcher
+				.openShards(GlobalParameters.PATH_INDEX_STAT_FB);
+		SASearcher[] wdCounts = SASearcher
+				.openShards(GlobalParameters.PATH_INDEX_STAT_WD);
+		List<String[]> rows = new ArrayList<String[]>();
+		for (Map.Entry<String, Integer> pair : pairs.entrySet()) {
+			String[] ids = pair.getKey().split("\t");
+			SASearcher fbCount = fbCounts[IndexSchema.shardOf(ids[0],
+					fbCounts.length)];
+			SASearcher wdCount = wdCounts[IndexSchema.shardOf(ids[1],
+					wdCounts.length)];
+			String[] row = { ids[0], ids[1], String.valueOf(pair.getValue()),
+					fbCount.fetchLangCount(ids[0]),
+					wdCount.fetchLangCount(ids[1]), langSet(pair.getKey()),
+					null, null };
+			if (GlobalParameters.LANG_SETS) {
+				row[6] = fbCount.fetchLangSet(ids[0]);
+				row[7] = wdCount.fetchLangSet(ids[1]);
+			}
+			rows.add(row);
+		}
+		for (SASearcher searcher : fbCounts) {
+			searcher.close();
+		}
+		for (SASearcher searcher : wdCounts) {
+			searcher.close();
+		}
+		writer.insert(rows);
+		writer.close();
+	}
+
+	/**
+	 * Take again the decisions of the statistics matchers that may have
+	 * changed, and patch their results. The decision of a pair only depends
+	 * on the pairs of its Wikidata entity and of their Freebase entities: it
+	 * is taken again for the Wikidata entities of a pair of a changed
+	 * Freebase entity, reading every pair of the Freebase entities paired
+	 * with them
+	 *
+	 * @param matchers
+	 */
+	public void rematch(List<? extends StatSAMatcher> matchers) {
+		collect(changedFB, StatSAScan.ID_FB, rematchWD, StatSAScan.ID_WD);
+		EntitySet rematchFB = new EntitySet();
+		collect(rematchWD, StatSAScan.ID_WD, rematchFB, StatSAScan.ID_FB);
+		System.out.println("Entities matched again:\tFreebase "
+				+ rematchFB.size() + ", Wikidata " + rematchWD.size());
+		StatSAScan.run(matchers, rematchFB);
+		for (StatSAMatcher matcher : matchers) {
+			List<String> outputs = new ArrayList<String>(Arrays.asList(matcher
+					.getOutputs()));
+			outputs.remove(matcher.getScanOutput());
+			if (!outputs.isEmpty()) {
+				matcher.init();
+				matcher.matchAfterScan();
+				matcher.close();
+			}
+			for (String output : matcher.getOutputs()) {
+				patch(output);
+			}
+		}
+	}
+
+	/**
+	 * Add to a set the entities of a column paired with the entities of
+	 * another column
+	 */
+	private static void collect(final EntitySet from, final int fromColumn,
+			final EntitySet to, final int toColumn) {
+		ShardExecutor.run(
+				SASearcher.shards(GlobalParameters.PATH_INDEX_STAT_SA),
+				new ShardTask() {
+					@Override
+					public void process(int shard) {
+						SASearcher searcher = new SASearcher(
+								GlobalParameters.PATH_INDEX_STAT_SA, shard);
+						RecordBatch batch = SASearcher.statSABatch();
+						boolean more = searcher.fetchStatSAPairs(batch, true);
+						while (more) {
+							for (int row = 0; row < batch.size(); row++) {
+								if (StatSAScan.contains(from, batch,
+										fromColumn, row)) {
+									to.add(batch.getIdString(toColumn, row));
+								}
+							}
+							more = searcher.fetchStatSAPairs(batch, false);
+						}
+						searcher.close();
+					}
+				});
+	}
+
+	/**
+	 * Write a result: the earlier pairs of the Wikidata entities not matched
+	 * again, then the pairs matched again. The other pairs just written lack
+	 * some of the records they were decided on
+	 *
+	 * @param path
+	 */
+	private void patch(String path) {
+		List<String[]> rematched = new ArrayList<String[]>();
+		for (int shard = 0; shard < SASearcher.shards(path); shard++) {
+			SASearcher searcher = new SASearcher(path, shard);
+			String[][] items = searcher.fetchPairs(true);
+			while (items != null && items.length != 0) {
+				for (String[] item : items) {
+					if (rematchWD.contains(item[1])) {
+						rematched.add(item);
+					}
+				}
+				items = searcher.fetchPairs(false);
+			}
+			searcher.close();
+		}
+		final SAWriter writer = new SAWriter(path);
+		final String previous = previous(path);
+		final AtomicLong kept = new AtomicLong();
+		ShardExecutor.run(SASearcher.shards(previous), new ShardTask() {
+			@Override
+			public void process(int shard) {
+				SASearcher searcher = new SASearcher(previous, shard);
+				List<String[]> rows = new ArrayList<String[]>();
+				String[][] items = searcher.fetchPairs(true);
+				while (items != null && items.length != 0) {
+					for (String[] item : items) {
+						if (!rematchWD.contains(item[1])) {
+							rows.add(item);
+						}
+					}
+					writer.insert(rows);
+					kept.addAndGet(rows.size());
+					rows.clear();
+					items = searcher.fetchPairs(false);
+				}
+				searcher.close();
+			}
+		});
+		writer.insert(rematched);
+		writer.close();
+		System.out.println("Patched " + new File(path).getName() + ":\t"
+				+ kept.get() + " kept, " + rematched.size() + " matched again");
+	}
+}
@@ -6,7 +6,6 @@ package com.samsung.scrc.wsg.k.sa.matcher;
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
-import com.samsung.scrc.wsg.k.sa.core.SASearcher;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -17,18 +16,33 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  */
 public abstract class Matcher {
 //	protected static Logger log = LogManager.getLogger(Matcher.class.getName());
-	protected SASearcher freebase;
-	protected SASearcher wikidata;
 
+	/**
+	 * Nothing is opened up front: the matchers read their inputs shard by
+	 * shard, with searchers of their own
+	 */
 	public void init() {
-		freebase = new SASearcher(GlobalParameters.PATH_INDEX_FB);
-		wikidata = new SASearcher(GlobalParameters.PATH_INDEX_WD);
 	}
 
+	/**
+	 * Index paths the matcher reads, the sameAs statistics unless overridden
+	 * 
+	 * @return
+	 */
+	public String[] getInputs() {
+		String[] inputs = { GlobalParameters.PATH_INDEX_STAT_SA };
+		return inputs;
+	}
+
+	/**
+	 * Index paths of the results the matcher writes
+	 * 
+	 * @return
+	 */
+	public abstract String[] getOutputs();
+
 	public abstract void match();
 
 	public void close() {
-		freebase.close();
-		wikidata.close();
 	}
 }
@@ -6,8 +6,7 @@ package com.samsung.scrc.wsg.k.sa.matcher;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.samsung.scrc.wsg.k.sa.core.SASearcher;
-import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -16,120 +15,114 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  * @date Mar 19, 2015
  * 
  */
-public class MaxConfMatcher extends Matcher {
+public class MaxConfMatcher extends StatSAMatcher {
 
-	protected void coreFB(String searchIndex, String writeIndex) {
-		SASearcher saSearcher = new SASearcher(searchIndex);
-		SAWriter mcrWriter = new SAWriter(writeIndex);
-		List<String[]> mcrPairs = new ArrayList<String[]>();
-		String[][] pairLangs = saSearcher.fetchPairLangFB(true);
-		if (pairLangs != null && pairLangs.length != 0) {
-			int i = 0;
-			String currFB = pairLangs[i][0];
-			List<String> currWD = new ArrayList<String>();
-			currWD.add(pairLangs[i][1]);
-			int currMax = Integer.valueOf(pairLangs[i][2]);
-			i++;
-			while (pairLangs != null && pairLangs.length != 0) {
-				while (i < pairLangs.length) {
-					if (pairLangs[i][0].equalsIgnoreCase(currFB)) {
-						if (Integer.valueOf(pairLangs[i][2]) > currMax) {
-							currMax = Integer.valueOf(pairLangs[i][2]);
-							currWD.clear();
-							currWD.add(pairLangs[i][1]);
-						} else if (Integer.valueOf(pairLangs[i][2]) == currMax) {
-							currWD.add(pairLangs[i][1]);
-						}
-					} else {
-						for (String wd : currWD) {
-							String[] mcrPair = { currFB, wd,
-									String.valueOf(currMax) };
-							mcrPairs.add(mcrPair);
-						}
-						currFB = pairLangs[i][0];
-						currWD.clear();
-						currWD.add(pairLangs[i][1]);
-						currMax = Integer.valueOf(pairLangs[i][2]);
-					}
-					i++;
-				}
-				mcrWriter.insertMCRaw(mcrPairs);
-				mcrPairs.clear();
-				pairLangs = saSearcher.fetchPairLangFB(false);
-				i = 0;
+	/**
+	 * Keeps the pairs of a group (ID_FB, ID_WD, counted by their language
+	 * count) with the max language count, ties included
+	 */
+	protected static final GroupBy.CountReducer MAX_COUNT = new GroupBy.CountReducer() {
+		@Override
+		public void reduce(List<String[]> group, int[] counts,
+				GroupBy.Emitter out) {
+			int max = 0;
+			for (int i = 0; i < group.size(); i++) {
+				max = Math.max(max, counts[i]);
 			}
-			for (String wd : currWD) {
-				String[] mcrPair = { currFB, wd, String.valueOf(currMax) };
-				mcrPairs.add(mcrPair);
+			for (int i = 0; i < group.size(); i++) {
+				if (counts[i] == max) {
+					out.emit(group.get(i));
+				}
 			}
-			mcrWriter.insertMCRaw(mcrPairs);
 		}
-		saSearcher.close();
-		mcrWriter.close();
+	};
+
+	// pairs of max count per Freebase entity, to be reduced per Wikidata
+	// entity
+	protected GroupBy.Regroup byWD;
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_MC };
+		return outputs;
+	}
+
+	@Override
+	public String getScanOutput() {
+		// the candidates per Wikidata entity stay in memory
+		return null;
+	}
+
+	@Override
+	public boolean isGrouped() {
+		return true;
 	}
 
-	protected void coreWD(String searchIndex, String writeIndex) {
-		SASearcher saSearcher = new SASearcher(searchIndex);
-		SAWriter mcrWriter = new SAWriter(writeIndex);
-		List<String[]> mcrPairs = new ArrayList<String[]>();
+	@Override
+	public void beginScan() {
+		byWD = new GroupBy.Regroup(1, getClass().getSimpleName(), true);
+	}
+
+	/**
+	 * Keeps, per Freebase entity, the pairs with the max language count. The
+	 * records come in ID_FB order; only the candidates of the current max
+	 * are turned into strings
+	 */
+	protected class MaxFBSink implements StatSAScan.Sink {
+		private long currCode = -1;
+		private String currFB = null;
+		private List<String> currWD = new ArrayList<String>();
+		private int currMax = 0;
 
-		String[][] pairLangs = saSearcher.fetchPairLangWD(true);
-		if (pairLangs != null && pairLangs.length != 0) {
-			int i = 0;
-			String currWD = pairLangs[i][0];
-			List<String> currFB = new ArrayList<String>();
-			currFB.add(pairLangs[i][1]);
-			int currMax = Integer.valueOf(pairLangs[i][2]);
-			i++;
-			while (pairLangs != null && pairLangs.length != 0) {
-				while (i < pairLangs.length) {
-					if (pairLangs[i][0].equalsIgnoreCase(currWD)) {
-						if (Integer.valueOf(pairLangs[i][2]) > currMax) {
-							currMax = Integer.valueOf(pairLangs[i][2]);
-							currFB.clear();
-							currFB.add(pairLangs[i][1]);
-						} else if (Integer.valueOf(pairLangs[i][2]) == currMax) {
-							currFB.add(pairLangs[i][1]);
-						}
-					} else {
-						for (String fb : currFB) {
-							String[] mcrPair = { fb, currWD,
-									String.valueOf(currMax) };
-							mcrPairs.add(mcrPair);
-						}
-						currWD = pairLangs[i][0];
-						currFB.clear();
-						currFB.add(pairLangs[i][1]);
-						currMax = Integer.valueOf(pairLangs[i][2]);
-					}
-					i++;
+		@Override
+		public void accept(RecordBatch batch, int row) {
+			int count = batch.getCount(StatSAScan.LANG_COUNT, row);
+			if (currFB != null
+					&& batch.isId(StatSAScan.ID_FB, row, currCode, currFB)) {
+				if (count > currMax) {
+					currMax = count;
+					currWD.clear();
 				}
-				mcrWriter.insertMCRaw(mcrPairs);
-				mcrPairs.clear();
-				pairLangs = saSearcher.fetchPairLangWD(false);
-				i = 0;
+				if (count == currMax) {
+					currWD.add(batch.getIdString(StatSAScan.ID_WD, row));
+				}
+			} else {
+				emitGroup();
+				currCode = batch.getId(StatSAScan.ID_FB, row);
+				currFB = batch.getIdString(StatSAScan.ID_FB, row);
+				currWD.clear();
+				currWD.add(batch.getIdString(StatSAScan.ID_WD, row));
+				currMax = count;
 			}
-			for (String fb : currFB) {
-				String[] mcrPair = { fb, currWD, String.valueOf(currMax) };
-				mcrPairs.add(mcrPair);
+		}
+
+		private void emitGroup() {
+			for (String wd : currWD) {
+				String[] mcrPair = { currFB, wd };
+				byWD.emit(mcrPair, currMax);
 			}
-			mcrWriter.insertMCRaw(mcrPairs);
 		}
-		saSearcher.close();
-		mcrWriter.close();
+
+		@Override
+		public void close() {
+			emitGroup();
+			currWD.clear();
+		}
+	}
+
+	@Override
+	public StatSAScan.Sink sink() {
+		return new MaxFBSink();
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.samsung.scrc.wsg.k.sa.core.Matcher#match()
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.StatSAMatcher#matchAfterScan()
 	 */
 	@Override
-	public void match() {
-		// TODO Auto-generated method stub
-		coreFB(GlobalParameters.PATH_INDEX_STAT_SA,
-				GlobalParameters.PATH_INDEX_SA_MC_RAW);
-		coreWD(GlobalParameters.PATH_INDEX_SA_MC_RAW,
-				GlobalParameters.PATH_INDEX_SA_MC);
+	public void matchAfterScan() {
+		byWD.reduce(MAX_COUNT, getOutputs()[0]);
+		byWD = null;
 	}
 }
@@ -3,11 +3,11 @@
  */
 package com.samsung.scrc.wsg.k.sa.matcher;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import com.samsung.scrc.wsg.k.sa.core.SASearcher;
-import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -18,78 +18,69 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  */
 public class One2OneMatcher extends Matcher {
 
-	private void coreFB() {
-		SASearcher searcher = new SASearcher(
-				GlobalParameters.PATH_INDEX_SA_THRESHOLD);
-		SAWriter writer = new SAWriter(
-				GlobalParameters.PATH_INDEX_SA_ONE_ONLY_RAW);
-		String[][] pairs = searcher.fetchPairsFBSorted(true);
-		List<String[]> items = new ArrayList<String[]>();
-		String lastFB = null;
-		String lastWD = null;
-		int currCount = 0;
-		while (pairs != null && pairs.length != 0) {
-			for (int i = 0; i < pairs.length; i++) {
-				if (pairs[i][0].equalsIgnoreCase(lastFB)) {
-					currCount++;
-				} else {
-					if (currCount == 1) {
-						String[] currPair = { lastFB, lastWD };
-						items.add(currPair);
-					}
-					lastFB = pairs[i][0];
-					lastWD = pairs[i][1];
-					currCount = 1;
-				}
+	/**
+	 * Keeps the pair of a group with a single candidate
+	 */
+	private static final GroupBy.Reducer SINGLE = new GroupBy.Reducer() {
+		@Override
+		public void reduce(List<String[]> group, GroupBy.Emitter out) {
+			if (group.size() == 1) {
+				String[] pair = { group.get(0)[0], group.get(0)[1] };
+				out.emit(pair);
 			}
-			writer.insertSAPairs(items);
-			items.clear();
-			pairs = searcher.fetchPairsFBSorted(false);
-		}
-		if (currCount == 1) {
-			String[] currPair = { lastFB, lastWD };
-			items.add(currPair);
 		}
-		writer.insertSAPairs(items);
-		searcher.close();
-		writer.close();
+	};
+
+	/**
+	 * Keep the pairs whose Freebase entity has a single candidate. The source
+	 * index is sharded by the Freebase id
+	 * 
+	 * @param byWD
+	 *            the pairs kept
+	 */
+	private void coreFB(final GroupBy.Regroup byWD) {
+		ShardExecutor.run(
+				SASearcher.shards(GlobalParameters.PATH_INDEX_SA_THRESHOLD),
+				new ShardTask() {
+					@Override
+					public void process(int shard) {
+						SASearcher searcher = new SASearcher(
+								GlobalParameters.PATH_INDEX_SA_THRESHOLD,
+								shard);
+						GroupBy.Operator singleFB = new GroupBy.Operator(0,
+								SINGLE, byWD);
+						String[][] pairs = searcher.fetchPairsFBSorted(true);
+						while (pairs != null && pairs.length != 0) {
+							for (String[] pair : pairs) {
+								singleFB.emit(pair);
+							}
+							pairs = searcher.fetchPairsFBSorted(false);
+						}
+						singleFB.close();
+						searcher.close();
+					}
+				});
+	}
+
+	/**
+	 * Keep the pairs whose Wikidata entity has a single candidate
+	 * 
+	 * @param byWD
+	 */
+	private void coreWD(GroupBy.Regroup byWD) {
+		byWD.reduce(SINGLE, GlobalParameters.PATH_INDEX_SA_ONE_ONLY);
 	}
 
-	private void coreWD() {
-		SASearcher searcher = new SASearcher(
-				GlobalParameters.PATH_INDEX_SA_ONE_ONLY_RAW);
-		SAWriter writer = new SAWriter(GlobalParameters.PATH_INDEX_SA_ONE_ONLY);
-		String[][] pairs = searcher.fetchPairsWDSorted(true);
-		List<String[]> items = new ArrayList<String[]>();
+	@Override
+	public String[] getInputs() {
+		String[] inputs = { GlobalParameters.PATH_INDEX_SA_THRESHOLD };
+		return inputs;
+	}
 
-		String lastFB = null;
-		String lastWD = null;
-		int currCount = 0;
-		while (pairs != null && pairs.length != 0) {
-			for (int i = 0; i < pairs.length; i++) {
-				if (pairs[i][1].equalsIgnoreCase(lastWD)) {
-					currCount++;
-				} else {
-					if (currCount == 1) {
-						String[] currPair = { lastFB, lastWD };
-						items.add(currPair);
-					}
-					lastFB = pairs[i][0];
-					lastWD = pairs[i][1];
-					currCount = 1;
-				}
-			}
-			writer.insertSAPairs(items);
-			items.clear();
-			pairs = searcher.fetchPairsWDSorted(false);
-		}
-		if (currCount == 1) {
-			String[] currPair = { lastFB, lastWD };
-			items.add(currPair);
-		}
-		writer.insertSAPairs(items);
-		searcher.close();
-		writer.close();
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_ONE_ONLY };
+		return outputs;
 	}
 
 	/*
@@ -99,9 +90,9 @@ public class One2OneMatcher extends Matcher {
 	 */
 	@Override
 	public void match() {
-		// TODO Auto-generated method stub
-		coreFB();
-		coreWD();
+		GroupBy.Regroup byWD = new GroupBy.Regroup(1, "One2OneMatcher");
+		coreFB(byWD);
+		coreWD(byWD);
 	}
 
 }
@@ -0,0 +1,109 @@
+/**
+ * OverlapMatcher.java
+ * Decides a pair by the overlap of the languages of its entities
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Decides a pair from the languages of its entities instead of their counts:
+ * the languages the pair is linked in, out of the union of the languages of
+ * both entities (Jaccard) or out of those of the smaller one (overlap), every
+ * size being a popcount of LangSet words
+ */
+public class OverlapMatcher extends StatSAMatcher {
+	public static final String MEASURE_JACCARD = "jaccard";
+	public static final String MEASURE_OVERLAP = "overlap";
+
+	private SAWriter writer;
+	private boolean jaccard;
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_OVERLAP };
+		return outputs;
+	}
+
+	@Override
+	public String getScanOutput() {
+		return GlobalParameters.PATH_INDEX_SA_OVERLAP;
+	}
+
+	@Override
+	public boolean readsLangSets() {
+		return true;
+	}
+
+	@Override
+	public void beginScan() {
+		if (!GlobalParameters.LANG_SETS) {
+			System.err.println("Language sets are not recorded ("
+					+ GlobalParameters.PROP_LANG_SETS
+					+ "), the overlap matcher keeps no pair");
+		}
+		if (!MEASURE_OVERLAP.equalsIgnoreCase(GlobalParameters.OVERLAP_MEASURE)
+				&& !MEASURE_JACCARD
+						.equalsIgnoreCase(GlobalParameters.OVERLAP_MEASURE)) {
+			System.err.println("Unknown overlap measure, "
+					+ MEASURE_JACCARD + " used:\t"
+					+ GlobalParameters.OVERLAP_MEASURE);
+		}
+		jaccard = !MEASURE_OVERLAP
+				.equalsIgnoreCase(GlobalParameters.OVERLAP_MEASURE);
+		writer = new SAWriter(GlobalParameters.PATH_INDEX_SA_OVERLAP);
+	}
+
+	/**
+	 * Keeps the pairs whose score reaches the overlap threshold
+	 */
+	@Override
+	public StatSAScan.Sink sink() {
+		return new StatSAScan.WriterSink(writer) {
+			@Override
+			public void accept(RecordBatch batch, int row) {
+				int shared = batch.getSetSize(StatSAScan.LANG_SET, row);
+				if (shared == 0) {
+					return;
+				}
+				int of;
+				if (jaccard) {
+					of = 0;
+					for (int i = 0; i < LangSet.WORDS; i++) {
+						of += Long.bitCount(batch.getSetWord(
+								StatSAScan.LANG_SET_FB, row, i)
+								| batch.getSetWord(StatSAScan.LANG_SET_WD, row,
+										i));
+					}
+				} else {
+					of = Math.min(
+							batch.getSetSize(StatSAScan.LANG_SET_FB, row),
+							batch.getSetSize(StatSAScan.LANG_SET_WD, row));
+				}
+				if (shared >= GlobalParameters.OVERLAP_THRESHOLD * of) {
+					String[] mp = { batch.getIdString(StatSAScan.ID_FB, row),
+							batch.getIdString(StatSAScan.ID_WD, row) };
+					emit(mp);
+				}
+			}
+		};
+	}
+
+	@Override
+	public void endScan() {
+		writer.close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.StatSAMatcher#matchAfterScan()
+	 */
+	@Override
+	public void matchAfterScan() {
+		// the scan writes the result
+	}
+}
@@ -0,0 +1,417 @@
+/**
+ * PairAggregator.java
+ * Groups the matches leaving the join by sameAs pair
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.util.EntityCoder;
+import com.samsung.scrc.wsg.k.util.ExternalSorter;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.util.LongPairIntHashMap;
+import com.samsung.scrc.wsg.k.util.MemoryBudget;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Groups the matches of the Freebase & Wikidata join by (Freebase id,
+ * Wikidata id) and counts their languages (and records their set, if asked),
+ * so every distinct sameAs pair is written once with its language count
+ * instead of going through a raw relation index.
+ * <p>
+ * Every worker thread counts into a table of its own, so the join workers
+ * share no lock. A table over its part of the memory budget, shared with the
+ * other stages running, is spilled into sorted runs. The tables are merged
+ * when the pairs are written: in memory if none was spilled and they fit the
+ * budget together, otherwise by merging the runs of every table, the partial
+ * counts of a pair being summed
+ */
+public class PairAggregator {
+	private static final int WIDE = Integer.MIN_VALUE;
+
+	/**
+	 * Pairs counted by one worker
+	 */
+	private class Table {
+		private LongPairIntHashMap pairs = new LongPairIntHashMap();
+		// languages 0..30 of a pair, or WIDE if its set is in wideLangs; null
+		// unless GlobalParameters.LANG_SETS
+		private LongPairIntHashMap langs = null;
+		private Map<String, long[]> wideLangs = new HashMap<String, long[]>();
+		private int index;
+		private ExternalSorter sorter = null;
+
+		private Table(int index) {
+			this.index = index;
+			if (GlobalParameters.LANG_SETS) {
+				langs = new LongPairIntHashMap();
+			}
+		}
+
+		private void insert(List<String[]> saPairs) {
+			for (String[] saPair : saPairs) {
+				long fb = coder.encode(saPair[0]);
+				long wd = coder.encode(saPair[3]);
+				pairs.addTo(fb, wd, 1);
+				if (langs != null) {
+					addLang(fb, wd, LangSet.bit(saPair[5]));
+				}
+			}
+			if (bytes() > budget.bytes()) {
+				try {
+					spill();
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			}
+		}
+
+		private long bytes() {
+			return pairs.bytes() + (langs == null ? 0 : langs.bytes());
+		}
+
+		private void addLang(long fb, long wd, int bit) {
+			if (bit < 0) {
+				return;
+			}
+			int bits = langs.get(fb, wd, 0);
+			if (bits == WIDE) {
+				LangSet.add(wideLangs.get(fb + "\t" + wd), bit);
+			} else if (bit < 31) {
+				langs.put(fb, wd, bits | 1 << bit);
+			} else {
+				long[] set = LangSet.create();
+				set[0] = bits;
+				LangSet.add(set, bit);
+				wideLangs.put(fb + "\t" + wd, set);
+				langs.put(fb, wd, WIDE);
+			}
+		}
+
+		/**
+		 * Add the languages of a set to those of a pair
+		 */
+		private void addLangs(long fb, long wd, long[] set) {
+			int bits = langs.get(fb, wd, 0);
+			if (bits == WIDE) {
+				LangSet.or(wideLangs.get(fb + "\t" + wd), set);
+				return;
+			}
+			boolean narrow = set[0] >>> 31 == 0;
+			for (int i = 1; i < set.length; i++) {
+				narrow &= set[i] == 0;
+			}
+			if (narrow) {
+				langs.put(fb, wd, bits | (int) set[0]);
+			} else {
+				long[] wide = LangSet.create();
+				wide[0] = bits;
+				LangSet.or(wide, set);
+				wideLangs.put(fb + "\t" + wd, wide);
+				langs.put(fb, wd, WIDE);
+			}
+		}
+
+		/**
+		 * @param fb
+		 * @param wd
+		 * @return the language set of a pair
+		 */
+		private long[] langs(long fb, long wd) {
+			int bits = langs.get(fb, wd, 0);
+			if (bits == WIDE) {
+				return wideLangs.get(fb + "\t" + wd);
+			}
+			long[] set = LangSet.create();
+			set[0] = bits;
+			return set;
+		}
+
+		/**
+		 * @return the hex of the language set of a pair, null if sets are not
+		 *         recorded
+		 */
+		private String langSet(long fb, long wd) {
+			return langs == null ? null : LangSet.toHex(langs(fb, wd));
+		}
+
+		/**
+		 * Add the pairs of another table to this one
+		 *
+		 * @param other
+		 */
+		private void fold(Table other) {
+			LongPairIntHashMap otherPairs = other.pairs;
+			for (int i = 0; i < otherPairs.capacity(); i++) {
+				if (otherPairs.isUsed(i)) {
+					long fb = otherPairs.firstAt(i);
+					long wd = otherPairs.secondAt(i);
+					pairs.addTo(fb, wd, otherPairs.valueAt(i));
+					if (langs != null) {
+						addLangs(fb, wd, other.langs(fb, wd));
+					}
+				}
+			}
+			other.drop();
+		}
+
+		private void spill() throws IOException {
+			if (sorter == null) {
+				ExternalSorter.KeyEncoder encoder = new ExternalSorter.KeyEncoder() {
+					@Override
+					public void encode(String[] record, byte[] key) {
+						ByteBuffer.wrap(key).putLong(Long.parseLong(record[0]))
+								.putLong(Long.parseLong(record[1]));
+					}
+				};
+				File dir = new File(GlobalParameters.PATH_INDEX_TMP
+						+ "pairs/worker-" + index);
+				// the table is emptied right after, so the sorter may use
+				// the whole part of the budget
+				sorter = new ExternalSorter(dir, 16, encoder,
+						ExternalSorter.UNSIGNED, budget);
+			}
+			for (int i = 0; i < pairs.capacity(); i++) {
+				if (pairs.isUsed(i)) {
+					String[] record = { String.valueOf(pairs.firstAt(i)),
+							String.valueOf(pairs.secondAt(i)),
+							String.valueOf(pairs.valueAt(i)),
+							langSet(pairs.firstAt(i), pairs.secondAt(i)) };
+					sorter.add(record);
+				}
+			}
+			drop();
+		}
+
+		private void drop() {
+			pairs = new LongPairIntHashMap();
+			if (langs != null) {
+				langs = new LongPairIntHashMap();
+				wideLangs.clear();
+			}
+		}
+	}
+
+	/**
+	 * Head record of the sorted runs of a table
+	 */
+	private static class Head {
+		private ExternalSorter.Cursor cursor;
+		private String[] record;
+		private long fb;
+		private long wd;
+
+		private Head(ExternalSorter.Cursor cursor) {
+			this.cursor = cursor;
+		}
+
+		private boolean advance() throws IOException {
+			record = cursor.next();
+			if (record == null) {
+				return false;
+			}
+			fb = Long.parseLong(record[0]);
+			wd = Long.parseLong(record[1]);
+			return true;
+		}
+	}
+
+	// the key order of the runs
+	private static final Comparator<Head> HEAD_ORDER = new Comparator<Head>() {
+		@Override
+		public int compare(Head a, Head b) {
+			int compValue = Long.compareUnsigned(a.fb, b.fb);
+			return compValue != 0 ? compValue : Long.compareUnsigned(a.wd,
+					b.wd);
+		}
+	};
+
+	// shared with the other consumers of the memory budget, a part per
+	// table
+	private MemoryBudget budget;
+	// the table of each worker thread
+	private ThreadLocal<Table> local = new ThreadLocal<Table>();
+	private List<Table> tables = new ArrayList<Table>();
+	// codes of the ids, negative for those EntityIds cannot encode
+	private EntityCoder coder = new EntityCoder();
+	private AtomicLong relationCount = new AtomicLong();
+
+	/**
+	 * The pair tables of the workers share GlobalParameters.TMP_INDEX_BUDGET_MB
+	 * with the other consumers of the budget
+	 */
+	public PairAggregator() {
+		budget = MemoryBudget.lease(
+				GlobalParameters.TMP_INDEX_BUDGET_MB * 1024L * 1024L,
+				GlobalParameters.WORKER_COUNT);
+	}
+
+	/**
+	 * Count matches, laid out like the join emits them: ID_FB at 0, ID_WD at
+	 * 3 and LANG_WD at 5
+	 *
+	 * @param saPairs
+	 */
+	public void insert(List<String[]> saPairs) {
+		Table table = local.get();
+		if (table == null) {
+			synchronized (tables) {
+				table = new Table(tables.size());
+				tables.add(table);
+			}
+			local.set(table);
+		}
+		table.insert(saPairs);
+		relationCount.addAndGet(saPairs.size());
+	}
+
+	/**
+	 * @return matches inserted so far, one per matched Freebase key
+	 */
+	public long getRelationCount() {
+		return relationCount.get();
+	}
+
+	/**
+	 * Write every distinct pair with its language count & set (ID_FB, ID_WD,
+	 * LANG_COUNT, LANG_SET), then drop the pairs. Called once the workers are
+	 * done
+	 *
+	 * @param path
+	 * @return number of distinct pairs
+	 */
+	public synchronized long writeTo(String path) {
+		List<Table> written;
+		synchronized (tables) {
+			written = new ArrayList<Table>(tables);
+			tables.clear();
+		}
+		// the next inserts start new tables
+		local = new ThreadLocal<Table>();
+		SAWriter saWriter = new SAWriter(path);
+		List<String[]> rows = new ArrayList<String[]>();
+		long count = 0;
+		try {
+			Table merged = fold(written);
+			if (merged != null) {
+				LongPairIntHashMap pairs = merged.pairs;
+				for (int i = 0; i < pairs.capacity(); i++) {
+					if (pairs.isUsed(i)) {
+						count++;
+						add(saWriter, rows, pairs.firstAt(i),
+								pairs.secondAt(i), pairs.valueAt(i), merged
+										.langSet(pairs.firstAt(i),
+												pairs.secondAt(i)));
+					}
+				}
+				merged.drop();
+			} else {
+				count = merge(written, saWriter, rows);
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		} finally {
+			for (Table table : written) {
+				if (table.sorter != null) {
+					table.sorter.close();
+				}
+			}
+			budget.release();
+		}
+		saWriter.insert(rows);
+		saWriter.close();
+		return count;
+	}
+
+	/**
+	 * @param written
+	 * @return the pairs of every table folded into one table, null if a table
+	 *         was spilled or they would not fit the budget together
+	 */
+	private Table fold(List<Table> written) {
+		long bytes = 0;
+		for (Table table : written) {
+			if (table.sorter != null) {
+				return null;
+			}
+			bytes += table.bytes();
+		}
+		if (bytes > budget.share()) {
+			return null;
+		}
+		Table merged = written.isEmpty() ? new Table(0) : written.get(0);
+		for (int i = 1; i < written.size(); i++) {
+			merged.fold(written.get(i));
+		}
+		return merged;
+	}
+
+	/**
+	 * Spill every table and merge their runs, which hold partial counts of a
+	 * pair, adjacent once merged
+	 */
+	private long merge(List<Table> written, SAWriter saWriter,
+			List<String[]> rows) throws IOException {
+		PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1,
+				written.size()), HEAD_ORDER);
+		List<Head> cursors = new ArrayList<Head>();
+		long count = 0;
+		try {
+			for (Table table : written) {
+				table.spill();
+				Head head = new Head(table.sorter.sort());
+				cursors.add(head);
+				if (head.advance()) {
+					heads.add(head);
+				}
+			}
+			while (!heads.isEmpty()) {
+				Head head = heads.peek();
+				long currFB = head.fb;
+				long currWD = head.wd;
+				int currCount = 0;
+				String currSet = null;
+				while (!heads.isEmpty() && heads.peek().fb == currFB
+						&& heads.peek().wd == currWD) {
+					head = heads.poll();
+					currCount += Integer.parseInt(head.record[2]);
+					if (head.record[3] != null) {
+						currSet = currSet == null ? head.record[3] : LangSet
+								.union(currSet, head.record[3]);
+					}
+					if (head.advance()) {
+						heads.add(head);
+					}
+				}
+				count++;
+				add(saWriter, rows, currFB, currWD, currCount, currSet);
+			}
+		} finally {
+			for (Head head : cursors) {
+				head.cursor.close();
+			}
+		}
+		return count;
+	}
+
+	private void add(SAWriter saWriter, List<String[]> rows, long fb,
+			long wd, int count, String set) {
+		String[] row = { coder.decode(fb), coder.decode(wd), String.valueOf(count), set };
+		rows.add(row);
+		if (rows.size() >= GlobalParameters.BATCH_SIZE_MAX) {
+			saWriter.insert(rows);
+			rows.clear();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * ResidueMatcher.java
+ * Title matching of the entities the exact match leaves out
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.util.EntitySet;
+import com.samsung.scrc.wsg.k.util.ExternalSorter;
+import com.samsung.scrc.wsg.k.util.MinHash;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Candidate pairs for the entities the exact URL match leaves out: titles are
+ * normalized, blocked per language on MinHash LSH band keys, and the pairs
+ * sharing a bucket are verified by the trigram similarity of their titles
+ * <p>
+ * With sa.bloom, the Freebase keys without Wikidata counterpart are not in
+ * the Freebase key index: the ones the filter dropped are read from the index
+ * KeyPrefilter sets them aside in
+ */
+public class ResidueMatcher extends Matcher {
+	private static final String WIKIPEDIA_URL = ".wikipedia.org/wiki/";
+	// buckets larger than this hold titles too common to tell entities apart
+	private static final int MAX_BUCKET = 1000;
+	// bucket rows: BUCKET, BAND, SIDE, ID, LANG, TITLE
+	private static final int BUCKET = 0;
+	private static final int BAND = 1;
+	private static final int SIDE = 2;
+	private static final int ID = 3;
+	private static final int LANG = 4;
+	private static final int TITLE = 5;
+	private static final String SIDE_FB = "fb";
+
+	private MinHash minHash;
+	// entities with an exact match
+	private EntitySet matched;
+	private AtomicLong compared = new AtomicLong();
+	private AtomicLong skippedBuckets = new AtomicLong();
+
+	/**
+	 * Keep the entities of the exact matches
+	 */
+	private void loadMatched() {
+		matched = new EntitySet();
+		for (SASearcher searcher : SASearcher
+				.openShards(GlobalParameters.PATH_INDEX_SA_ORIGIN)) {
+			String[][] pairs = searcher.fetchPairs(true);
+			while (pairs != null && pairs.length != 0) {
+				for (String[] pair : pairs) {
+					matched.add(pair[0]);
+					matched.add(pair[1]);
+				}
+				pairs = searcher.fetchPairs(false);
+			}
+			searcher.close();
+		}
+	}
+
+	/**
+	 * Title of a Wikipedia URL, lowercased, without diacritics, punctuation
+	 * nor repeated spaces, so that the URL encodings of both sides meet
+	 *
+	 * @param url
+	 * @return null if the URL is not a Wikipedia page
+	 */
+	protected static String normalizeTitle(String url) {
+		int at = url.indexOf(WIKIPEDIA_URL);
+		if (at < 0) {
+			return null;
+		}
+		String title = url.substring(at + WIKIPEDIA_URL.length());
+		try {
+			title = URLDecoder.decode(title, "UTF-8");
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			// malformed escapes are left as they are
+		}
+		title = Normalizer.normalize(title, Normalizer.Form.NFKD)
+				.replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT)
+				.replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+		return title.isEmpty() ? null : title;
+	}
+
+	/**
+	 * @param url
+	 * @return the language of a Wikipedia URL (its host)
+	 */
+	private static String language(String url) {
+		int start = url.indexOf("://") + 3;
+		return url.substring(start, url.indexOf(WIKIPEDIA_URL));
+	}
+
+	/**
+	 * Put every unmatched entity title of a key index in its LSH buckets
+	 *
+	 * @param path
+	 * @param side
+	 * @param buckets
+	 * @return the unmatched titles
+	 */
+	private long block(final String path, final String side,
+			final GroupBy.Regroup buckets) {
+		final AtomicLong residue = new AtomicLong();
+		ShardExecutor.run(SASearcher.shards(path), new ShardTask() {
+			@Override
+			public void process(int shard) {
+				SASearcher searcher = new SASearcher(path, shard);
+				String[][] items = searcher.fetchIdUrls(true);
+				while (items != null && items.length != 0) {
+					for (String[] item : items) {
+						if (item[0] == null || item[1] == null
+								|| matched.contains(item[0])) {
+							continue;
+						}
+						String title = normalizeTitle(item[1]);
+						if (title == null) {
+							continue;
+						}
+						residue.incrementAndGet();
+						String lang = language(item[1]);
+						long[] signature = minHash.signature(title);
+						for (int band = 0; band < minHash.getBands(); band++) {
+							String[] row = {
+									String.valueOf(minHash.bandKey(signature,
+											band, lang)),
+									String.valueOf(band), side, item[0], lang,
+									title };
+							buckets.emit(row);
+						}
+					}
+					items = searcher.fetchIdUrls(false);
+				}
+				searcher.close();
+			}
+		});
+		return residue.get();
+	}
+
+	/**
+	 * Verifies the Freebase & Wikidata titles of a bucket. A pair sharing
+	 * several bands is only verified in the first of them, so it is counted
+	 * once per language
+	 */
+	private class Verifier implements GroupBy.Reducer {
+		@Override
+		public void reduce(List<String[]> bucket, GroupBy.Emitter out) {
+			if (bucket.size() > MAX_BUCKET) {
+				skippedBuckets.incrementAndGet();
+				return;
+			}
+			List<String[]> fbs = new ArrayList<String[]>();
+			List<String[]> wds = new ArrayList<String[]>();
+			for (String[] row : bucket) {
+				(row[SIDE].equals(SIDE_FB) ? fbs : wds).add(row);
+			}
+			if (fbs.isEmpty() || wds.isEmpty()) {
+				return;
+			}
+			int band = Integer.parseInt(bucket.get(0)[BAND]);
+			List<long[]> wdSignatures = new ArrayList<long[]>();
+			for (String[] wd : wds) {
+				wdSignatures.add(minHash.signature(wd[TITLE]));
+			}
+			for (String[] fb : fbs) {
+				long[] fbSignature = minHash.signature(fb[TITLE]);
+				for (int i = 0; i < wds.size(); i++) {
+					String[] wd = wds.get(i);
+					if (!fb[LANG].equals(wd[LANG])
+							|| minHash.firstBand(fbSignature,
+									wdSignatures.get(i)) != band) {
+						continue;
+					}
+					compared.incrementAndGet();
+					if (MinHash.similarity(fb[TITLE], wd[TITLE]) >= GlobalParameters.RESIDUE_SIMILARITY) {
+						// laid out as a join row: Freebase id, Wikidata id
+						// & language
+						String[] pair = { fb[ID], null, null, wd[ID], null,
+								wd[LANG] };
+						out.emit(pair);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public String[] getInputs() {
+		String[] inputs = { GlobalParameters.PATH_INDEX_FB,
+				GlobalParameters.PATH_INDEX_FB_FILTERED,
+				GlobalParameters.PATH_INDEX_WD,
+				GlobalParameters.PATH_INDEX_SA_ORIGIN };
+		return inputs;
+	}
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_RESIDUE };
+		return outputs;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	 */
+	@Override
+	public void match() {
+		minHash = new MinHash(GlobalParameters.RESIDUE_BANDS,
+				GlobalParameters.RESIDUE_ROWS);
+		loadMatched();
+		GroupBy.Regroup buckets = new GroupBy.Regroup(BUCKET,
+				"ResidueMatcher", new ExternalSorter.KeyEncoder() {
+					@Override
+					public void encode(String[] record, byte[] key) {
+						ByteBuffer.wrap(key).putLong(
+								Long.parseLong(record[BUCKET]));
+					}
+				});
+		long fbResidue = block(GlobalParameters.PATH_INDEX_FB, SIDE_FB,
+				buckets);
+		// the Freebase keys sa.bloom dropped before the join
+		if (new File(IndexStore.shard(GlobalParameters.PATH_INDEX_FB_FILTERED,
+				0)).isDirectory()) {
+			fbResidue += block(GlobalParameters.PATH_INDEX_FB_FILTERED,
+					SIDE_FB, buckets);
+		}
+		long wdResidue = block(GlobalParameters.PATH_INDEX_WD, "wd", buckets);
+		matched = null;
+		System.out.println("Residue titles:\tFreebase " + fbResidue
+				+ ", Wikidata " + wdResidue);
+		final PairAggregator aggregator = new PairAggregator();
+		buckets.reduce(new Verifier(), new GroupBy.Emitter() {
+			@Override
+			public void emit(String[] pair) {
+				aggregator.insert(Collections.singletonList(pair));
+			}
+		});
+		System.out.println("Residue candidates compared:\t" + compared.get()
+				+ " (" + skippedBuckets.get() + " buckets skipped)");
+		// distinct pairs with the number of languages they agree in
+		long count = aggregator.writeTo(GlobalParameters.PATH_INDEX_SA_RESIDUE);
+		System.out.println("Residue SA pairs count:\t" + count);
+	}
+}
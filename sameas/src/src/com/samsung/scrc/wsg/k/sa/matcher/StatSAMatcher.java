@@ -0,0 +1,78 @@
+/**
+ * StatSAMatcher.java
+ * A matcher reading the sameAs statistics in a shared scan
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.util.Collections;
+
+/**
+ * A matcher whose first pass reads every record of the sameAs statistics index,
+ * so that it can share one StatSAScan with the other such matchers
+ */
+public abstract class StatSAMatcher extends Matcher {
+
+	/**
+	 * Index written by the first pass
+	 *
+	 * @return null if the first pass leaves in-memory rows to the passes
+	 *         after it
+	 */
+	public abstract String getScanOutput();
+
+	/**
+	 * Whether the first pass needs the records of a Freebase entity
+	 * together, in ID_FB order
+	 *
+	 * @return
+	 */
+	public boolean isGrouped() {
+		return false;
+	}
+
+	/**
+	 * Whether the first pass reads the language sets of the records, which
+	 * are only loaded for the scans needing them
+	 *
+	 * @return
+	 */
+	public boolean readsLangSets() {
+		return false;
+	}
+
+	/**
+	 * Open the scan output, before any sink
+	 */
+	public abstract void beginScan();
+
+	/**
+	 * Decision function of the first pass for one shard
+	 *
+	 * @return
+	 */
+	public abstract StatSAScan.Sink sink();
+
+	/**
+	 * Close the scan output, once every shard is done
+	 */
+	public void endScan() {
+
+	}
+
+	/**
+	 * The passes after the first one, once the scan output is complete
+	 */
+	public abstract void matchAfterScan();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	 */
+	@Override
+	public void match() {
+		// a scan of its own
+		StatSAScan.run(Collections.singletonList(this));
+		matchAfterScan();
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * StatSAScan.java
+ * One scan of the sameAs statistics for several matchers
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.util.List;
+
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.util.EntitySet;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Reads the sameAs statistics index once and feeds every record to the first
+ * pass of each StatSAMatcher, every pass keeping its own output, so that adding
+ * such a matcher does not add a scan of the index
+ */
+public class StatSAScan {
+
+	// columns of the batches fed to the sinks
+	public static final int ID_FB = 0;
+	public static final int ID_WD = 1;
+	public static final int LANG_COUNT = 0;
+	public static final int LANG_COUNT_FB = 1;
+	public static final int LANG_COUNT_WD = 2;
+	public static final int LANG_SET = 0;
+	public static final int LANG_SET_FB = 1;
+	public static final int LANG_SET_WD = 2;
+
+	/**
+	 * Decision function of a pass, fed the records of one shard: ids ID_FB,
+	 * ID_WD, counts LANG_COUNT, LANG_COUNT_FB, LANG_COUNT_WD, and the sets
+	 * LANG_SET, LANG_SET_FB, LANG_SET_WD if a matcher of the scan reads them
+	 */
+	public interface Sink {
+		/**
+		 * @param batch
+		 *            refilled once the page is done, nothing of it may be kept
+		 * @param row
+		 */
+		void accept(RecordBatch batch, int row);
+
+		/**
+		 * End of the shard
+		 */
+		void close();
+	}
+
+	/**
+	 * Sink buffering the rows it emits into a writer
+	 */
+	public static abstract class WriterSink implements Sink {
+		private GroupBy.Output output;
+
+		protected WriterSink(SAWriter writer) {
+			this.output = new GroupBy.Output(writer);
+		}
+
+		protected void emit(String[] row) {
+			output.emit(row);
+		}
+
+		@Override
+		public void close() {
+			output.close();
+		}
+	}
+
+	/**
+	 * Run the first pass of some matchers in a single scan
+	 *
+	 * @param matchers
+	 */
+	public static void run(final List<? extends StatSAMatcher> matchers) {
+		run(matchers, null);
+	}
+
+	/**
+	 * Run the first pass of some matchers in a single scan of the records of
+	 * some Freebase entities
+	 *
+	 * @param matchers
+	 * @param fbFilter
+	 *            the Freebase entities read, null for all
+	 */
+	public static void run(final List<? extends StatSAMatcher> matchers,
+			final EntitySet fbFilter) {
+		System.out.println("Shared scan of the sameAs statistics for "
+				+ matchers.size() + " matcher(s)");
+		// the statistics are sharded by Freebase id, so a Freebase entity
+		// never spans two shards
+		boolean grouped = false;
+		boolean langSets = false;
+		for (StatSAMatcher matcher : matchers) {
+			matcher.beginScan();
+			grouped |= matcher.isGrouped();
+			langSets |= matcher.readsLangSets();
+		}
+		final boolean sorted = grouped;
+		final boolean sets = langSets;
+		ShardExecutor.run(
+				SASearcher.shards(GlobalParameters.PATH_INDEX_STAT_SA),
+				new ShardTask() {
+					@Override
+					public void process(int shard) {
+						Sink[] sinks = new Sink[matchers.size()];
+						for (int i = 0; i < sinks.length; i++) {
+							sinks[i] = matchers.get(i).sink();
+						}
+						SASearcher searcher = new SASearcher(
+								GlobalParameters.PATH_INDEX_STAT_SA, shard);
+						RecordBatch batch = sets ? SASearcher.statSASetBatch()
+								: SASearcher.statSABatch();
+						boolean more = sorted ? searcher.fetchPairLangFB(
+								batch, true) : searcher.fetchStatSAPairs(
+								batch, true);
+						while (more) {
+							for (int row = 0; row < batch.size(); row++) {
+								if (fbFilter != null
+										&& !contains(fbFilter, batch, ID_FB,
+												row)) {
+									continue;
+								}
+								for (Sink sink : sinks) {
+									sink.accept(batch, row);
+								}
+							}
+							more = sorted ? searcher.fetchPairLangFB(batch,
+									false) : searcher.fetchStatSAPairs(batch,
+									false);
+						}
+						for (Sink sink : sinks) {
+							sink.close();
+						}
+						searcher.close();
+					}
+				});
+		for (StatSAMatcher matcher : matchers) {
+			matcher.endScan();
+		}
+	}
+
+	/**
+	 * @param entities
+	 * @param batch
+	 * @param column
+	 * @param row
+	 * @return whether the id of a cell is in a set, decoding it only if it
+	 *         has no EntityIds code
+	 */
+	public static boolean contains(EntitySet entities, RecordBatch batch,
+			int column, int row) {
+		long code = batch.getId(column, row);
+		return entities.contains(code,
+				code >= 0 ? null : batch.getIdString(column, row));
+	}
+}
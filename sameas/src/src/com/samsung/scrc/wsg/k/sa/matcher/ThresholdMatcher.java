@@ -3,11 +3,7 @@
  */
 package com.samsung.scrc.wsg.k.sa.matcher;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import com.samsung.scrc.wsg.k.sa.core.SASearcher;
-import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -18,44 +14,91 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
  */
 public class ThresholdMatcher extends MaxConfMatcher {
 	private double threshold = 0.5; // by default
+	// the thresholds also evaluated, null without sweep
+	private ThresholdSweep sweep = null;
+
+	/**
+	 * Keeps the pairs whose language count is above the threshold share of
+	 * both entity counts, for the max per Freebase entity
+	 */
+	private class ThresholdSink implements StatSAScan.Sink {
+		private MaxFBSink maxFB = new MaxFBSink();
 
-	private void preproc() {
-		// preprocess
-		SASearcher saStat = new SASearcher(GlobalParameters.PATH_INDEX_STAT_SA);
-		SAWriter rawWriter = new SAWriter(
-				GlobalParameters.PATH_INDEX_SA_THRESHOLD_RAW);
-		String[][] statSAPairs = saStat.fetchStatSAPairs(true);
-		List<String[]> items = new ArrayList<String[]>();
-		while (statSAPairs != null && statSAPairs.length != 0) {
-			for (int i = 0; i < statSAPairs.length; i++) {
-				double fbRatio = Double.valueOf(statSAPairs[i][2])
-						/ Double.valueOf(statSAPairs[i][3]);
-				double wdRatio = Double.valueOf(statSAPairs[i][2])
-						/ Double.valueOf(statSAPairs[i][4]);
-				if (fbRatio > threshold && wdRatio > threshold) {
-					items.add(statSAPairs[i]);
-				}
+		@Override
+		public void accept(RecordBatch batch, int row) {
+			double count = batch.getCount(StatSAScan.LANG_COUNT, row);
+			double fbRatio = count
+					/ batch.getCount(StatSAScan.LANG_COUNT_FB, row);
+			double wdRatio = count
+					/ batch.getCount(StatSAScan.LANG_COUNT_WD, row);
+			if (fbRatio > threshold && wdRatio > threshold) {
+				maxFB.accept(batch, row);
 			}
-			rawWriter.insertSAStat(items);
-			items.clear();
-			statSAPairs = saStat.fetchStatSAPairs(false);
 		}
-		rawWriter.close();
-		saStat.close();
+
+		@Override
+		public void close() {
+			maxFB.close();
+		}
+	}
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_THRESHOLD };
+		return outputs;
+	}
+
+	@Override
+	public String getScanOutput() {
+		// the candidates per Wikidata entity stay in memory
+		return null;
+	}
+
+	@Override
+	public void beginScan() {
+		super.beginScan();
+		threshold = GlobalParameters.THRESHOLD;
+		// a sweep counts every pair, an incremental run only reads some
+		if (GlobalParameters.THRESHOLD_SWEEP.length > 0
+				&& GlobalParameters.INCREMENTAL_BASE == null) {
+			sweep = new ThresholdSweep(GlobalParameters.THRESHOLD_SWEEP,
+					GlobalParameters.THRESHOLD_GOLD);
+		}
+	}
+
+	@Override
+	public StatSAScan.Sink sink() {
+		final StatSAScan.Sink thresholdSink = new ThresholdSink();
+		if (sweep == null) {
+			return thresholdSink;
+		}
+		final StatSAScan.Sink sweepSink = sweep.sink();
+		return new StatSAScan.Sink() {
+			@Override
+			public void accept(RecordBatch batch, int row) {
+				thresholdSink.accept(batch, row);
+				sweepSink.accept(batch, row);
+			}
+
+			@Override
+			public void close() {
+				thresholdSink.close();
+				sweepSink.close();
+			}
+		};
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.MaxConfMatcher#matchAfterScan()
 	 */
 	@Override
-	public void match() {
-		// TODO Auto-generated method stub
-		preproc();
-		coreFB(GlobalParameters.PATH_INDEX_SA_THRESHOLD_RAW,
-				GlobalParameters.PATH_INDEX_SA_THRESHOLD_RAW_1);
-		coreWD(GlobalParameters.PATH_INDEX_SA_THRESHOLD_RAW_1,
-				GlobalParameters.PATH_INDEX_SA_THRESHOLD);
+	public void matchAfterScan() {
+		super.matchAfterScan();
+		if (sweep != null) {
+			sweep.finish(GlobalParameters.FILE_RESULT_THRESHOLD_SWEEP);
+			sweep = null;
+		}
 	}
 }
@@ -0,0 +1,290 @@
+/**
+ * ThresholdSweep.java
+ * Evaluates several thresholds in one scan of the sameAs statistics
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.samsung.scrc.wsg.k.index.search.RecordBatch;
+
+/**
+ * Evaluates a list of thresholds of the threshold matcher in its single scan of
+ * the sameAs statistics: each threshold keeps its own max per Freebase entity,
+ * max per Wikidata entity and counters, reported with the 1:1 share and,
+ * against a gold sample, precision & recall
+ */
+public class ThresholdSweep {
+	private double[] thresholds;
+	private double minThreshold = Double.MAX_VALUE;
+	// per threshold, the max pairs per Freebase entity
+	private GroupBy.Regroup[] byWD;
+	// gold pairs (Freebase id TAB Wikidata id) and their entities, null
+	// without gold sample
+	private Set<String> goldPairs = null;
+	private Set<String> goldFB = new HashSet<String>();
+	private Set<String> goldWD = new HashSet<String>();
+	// per threshold counters
+	private AtomicLongArray pairs;
+	private AtomicLongArray oneToOne;
+	// pairs with an entity of the gold sample
+	private AtomicLongArray judged;
+	private AtomicLongArray truePositives;
+
+	/**
+	 * @param thresholds
+	 * @param goldFile
+	 *            TSV of correct pairs, null for none
+	 */
+	public ThresholdSweep(double[] thresholds, String goldFile) {
+		this.thresholds = thresholds;
+		byWD = new GroupBy.Regroup[thresholds.length];
+		for (int t = 0; t < thresholds.length; t++) {
+			minThreshold = Math.min(minThreshold, thresholds[t]);
+			byWD[t] = new GroupBy.Regroup(1, "ThresholdSweep-" + t, true);
+		}
+		pairs = new AtomicLongArray(thresholds.length);
+		oneToOne = new AtomicLongArray(thresholds.length);
+		judged = new AtomicLongArray(thresholds.length);
+		truePositives = new AtomicLongArray(thresholds.length);
+		if (goldFile != null) {
+			loadGold(goldFile);
+		}
+	}
+
+	private void loadGold(String goldFile) {
+		goldPairs = new HashSet<String>();
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(
+					goldFile), "UTF-8"));
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] pair = line.split("\t");
+				if (pair.length < 2) {
+					continue;
+				}
+				goldPairs.add(pair[0] + "\t" + pair[1]);
+				goldFB.add(pair[0]);
+				goldWD.add(pair[1]);
+			}
+			System.out.println("Gold pairs:\t" + goldPairs.size());
+		} catch (IOException ioe) {
+			System.err.println(ioe);
+			goldPairs = null;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException ioe) {
+					System.err.println(ioe);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps, per Freebase entity and threshold, the pairs with the max
+	 * language count among the pairs above the threshold. The records come in
+	 * ID_FB order
+	 */
+	private class SweepSink implements StatSAScan.Sink {
+		private long currCode = -1;
+		private String currFB = null;
+		// pairs of the current Freebase entity above the lowest threshold
+		private List<String> wds = new ArrayList<String>();
+		private List<Integer> counts = new ArrayList<Integer>();
+		private List<Double> ratios = new ArrayList<Double>();
+
+		@Override
+		public void accept(RecordBatch batch, int row) {
+			if (currFB == null
+					|| !batch.isId(StatSAScan.ID_FB, row, currCode, currFB)) {
+				emitGroup();
+				currCode = batch.getId(StatSAScan.ID_FB, row);
+				currFB = batch.getIdString(StatSAScan.ID_FB, row);
+			}
+			double count = batch.getCount(StatSAScan.LANG_COUNT, row);
+			double ratio = Math.min(
+					count / batch.getCount(StatSAScan.LANG_COUNT_FB, row),
+					count / batch.getCount(StatSAScan.LANG_COUNT_WD, row));
+			if (ratio > minThreshold) {
+				wds.add(batch.getIdString(StatSAScan.ID_WD, row));
+				counts.add((int) count);
+				ratios.add(ratio);
+			}
+		}
+
+		private void emitGroup() {
+			for (int t = 0; t < thresholds.length; t++) {
+				int max = -1;
+				for (int i = 0; i < wds.size(); i++) {
+					if (ratios.get(i) > thresholds[t]) {
+						max = Math.max(max, counts.get(i));
+					}
+				}
+				for (int i = 0; i < wds.size(); i++) {
+					if (ratios.get(i) > thresholds[t] && counts.get(i) == max) {
+						String[] pair = { currFB, wds.get(i) };
+						byWD[t].emit(pair, max);
+					}
+				}
+			}
+			wds.clear();
+			counts.clear();
+			ratios.clear();
+		}
+
+		@Override
+		public void close() {
+			emitGroup();
+		}
+	}
+
+	public StatSAScan.Sink sink() {
+		return new SweepSink();
+	}
+
+	/**
+	 * Keeps the pairs of a Wikidata entity with the max language count,
+	 * counted by how many are kept (the degree of the Wikidata entity)
+	 */
+	private static class MaxWD implements GroupBy.CountReducer {
+		private GroupBy.Regroup byFB;
+
+		private MaxWD(GroupBy.Regroup byFB) {
+			this.byFB = byFB;
+		}
+
+		@Override
+		public void reduce(List<String[]> group, int[] counts,
+				GroupBy.Emitter out) {
+			int max = 0;
+			for (int i = 0; i < group.size(); i++) {
+				max = Math.max(max, counts[i]);
+			}
+			int degree = 0;
+			for (int i = 0; i < group.size(); i++) {
+				if (counts[i] == max) {
+					degree++;
+				}
+			}
+			for (int i = 0; i < group.size(); i++) {
+				if (counts[i] == max) {
+					byFB.emit(group.get(i), degree);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the result pairs of a threshold, grouped by Freebase entity and
+	 * counted by the degree of their Wikidata entity
+	 */
+	private class Counter implements GroupBy.CountReducer {
+		private int t;
+
+		private Counter(int t) {
+			this.t = t;
+		}
+
+		@Override
+		public void reduce(List<String[]> group, int[] counts,
+				GroupBy.Emitter out) {
+			for (int i = 0; i < group.size(); i++) {
+				String[] pair = group.get(i);
+				pairs.incrementAndGet(t);
+				if (group.size() == 1 && counts[i] == 1) {
+					oneToOne.incrementAndGet(t);
+				}
+				if (goldPairs == null) {
+					continue;
+				}
+				if (goldFB.contains(pair[0]) || goldWD.contains(pair[1])) {
+					judged.incrementAndGet(t);
+				}
+				if (goldPairs.contains(pair[0] + "\t" + pair[1])) {
+					truePositives.incrementAndGet(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the Wikidata side of every threshold once the scan is done, then
+	 * report
+	 *
+	 * @param reportFile
+	 */
+	public void finish(String reportFile) {
+		for (int t = 0; t < thresholds.length; t++) {
+			GroupBy.Regroup byFB = new GroupBy.Regroup(0, "ThresholdSweep-fb-"
+					+ t, true);
+			byWD[t].reduce(new MaxWD(byFB), (GroupBy.Emitter) null);
+			byWD[t] = null;
+			byFB.reduce(new Counter(t), (GroupBy.Emitter) null);
+		}
+		report(reportFile);
+	}
+
+	private void report(String reportFile) {
+		File file = new File(reportFile);
+		file.getParentFile().mkdirs();
+		OutputStreamWriter osw = null;
+		try {
+			osw = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			String header = "threshold\tpairs\tone_to_one\tone_to_n\tone_to_one_ratio";
+			if (goldPairs != null) {
+				header += "\tjudged\ttrue_positive\tprecision\trecall";
+			}
+			System.out.println("Threshold sweep:");
+			System.out.println(header);
+			osw.write(header + "\n");
+			for (int t = 0; t < thresholds.length; t++) {
+				long count = pairs.get(t);
+				String line = thresholds[t] + "\t" + count + "\t"
+						+ oneToOne.get(t) + "\t" + (count - oneToOne.get(t))
+						+ "\t" + ratio(oneToOne.get(t), count);
+				if (goldPairs != null) {
+					line += "\t" + judged.get(t) + "\t"
+							+ truePositives.get(t) + "\t"
+							+ ratio(truePositives.get(t), judged.get(t))
+							+ "\t"
+							+ ratio(truePositives.get(t), goldPairs.size());
+				}
+				System.out.println(line);
+				osw.write(line + "\n");
+			}
+			// the buffered lines are written on close
+			osw.close();
+			osw = null;
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		} finally {
+			if (osw != null) {
+				try {
+					osw.close();
+				} catch (IOException ioe) {
+					System.err.println(ioe);
+				}
+			}
+		}
+	}
+
+	private static String ratio(long part, long total) {
+		return total == 0 ? "0" : String.format(Locale.ROOT, "%.4f", (double) part / total);
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * VoteMatcher.java
+ * Consensus of the matchers by vote
+ */
+package com.samsung.scrc.wsg.k.sa.matcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Consensus of the matchers: their result indexes, read ordered by (Freebase
+ * id, Wikidata id), are k-way merged in one streaming pass, every pair getting
+ * the mask of the matchers which kept it and its number of votes. The pairs
+ * with enough votes are written to an index, exported like the other results,
+ * so that per-pair agreement needs no join of the result files
+ */
+public class VoteMatcher extends Matcher {
+	// a vote mask is a long
+	private static final int MAX_VOTERS = 63;
+
+	/**
+	 * Pairs of a result index in (ID_FB, ID_WD) order
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		private SASearcher searcher;
+		private long bit;
+		private String[][] pairs;
+		private int next = 0;
+
+		private Cursor(SASearcher searcher, long bit) {
+			this.searcher = searcher;
+			this.bit = bit;
+			pairs = searcher.fetchPairsFullSorted(true);
+		}
+
+		private String[] pair() {
+			return pairs == null || next >= pairs.length ? null : pairs[next];
+		}
+
+		private void advance() {
+			next++;
+			if (next >= pairs.length) {
+				pairs = searcher.fetchPairsFullSorted(false);
+				next = 0;
+			}
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			return compare(pair(), other.pair());
+		}
+
+		private void close() {
+			searcher.close();
+		}
+	}
+
+	private static int compare(String[] pair, String[] other) {
+		int compValue = pair[0].compareTo(other[0]);
+		return compValue != 0 ? compValue : pair[1].compareTo(other[1]);
+	}
+
+	/**
+	 * @return result index of each voter, null for an unknown matcher
+	 */
+	private static String[] voterIndexes() {
+		int count = Math.min(GlobalParameters.VOTE_MATCHERS.length,
+				MAX_VOTERS);
+		String[] indexes = new String[count];
+		for (int i = 0; i < count; i++) {
+			Matcher voter = GlobalParameters.MATCHER_MAPPING
+					.get(GlobalParameters.VOTE_MATCHERS[i]);
+			if (voter != null && !(voter instanceof VoteMatcher)) {
+				indexes[i] = voter.getOutputs()[0];
+			}
+		}
+		return indexes;
+	}
+
+	@Override
+	public String[] getInputs() {
+		List<String> inputs = new ArrayList<String>();
+		for (String index : voterIndexes()) {
+			if (index != null) {
+				inputs.add(index);
+			}
+		}
+		return inputs.toArray(new String[inputs.size()]);
+	}
+
+	@Override
+	public String[] getOutputs() {
+		String[] outputs = { GlobalParameters.PATH_INDEX_SA_VOTE };
+		return outputs;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.samsung.scrc.wsg.k.sa.matcher.Matcher#match()
+	 */
+	@Override
+	public void match() {
+		if (GlobalParameters.VOTE_MATCHERS.length > MAX_VOTERS) {
+			System.err.println("Only the first " + MAX_VOTERS
+					+ " matchers vote");
+		}
+		final String[] indexes = voterIndexes();
+		int shards = -1;
+		StringBuilder bits = new StringBuilder();
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] != null
+					&& !new File(IndexStore.shard(indexes[i], 0))
+							.isDirectory()) {
+				System.err.println("Missing result of a voter:\t"
+						+ indexes[i]);
+				indexes[i] = null;
+			}
+			if (indexes[i] == null) {
+				continue;
+			}
+			bits.append(" ").append(i).append(":")
+					.append(GlobalParameters.VOTE_MATCHERS[i]);
+			// results sharded alike are merged shard by shard
+			int count = SASearcher.shards(indexes[i]);
+			shards = shards < 0 || shards == count ? count : 0;
+		}
+		System.out.println("SA vote bits:" + bits);
+		final boolean sharded = shards > 0;
+		final SAWriter writer = new SAWriter(
+				GlobalParameters.PATH_INDEX_SA_VOTE);
+		// pairs per number of votes
+		final AtomicLongArray votes = new AtomicLongArray(indexes.length + 1);
+		ShardExecutor.run(sharded ? shards : 1, new ShardTask() {
+			@Override
+			public void process(int shard) {
+				merge(indexes, sharded ? shard : -1, writer, votes);
+			}
+		});
+		writer.close();
+		StringBuilder counts = new StringBuilder();
+		long kept = 0;
+		for (int i = 1; i < votes.length(); i++) {
+			counts.append(" ").append(i).append(":").append(votes.get(i));
+			if (i >= GlobalParameters.VOTE_MIN) {
+				kept += votes.get(i);
+			}
+		}
+		System.out.println("SA pairs per votes:" + counts + " (" + kept
+				+ " with at least " + GlobalParameters.VOTE_MIN + ")");
+	}
+
+	/**
+	 * Merge a shard of every result, or the whole results for shard -1, each
+	 * shard of a result being a cursor of its own
+	 */
+	private static void merge(String[] indexes, int shard, SAWriter writer,
+			AtomicLongArray votes) {
+		PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>();
+		List<Cursor> cursors = new ArrayList<Cursor>();
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] == null) {
+				continue;
+			}
+			SASearcher[] searchers = shard < 0 ? SASearcher
+					.openShards(indexes[i]) : new SASearcher[] { new SASearcher(
+					indexes[i], shard) };
+			for (SASearcher searcher : searchers) {
+				Cursor cursor = new Cursor(searcher, 1L << i);
+				cursors.add(cursor);
+				if (cursor.pair() != null) {
+					heads.add(cursor);
+				}
+			}
+		}
+		List<String[]> rows = new ArrayList<String[]>();
+		while (!heads.isEmpty()) {
+			String[] pair = heads.peek().pair();
+			long mask = 0;
+			// every cursor at the pair, past it (a voter lists a pair once,
+			// but a duplicate would only set its bit again)
+			while (!heads.isEmpty() && compare(heads.peek().pair(), pair) == 0) {
+				Cursor cursor = heads.poll();
+				mask |= cursor.bit;
+				cursor.advance();
+				if (cursor.pair() != null) {
+					heads.add(cursor);
+				}
+			}
+			int count = Long.bitCount(mask);
+			votes.incrementAndGet(count);
+			if (count < GlobalParameters.VOTE_MIN) {
+				continue;
+			}
+			String[] row = { pair[0], pair[1], String.valueOf(mask),
+					String.valueOf(count) };
+			rows.add(row);
+			if (rows.size() >= GlobalParameters.BATCH_SIZE_MAX) {
+				writer.insert(rows);
+				rows.clear();
+			}
+		}
+		writer.insert(rows);
+		for (Cursor cursor : cursors) {
+			cursor.close();
+		}
+	}
+}
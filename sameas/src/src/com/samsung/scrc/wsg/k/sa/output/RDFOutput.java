@@ -0,0 +1,132 @@
+/**
+ * RDFOutput.java
+ * Writes the pairs of a result index as owl:sameAs statements
+ */
+package com.samsung.scrc.wsg.k.sa.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import com.samsung.scrc.wsg.k.util.EntityIds;
+
+/**
+ * Writes the pairs of a result index as owl:sameAs statements, N-Triples or
+ * N-Quads in the named graph of the matcher, straight from the index. The
+ * constant parts of a statement are encoded once; only the end of an id after
+ * its Freebase or Wikidata prefix is escaped, byte by byte on its UTF-8 form
+ */
+public class RDFOutput extends ResOutput {
+	public static final String OWL_SAME_AS = "http://www.w3.org/2002/07/owl#sameAs";
+
+	private static final String[] PREFIXES = { EntityIds.FB_PREFIX,
+			EntityIds.WD_PREFIX };
+	// "<" and each prefix
+	private static final byte[][] OPEN_PREFIXES = new byte[PREFIXES.length][];
+	private static final byte[] OPEN = { '<' };
+	// "> <owl:sameAs> "
+	private static final byte[] SAME_AS = ("> <" + OWL_SAME_AS + "> ")
+			.getBytes(StandardCharsets.UTF_8);
+	private static final byte[] HEX = "0123456789ABCDEF"
+			.getBytes(StandardCharsets.UTF_8);
+	// ASCII bytes an IRIREF cannot hold, written as UCHAR escapes
+	private static final boolean[] ESCAPED = new boolean[128];
+
+	static {
+		for (int i = 0; i < PREFIXES.length; i++) {
+			OPEN_PREFIXES[i] = ("<" + PREFIXES[i])
+					.getBytes(StandardCharsets.UTF_8);
+		}
+		for (int i = 0; i <= 0x20; i++) {
+			ESCAPED[i] = true;
+		}
+		for (char c : "<>\"{}|^`\\".toCharArray()) {
+			ESCAPED[c] = true;
+		}
+	}
+
+	// "> .\n", or "> <graph> .\n" for N-Quads
+	private byte[] close;
+
+	/**
+	 * @param saIndexFile
+	 * @param ranges
+	 *            doc ranges of the shards of the index written, as {shard,
+	 *            from, to}, or null for the whole index
+	 * @param file
+	 * @param gzip
+	 * @param graph
+	 *            IRI of the named graph of the statements (N-Quads), or null
+	 *            for N-Triples
+	 */
+	public RDFOutput(String saIndexFile, int[][] ranges, File file,
+			boolean gzip, String graph) {
+		super(saIndexFile, ranges, file, gzip);
+		if (graph == null) {
+			close = "> .\n".getBytes(StandardCharsets.UTF_8);
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			bytes.write('>');
+			bytes.write(' ');
+			iri(graph, bytes);
+			bytes.write(' ');
+			bytes.write('.');
+			bytes.write('\n');
+			close = bytes.toByteArray();
+		}
+	}
+
+	@Override
+	protected void encode(String[] row, ByteArrayOutputStream page) {
+		open(row[0], page);
+		page.write(SAME_AS, 0, SAME_AS.length);
+		open(row[1], page);
+		page.write(close, 0, close.length);
+	}
+
+	/**
+	 * Write an IRI between angle brackets
+	 *
+	 * @param iri
+	 * @param page
+	 */
+	private static void iri(String iri, ByteArrayOutputStream page) {
+		open(iri, page);
+		page.write('>');
+	}
+
+	/**
+	 * Write "<" and an IRI, the closing bracket being left to the caller
+	 *
+	 * @param iri
+	 * @param page
+	 */
+	private static void open(String iri, ByteArrayOutputStream page) {
+		int from = 0;
+		byte[] open = OPEN;
+		for (int i = 0; i < PREFIXES.length; i++) {
+			if (iri.startsWith(PREFIXES[i])) {
+				from = PREFIXES[i].length();
+				open = OPEN_PREFIXES[i];
+				break;
+			}
+		}
+		page.write(open, 0, open.length);
+		byte[] bytes = iri.substring(from).getBytes(StandardCharsets.UTF_8);
+		int start = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			// bytes of multi-byte characters are negative, and kept
+			if (bytes[i] >= 0 && ESCAPED[bytes[i]]) {
+				page.write(bytes, start, i - start);
+				page.write('\\');
+				page.write('u');
+				page.write('0');
+				page.write('0');
+				page.write(HEX[bytes[i] >> 4]);
+				page.write(HEX[bytes[i] & 0x0f]);
+				start = i + 1;
+			}
+		}
+		page.write(bytes, start, bytes.length - start);
+	}
+}
@@ -3,98 +3,179 @@
  */
 package com.samsung.scrc.wsg.k.sa.output;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
 import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
+ * Writes the rows of a result index, or of doc ranges of its shards, to a
+ * file, as TSV lines unless a subclass encodes them otherwise. The rows are
+ * the pairs of the index unless other columns are given
+ *
  * @author yuxie
- * 
+ *
  * @date Mar 23, 2015
- * 
+ *
  */
-public class ResOutput implements Runnable {
+public class ResOutput implements Callable<Long> {
 //	private static Logger log = LogManager.getLogger(ResOutput.class.getName());
-	private SASearcher searcher;
+	private String index;
+	// doc ranges written, as {shard, from, to}, null for the whole index
+	private int[][] ranges;
 	private File outputFile;
+	private boolean gzip;
+	// columns of a row
+	private String[] keys = { GlobalParameters.COL_ID_FB,
+			GlobalParameters.COL_ID_WD };
+	// first line of the file, null for none
+	private String header;
 
 	public ResOutput(String saIndexFile, String file) {
-		searcher = new SASearcher(saIndexFile);
-		outputFile = new File(file);
-		if (outputFile.exists()) {
-			outputFile.delete();
-		} else {
-			try {
-				outputFile.getParentFile().mkdirs();
-				outputFile.createNewFile();
-			} catch (IOException ioe) {
-				// TODO Auto-generated catch block
-				ioe.printStackTrace();
+		this(saIndexFile, null, new File(file), false);
+	}
 
-			}
-		}
+	/**
+	 * @param saIndexFile
+	 * @param ranges
+	 *            doc ranges of the shards of the index written, one after the
+	 *            other, as {shard, from, to}, or null for the whole index
+	 * @param file
+	 * @param gzip
+	 */
+	public ResOutput(String saIndexFile, int[][] ranges, File file,
+			boolean gzip) {
+		this.index = saIndexFile;
+		this.ranges = ranges;
+		this.outputFile = file;
+		this.gzip = gzip;
+		outputFile.getParentFile().mkdirs();
 	}
 
+	/**
+	 * Write other columns than the pair of every row, after a header
+	 * 
+	 * @param saIndexFile
+	 * @param ranges
+	 * @param file
+	 * @param gzip
+	 * @param keys
+	 *            columns of a row
+	 * @param header
+	 *            first line of the file, without its line break
+	 */
+	public ResOutput(String saIndexFile, int[][] ranges, File file,
+			boolean gzip, String[] keys, String header) {
+		this(saIndexFile, ranges, file, gzip);
+		this.keys = keys;
+		this.header = header;
+	}
+
+	/**
+	 * @return the number of pairs written
+	 * @throws IOException
+	 *             if the file cannot be written, failing the export
+	 */
 	@Override
-	public void run() {
+	public Long call() throws IOException {
+		long lines = 0;
 		FileOutputStream fos = null;
-		OutputStreamWriter osw = null;
+		OutputStream out = null;
 		try {
 			fos = new FileOutputStream(outputFile);
-			osw = new OutputStreamWriter(fos, "UTF-8");
-			String[][] pairs = searcher.fetchPairs(true);
-			while (pairs != null && pairs.length != 0) {
-				for (int i = 0; i < pairs.length; i++) {
-					String line = pairs[i][0] + "\t" + pairs[i][1] + "\n";
-					try {
-						osw.write(line);
-					} catch (IOException ioe) {
-						// TODO Auto-generated catch block
-//						log.error(this, ioe);
-//						log.error(line);
-						System.err.println(ioe);
-						System.err.println(line);
-					}
+			FileChannel channel = fos.getChannel();
+			// whole pages are encoded, the channel gets large writes
+			out = new BufferedOutputStream(Channels.newOutputStream(channel),
+					GlobalParameters.EXPORT_BUFFER);
+			if (gzip) {
+				out = new GZIPOutputStream(out, 1 << 16);
+			}
+			if (header != null) {
+				out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			if (ranges == null) {
+				// the whole index, shard after shard
+				for (int shard = 0; shard < SASearcher.shards(index); shard++) {
+					lines += write(new SASearcher(index, shard), 0,
+							Integer.MAX_VALUE, out);
+				}
+			} else {
+				for (int[] range : ranges) {
+					lines += write(new SASearcher(index, range[0]), range[1],
+							range[2], out);
 				}
-				pairs = searcher.fetchPairs(false);
 			}
-		} catch (FileNotFoundException | UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-//			log.error(this, e);
-			System.err.println(e);
+			// the end of a compressed file is written on close
+			out.close();
+			out = null;
+			fos = null;
 		} finally {
-			if (osw != null) {
-				try {
-					osw.flush();
-					osw.close();
-				} catch (IOException ioe) {
-					// TODO Auto-generated catch block
-//					log.warn(this, ioe);
-					System.err.println(ioe);
+			// a failed file, its failure already being thrown
+			try {
+				if (out != null) {
+					out.close();
+				} else if (fos != null) {
+					fos.close();
 				}
+			} catch (IOException ioe) {
+				// TODO Auto-generated catch block
+//				log.warn(this, ioe);
+				System.err.println(ioe);
 			}
-			if (fos != null) {
-				try {
-					fos.flush();
-					fos.close();
-				} catch (IOException ioe) {
-					// TODO Auto-generated catch block
-//					log.warn(this, ioe);
-					System.err.println(ioe);
+		}
+		return lines;
+	}
+
+	private long write(SASearcher searcher, int from, int to,
+			OutputStream out) throws IOException {
+		long lines = 0;
+		ByteArrayOutputStream page = new ByteArrayOutputStream(1 << 16);
+		try {
+			String[][] rows = searcher.fetchRows(keys, from, to, true);
+			while (rows != null && rows.length != 0) {
+				for (int i = 0; i < rows.length; i++) {
+					encode(rows[i], page);
 				}
+				page.writeTo(out);
+				page.reset();
+				lines += rows.length;
+				rows = searcher.fetchRows(keys, from, to, false);
 			}
+		} finally {
+			searcher.close();
 		}
+		return lines;
 	}
 
-	public void close() {
-		searcher.close();
+	/**
+	 * Append the line of a row to the page being written
+	 * 
+	 * @param row
+	 * @param page
+	 */
+	protected void encode(String[] row, ByteArrayOutputStream page) {
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				page.write('\t');
+			}
+			if (row[i] != null) {
+				byte[] bytes = row[i].getBytes(StandardCharsets.UTF_8);
+				page.write(bytes, 0, bytes.length);
+			}
+		}
+		page.write('\n');
 	}
 }
@@ -3,12 +3,24 @@
  */
 package com.samsung.scrc.wsg.k.sa.output;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -20,7 +32,19 @@ import com.samsung.scrc.wsg.k.var.GlobalParameters;
 public class TSVgenerator {
 //	private static Logger log = LogManager.getLogger(TSVgenerator.class
 //			.getName());
+	public static final String COMPRESSION_NONE = "none";
+	public static final String COMPRESSION_GZIP = "gzip";
+	public static final String COMPRESSION_ZSTD = "zstd";
+	public static final String FORMAT_TSV = "tsv";
+	public static final String FORMAT_NT = "nt";
+	public static final String FORMAT_NQ = "nq";
+
 	private Map<String, String> indexTSVMap = new HashMap<String, String>();
+	// columns & header of the indexes whose rows are more than a pair
+	private Map<String, String[]> indexColumnMap = new HashMap<String, String[]>();
+	private Map<String, String> indexHeaderMap = new HashMap<String, String>();
+	private boolean gzip;
+	private String format;
 
 	/**
 	 * 
@@ -37,15 +61,290 @@ public class TSVgenerator {
 				GlobalParameters.FILE_RESULT_1_1);
 		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_BELIEF,
 				GlobalParameters.FILE_RESULT_BELIEF_BASED);
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_RESIDUE,
+				GlobalParameters.FILE_RESULT_RESIDUE);
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER_ONE,
+				GlobalParameters.FILE_RESULT_CLUSTER_ONE);
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_ASSIGNMENT,
+				GlobalParameters.FILE_RESULT_ASSIGNMENT);
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_OVERLAP,
+				GlobalParameters.FILE_RESULT_OVERLAP);
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_VOTE,
+				GlobalParameters.FILE_RESULT_VOTE);
+		String[] voteColumns = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD, GlobalParameters.COL_VOTE_MASK,
+				GlobalParameters.COL_VOTE_COUNT };
+		indexColumnMap.put(GlobalParameters.PATH_INDEX_SA_VOTE, voteColumns);
+		indexHeaderMap.put(GlobalParameters.PATH_INDEX_SA_VOTE,
+				"id_fb\tid_wd\tmask\tvotes");
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER,
+				GlobalParameters.FILE_RESULT_CLUSTER);
+		String[] clusterColumns = { GlobalParameters.COL_ID_FB,
+				GlobalParameters.COL_ID_WD, GlobalParameters.COL_CLUSTER,
+				GlobalParameters.COL_FB_COUNT, GlobalParameters.COL_WD_COUNT };
+		indexColumnMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER,
+				clusterColumns);
+		indexHeaderMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER,
+				"id_fb\tid_wd\tcluster\tfb_count\twd_count");
+		// a table of counts, with no pair to write as RDF
+		indexTSVMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER_SHAPES,
+				GlobalParameters.FILE_RESULT_CLUSTER_SHAPES);
+		String[] shapeColumns = { GlobalParameters.COL_FB_COUNT,
+				GlobalParameters.COL_WD_COUNT,
+				GlobalParameters.COL_CLUSTER_COUNT,
+				GlobalParameters.COL_PAIR_COUNT };
+		indexColumnMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER_SHAPES,
+				shapeColumns);
+		indexHeaderMap.put(GlobalParameters.PATH_INDEX_SA_CLUSTER_SHAPES,
+				"fb_count\twd_count\tclusters\tpairs");
+		String compression = GlobalParameters.EXPORT_COMPRESSION.trim()
+				.toLowerCase();
+		gzip = !compression.equals(COMPRESSION_NONE);
+		if (compression.equals(COMPRESSION_ZSTD)) {
+			System.err.println("No zstd codec is bundled, "
+					+ COMPRESSION_GZIP + " used");
+		} else if (gzip && !compression.equals(COMPRESSION_GZIP)) {
+			System.err.println("Unknown export compression, none used:\t"
+					+ GlobalParameters.EXPORT_COMPRESSION);
+			gzip = false;
+		}
+		format = GlobalParameters.EXPORT_FORMAT.trim().toLowerCase();
+		if (!format.equals(FORMAT_TSV) && !format.equals(FORMAT_NT)
+				&& !format.equals(FORMAT_NQ)) {
+			System.err.println("Unknown export format, " + FORMAT_TSV
+					+ " used:\t" + GlobalParameters.EXPORT_FORMAT);
+			format = FORMAT_TSV;
+		}
+	}
+
+	/**
+	 * @return result index paths which are exported
+	 */
+	public Set<String> getIndexes() {
+		return indexTSVMap.keySet();
 	}
 
+	/**
+	 * Export one result index, once it is complete, and wait for its files
+	 * 
+	 * @param index
+	 */
+	public void generate(String index) {
+		System.out.println("Start to generate TSV file of " + index);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math
+				.min(GlobalParameters.EXPORT_PARTS,
+						GlobalParameters.WORKER_COUNT)));
+		Throwable failure = await(index, submit(pool, index));
+		pool.shutdown();
+		rethrow(failure);
+	}
+
+	/**
+	 * Export every result index of the matchers which ran, the files being
+	 * written concurrently, and wait for all of them. The first failure of a
+	 * file is rethrown once every file is done
+	 */
 	public void generate() {
 //		log.trace("Start to generate TSV files...");
 		System.out.println("Start to generate TSV files...");
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+				GlobalParameters.WORKER_COUNT));
+		Map<String, List<Future<Long>>> exports = new HashMap<String, List<Future<Long>>>();
 		for (String index : indexTSVMap.keySet()) {
-			Thread thread = new Thread(new ResOutput(index,
-					indexTSVMap.get(index)));
-			thread.start();
+			if (!new File(IndexStore.shard(index, 0)).isDirectory()) {
+				// a matcher which did not run
+				continue;
+			}
+			exports.put(index, submit(pool, index));
+		}
+		Throwable failure = null;
+		for (Map.Entry<String, List<Future<Long>>> export : exports
+				.entrySet()) {
+			Throwable exportFailure = await(export.getKey(), export.getValue());
+			if (failure == null) {
+				failure = exportFailure;
+			}
+		}
+		pool.shutdown();
+		rethrow(failure);
+	}
+
+	/**
+	 * Queue the part files of an index
+	 * 
+	 * @param pool
+	 * @param index
+	 * @return the number of pairs each part file will have written
+	 */
+	public List<Future<Long>> submit(ExecutorService pool, String index) {
+		String file = indexTSVMap.get(index);
+		clear(file);
+		// doc ids of the shards, one after the other
+		int[] maxDocs = new int[SASearcher.shards(index)];
+		long docs = 0;
+		for (int shard = 0; shard < maxDocs.length; shard++) {
+			SASearcher searcher = new SASearcher(index, shard);
+			maxDocs[shard] = searcher.maxDoc();
+			searcher.close();
+			docs += maxDocs[shard];
+		}
+		int parts = (int) Math.max(1,
+				Math.min(GlobalParameters.EXPORT_PARTS, docs));
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		String format = format(index);
+		if (parts == 1) {
+			futures.add(pool.submit(output(index, null, file, format,
+					exportFile(file, format, 0, 1))));
+			return futures;
+		}
+		// part i is written from docs [i * docs / parts, (i + 1) * docs /
+		// parts) of the shards, a shard being split between parts
+		int shard = 0;
+		long shardBase = 0;
+		for (int i = 0; i < parts; i++) {
+			long from = i * docs / parts;
+			long to = (i + 1) * docs / parts;
+			List<int[]> ranges = new ArrayList<int[]>();
+			while (from < to) {
+				while (from >= shardBase + maxDocs[shard]) {
+					shardBase += maxDocs[shard++];
+				}
+				long end = Math.min(to, shardBase + maxDocs[shard]);
+				int[] range = { shard, (int) (from - shardBase),
+						(int) (end - shardBase) };
+				ranges.add(range);
+				from = end;
+			}
+			futures.add(pool.submit(output(index,
+					ranges.toArray(new int[ranges.size()][]), file, format,
+					exportFile(file, format, i, parts))));
+		}
+		return futures;
+	}
+
+	/**
+	 * @param index
+	 * @param ranges
+	 * @param file
+	 *            result file of the index
+	 * @param format
+	 * @param export
+	 *            file written
+	 * @return the writer of the export format
+	 */
+	private ResOutput output(String index, int[][] ranges, String file,
+			String format, String export) {
+		if (format.equals(FORMAT_TSV)) {
+			if (indexColumnMap.containsKey(index)) {
+				return new ResOutput(index, ranges, new File(export), gzip,
+						indexColumnMap.get(index), indexHeaderMap.get(index));
+			}
+			return new ResOutput(index, ranges, new File(export), gzip);
+		}
+		// a named graph per matcher, after its result file
+		String graph = format.equals(FORMAT_NQ) ? GlobalParameters.RDF_GRAPH
+				+ new File(stem(file)).getName() : null;
+		return new RDFOutput(index, ranges, new File(export), gzip, graph);
+	}
+
+	/**
+	 * @param index
+	 * @param futures
+	 * @return the first failure of the files of the index, null if every file
+	 *         is written
+	 */
+	private Throwable await(String index, List<Future<Long>> futures) {
+		long lines = 0;
+		Throwable failure = null;
+		for (Future<Long> future : futures) {
+			try {
+				lines += future.get();
+			} catch (ExecutionException ee) {
+				System.err.println(index + ":\t" + ee.getCause());
+				if (failure == null) {
+					failure = ee.getCause();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = ie;
+				}
+			}
+		}
+		if (failure != null) {
+			System.err.println("TSV file of " + index + " failed");
+			return failure;
+		}
+		System.out.println("TSV file of " + index + " written:\t" + lines
+				+ " pairs in " + futures.size() + " file(s)");
+		return null;
+	}
+
+	private static void rethrow(Throwable failure) {
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure instanceof IOException) {
+			throw new UncheckedIOException((IOException) failure);
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the export format of an index, TSV for rows which are not pairs
+	 */
+	private String format(String index) {
+		String[] columns = indexColumnMap.get(index);
+		return columns == null
+				|| columns[0].equals(GlobalParameters.COL_ID_FB) ? format
+				: FORMAT_TSV;
+	}
+
+	/**
+	 * @param file
+	 * @param format
+	 * @param part
+	 * @param parts
+	 * @return file, or its part-th part as file-part-0000N.tsv, with the
+	 *         suffix of the format and of the compression
+	 */
+	private String exportFile(String file, String format, int part,
+			int parts) {
+		file = stem(file);
+		if (parts > 1) {
+			file = String.format("%s-part-%05d", file, part);
+		}
+		file += "." + format;
+		return gzip ? file + ".gz" : file;
+	}
+
+	private static String stem(String file) {
+		return file.endsWith(".tsv") ? file.substring(0,
+				file.length() - ".tsv".length()) : file;
+	}
+
+	/**
+	 * Remove the files of a previous export of a result, whatever its format,
+	 * compression and number of parts
+	 * 
+	 * @param file
+	 */
+	private static void clear(String file) {
+		File dir = new File(file).getParentFile();
+		String name = new File(stem(file)).getName();
+		String parts = name + "-part-";
+		File[] previous = dir.listFiles();
+		if (previous == null) {
+			return;
+		}
+		for (File export : previous) {
+			if (export.getName().startsWith(name + ".")
+					|| export.getName().startsWith(parts)) {
+				export.delete();
+			}
 		}
 	}
 
@@ -0,0 +1,232 @@
+/**
+ * EntityLangCounter.java
+ * Counts the languages of every entity during ingestion
+ */
+package com.samsung.scrc.wsg.k.sa.preproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.util.EntityIds;
+import com.samsung.scrc.wsg.k.util.ExternalSorter;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.util.LangSetTable;
+import com.samsung.scrc.wsg.k.util.LongIntHashMap;
+import com.samsung.scrc.wsg.k.util.MemoryBudget;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Counts the Wikipedia languages (keys) of every entity while Freebase &
+ * Wikidata are ingested, so that the language statistics are written at the end
+ * of ingestion instead of re-reading the key indexes sorted by id. Counts live
+ * in a LongIntHashMap keyed by EntityIds code, language sets (if recorded) in a
+ * LangSetTable, both spilled into sorted runs past the transient memory budget
+ */
+public class EntityLangCounter {
+	// statistics indexes written by a counter of this run
+	private static Set<String> written = new HashSet<String>();
+
+	private String path;
+	private LongIntHashMap counts = new LongIntHashMap();
+	// ids EntityIds cannot encode, rare enough for a plain map
+	private Map<String, Integer> otherCounts = new HashMap<String, Integer>();
+	// null unless GlobalParameters.LANG_SETS
+	private LangSetTable sets = null;
+	// shared with the other consumers of the memory budget
+	private MemoryBudget budget;
+	private ExternalSorter sorter = null;
+
+	/**
+	 * @param path
+	 *            statistics index the counts are written to
+	 */
+	public EntityLangCounter(String path) {
+		this.path = path;
+		this.budget = MemoryBudget.lease(
+				GlobalParameters.TMP_INDEX_BUDGET_MB * 1024L * 1024L, 1);
+		if (GlobalParameters.LANG_SETS) {
+			sets = new LangSetTable();
+		}
+		synchronized (EntityLangCounter.class) {
+			written.remove(path);
+		}
+	}
+
+	/**
+	 * Whether the statistics index was written at ingestion, so it need not
+	 * be counted again from the key index
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static synchronized boolean isWritten(String path) {
+		return written.contains(path);
+	}
+
+	/**
+	 * Count one language per item
+	 *
+	 * @param items
+	 *            ID, URL, LANG
+	 */
+	public synchronized void count(List<String[]> items) {
+		for (String[] item : items) {
+			long code = EntityIds.encode(item[0]);
+			if (code >= 0) {
+				counts.addTo(code, 1);
+			} else {
+				Integer count = otherCounts.get(item[0]);
+				otherCounts.put(item[0], count == null ? 1 : count + 1);
+			}
+			if (sets != null) {
+				int bit = LangSet.bit(item[2] != null ? item[2] : LangSet
+						.language(item[1]));
+				if (code >= 0) {
+					sets.add(code, bit);
+				} else {
+					sets.add(item[0], bit);
+				}
+			}
+		}
+		if (counts.bytes() + (sets == null ? 0 : sets.bytes()) > budget
+				.bytes()) {
+			try {
+				spill();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+	}
+
+	private void spill() throws IOException {
+		if (sorter == null) {
+			ExternalSorter.KeyEncoder encoder = new ExternalSorter.KeyEncoder() {
+				@Override
+				public void encode(String[] record, byte[] key) {
+					ByteBuffer.wrap(key).putLong(Long.parseLong(record[0]));
+				}
+			};
+			sorter = new ExternalSorter(new File(GlobalParameters.PATH_INDEX_TMP
+					+ "langs/" + new File(path).getName()), 8, encoder,
+					ExternalSorter.UNSIGNED, budget);
+		}
+		for (int i = 0; i < counts.capacity(); i++) {
+			if (counts.isUsed(i)) {
+				String[] record = { String.valueOf(counts.keyAt(i)),
+						String.valueOf(counts.valueAt(i)),
+						set(counts.keyAt(i)) };
+				sorter.add(record);
+			}
+		}
+		counts = new LongIntHashMap();
+		if (sets != null) {
+			// the sets of the other ids stay in memory until written
+			Map<String, long[]> others = sets.getOthers();
+			sets = new LangSetTable();
+			sets.getOthers().putAll(others);
+		}
+	}
+
+	/**
+	 * @param code
+	 * @return the hex of the language set of an entity, null if sets are
+	 *         not recorded
+	 */
+	private String set(long code) {
+		if (sets == null) {
+			return null;
+		}
+		long[] set = LangSet.create();
+		sets.get(code, set);
+		return LangSet.toHex(set);
+	}
+
+	/**
+	 * Write the statistics index (ID, LANG_COUNT, LANG_SET), then drop the
+	 * counts
+	 */
+	public synchronized void write() {
+		SAWriter saWriter = new SAWriter(path);
+		List<String[]> rows = new ArrayList<String[]>();
+		try {
+			if (sorter == null) {
+				for (int i = 0; i < counts.capacity(); i++) {
+					if (counts.isUsed(i)) {
+						add(saWriter, rows, EntityIds.decode(counts.keyAt(i)),
+								counts.valueAt(i), set(counts.keyAt(i)));
+					}
+				}
+			} else {
+				// partial counts of an entity are adjacent once merged
+				spill();
+				ExternalSorter.Cursor cursor = sorter.sort();
+				String[] record = cursor.next();
+				long currCode = 0;
+				int currCount = 0;
+				String currSet = null;
+				while (record != null) {
+					long code = Long.parseLong(record[0]);
+					if (currCount > 0 && code != currCode) {
+						add(saWriter, rows, EntityIds.decode(currCode),
+								currCount, currSet);
+						currCount = 0;
+						currSet = null;
+					}
+					currCode = code;
+					currCount += Integer.parseInt(record[1]);
+					if (sets != null) {
+						currSet = currSet == null ? record[2] : LangSet.union(
+								currSet, record[2]);
+					}
+					record = cursor.next();
+				}
+				if (currCount > 0) {
+					add(saWriter, rows, EntityIds.decode(currCode), currCount,
+							currSet);
+				}
+				cursor.close();
+				sorter.close();
+				sorter = null;
+				new File(GlobalParameters.PATH_INDEX_TMP + "langs").delete();
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		for (Map.Entry<String, Integer> entry : otherCounts.entrySet()) {
+			long[] set = sets == null ? null : sets.getOthers().get(
+					entry.getKey());
+			add(saWriter, rows, entry.getKey(), entry.getValue(),
+					set == null ? null : LangSet.toHex(set));
+		}
+		saWriter.insert(rows);
+		saWriter.close();
+		counts = new LongIntHashMap();
+		otherCounts.clear();
+		if (sets != null) {
+			sets = new LangSetTable();
+		}
+		budget.release();
+		synchronized (EntityLangCounter.class) {
+			written.add(path);
+		}
+	}
+
+	private static void add(SAWriter saWriter, List<String[]> rows,
+			String id, int count, String set) {
+		String[] row = { id, String.valueOf(count), set };
+		rows.add(row);
+		if (rows.size() >= GlobalParameters.BATCH_SIZE_MAX) {
+			saWriter.insert(rows);
+			rows.clear();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * KeyPrefilter.java
+ * Drops the Freebase keys without Wikidata counterpart before indexing
+ */
+package com.samsung.scrc.wsg.k.sa.preproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.util.BloomFilter;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Bloom filter of the Wikidata MD5 keys, consulted by the Freebase ingestion so
+ * that keys without any Wikidata counterpart are dropped before they are
+ * indexed (sa.bloom = true)
+ * <p>
+ * The residue matcher reads the Freebase keys the exact match leaves out,
+ * most of which are the keys this filter drops. When it runs, the dropped
+ * keys are written to an index of their own instead, which only the residue
+ * matcher reads
+ */
+public class KeyPrefilter {
+	private static BloomFilter filter = null;
+	private static AtomicLong seen = new AtomicLong();
+	private static AtomicLong kept = new AtomicLong();
+	// keys dropped by the filter, or null if they are not kept
+	private static SAWriter filtered = null;
+
+	/**
+	 * Build the filter from the Wikidata key index, which must be written
+	 * already
+	 */
+	public static void build() {
+		build(false);
+	}
+
+	/**
+	 * @param keepFiltered
+	 *            whether the dropped keys are kept for the residue matcher,
+	 *            until closeFiltered
+	 */
+	public static void build(boolean keepFiltered) {
+		BloomFilter bloom = new BloomFilter(
+				SASearcher.totalCount(GlobalParameters.PATH_INDEX_WD),
+				GlobalParameters.BLOOM_FPP);
+		for (SASearcher wikidata : SASearcher
+				.openShards(GlobalParameters.PATH_INDEX_WD)) {
+			String[][] items = wikidata.scanData(true);
+			while (items != null) {
+				for (String[] item : items) {
+					if (item[2] != null) {
+						bloom.add(item[2]);
+					}
+				}
+				items = wikidata.scanData(false);
+			}
+			wikidata.close();
+		}
+		filter = bloom;
+		seen.set(0);
+		kept.set(0);
+		if (keepFiltered) {
+			filtered = new SAWriter(GlobalParameters.PATH_INDEX_FB_FILTERED);
+		}
+		System.out.println("Bloom filter of Wikidata keys:\t"
+				+ bloom.getKeyCount() + " keys, " + bloom.getBitSize()
+				+ " bits, " + bloom.getHashCount() + " hashes, expected FPP "
+				+ String.format("%.5f", bloom.expectedFpp()));
+	}
+
+	public static boolean isActive() {
+		return filter != null;
+	}
+
+	/**
+	 * Keep the Freebase keys whose MD5 may be a Wikidata key, the others
+	 * being set aside if they are kept. Without a filter, everything is kept
+	 *
+	 * @param items
+	 *            ID, URL, LANG, MD5
+	 * @return
+	 */
+	public static synchronized List<String[]> filter(List<String[]> items) {
+		if (filter == null) {
+			return items;
+		}
+		List<String[]> result = new ArrayList<String[]>(items.size());
+		List<String[]> dropped = new ArrayList<String[]>();
+		for (String[] item : items) {
+			if (item[3] != null && filter.mightContain(item[3])) {
+				result.add(item);
+			} else {
+				dropped.add(item);
+			}
+		}
+		if (filtered != null) {
+			filtered.insert(dropped);
+		}
+		seen.addAndGet(items.size());
+		kept.addAndGet(result.size());
+		return result;
+	}
+
+	/**
+	 * Complete the index of the dropped keys, once the Freebase ingestion is
+	 * done
+	 */
+	public static void closeFiltered() {
+		if (filtered != null) {
+			filtered.close();
+			filtered = null;
+		}
+	}
+
+	/**
+	 * Report the filter once the join tells how many Freebase keys truly
+	 * match: the observed false positive rate is the share of non-matching
+	 * keys which passed the filter
+	 *
+	 * @param matched
+	 *            Freebase keys matched by the join
+	 */
+	public static void report(long matched) {
+		if (filter == null) {
+			return;
+		}
+		long negatives = seen.get() - matched;
+		long falsePositives = kept.get() - matched;
+		System.out.println("Bloom filter kept " + kept.get() + " of "
+				+ seen.get() + " Freebase keys, " + matched + " matched");
+		System.out.println("Bloom filter FPR:\t"
+				+ String.format("%.5f", negatives > 0 ? (double) falsePositives
+						/ negatives : 0.0) + " (expected "
+				+ String.format("%.5f", filter.expectedFpp()) + ")");
+	}
+
+	/**
+	 * Drop the filter once the Freebase ingestion is reported
+	 */
+	public static void clear() {
+		filter = null;
+	}
+}
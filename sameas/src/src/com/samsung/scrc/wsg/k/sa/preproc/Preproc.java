@@ -7,8 +7,10 @@ package com.samsung.scrc.wsg.k.sa.preproc;
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
+import com.samsung.scrc.wsg.k.index.core.IndexStore;
 import com.samsung.scrc.wsg.k.sa.preproc.fb.FBProcessor;
 import com.samsung.scrc.wsg.k.sa.preproc.wd.WDProcessor;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
  * @author yuxie, yanli wang
@@ -22,15 +24,42 @@ public class Preproc {
 	/**
 	 * Index Freebase RDF dump & Wikidata SQL Attention: considering of writing
 	 * into a single disk, Freebase processor and Wikidata processor are
-	 * sequentially called
+	 * sequentially called. With sa.bloom, Wikidata goes first so that its
+	 * keys can filter the Freebase ones
 	 */
 	public static void proc() {
+		proc(false);
+	}
+
+	/**
+	 * @param keepFiltered
+	 *            whether the Freebase keys dropped by sa.bloom are kept for
+	 *            the residue matcher
+	 */
+	public static void proc(boolean keepFiltered) {
+		// the dropped keys of an earlier run
+		IndexStore.clear(GlobalParameters.PATH_INDEX_FB_FILTERED);
+		if (GlobalParameters.BLOOM_FILTER) {
+			procWD();
+			KeyPrefilter.build(keepFiltered);
+			procFB();
+			KeyPrefilter.closeFiltered();
+		} else {
+			procFB();
+			procWD();
+		}
+	}
+
+	private static void procFB() {
 //		log.trace("Start to generate indexing on Freebase...");
 		System.out.println("Start to generate indexing on Freebase...");
 		FBProcessor fbProcessor = new FBProcessor();
 		fbProcessor.run();
 //		log.trace("Finish indexing on Freebase!");
 		System.out.println("Finish indexing on Freebase!");
+	}
+
+	private static void procWD() {
 //		log.trace("Start to generate indexing on Wikidata...");
 		System.out.println("Start to generate indexing on Wikidata...");
 		WDProcessor wdProcessor = new WDProcessor();
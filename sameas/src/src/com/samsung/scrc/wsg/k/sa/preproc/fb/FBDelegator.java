@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -112,7 +113,8 @@ public class FBDelegator {
 		} catch (IOException ioe) {
 			// TODO Auto-generated catch block
 //			log.error(this, ioe);
-			System.err.println(ioe);
+			// a truncated dump fails the preprocessing
+			throw new UncheckedIOException(ioe);
 		}
 		if (content == null && keyList.isEmpty()) {
 			return null;
@@ -11,6 +11,8 @@ import java.util.List;
 //import org.apache.logging.log4j.Logger;
 
 import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.preproc.EntityLangCounter;
+import com.samsung.scrc.wsg.k.sa.preproc.KeyPrefilter;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 public class FBProcessor implements Runnable {
@@ -27,11 +29,16 @@ public class FBProcessor implements Runnable {
 		// init
 		FBDelegator.INSTANCE.init();
 		SAWriter fblDelegator = new SAWriter(GlobalParameters.PATH_INDEX_FB);
+		EntityLangCounter langCounter = new EntityLangCounter(
+				GlobalParameters.PATH_INDEX_STAT_FB);
 		// process
-		int offset = 0;
+		long offset = 0;
 		List<String[]> tmpResult = new ArrayList<String[]>();
 		while ((tmpResult = FBDelegator.INSTANCE.extractKeys(DEFAULT_LINE_NO)) != null) {
-			fblDelegator.insertData(tmpResult);
+			// every key counts, before the ones without Wikidata counterpart
+			// are dropped (sa.bloom)
+			langCounter.count(tmpResult);
+			fblDelegator.insert(KeyPrefilter.filter(tmpResult));
 			offset += DEFAULT_LINE_NO;
 //			log.trace("Offset:\t" + offset);
 			// ATTENTION!!!
@@ -39,5 +46,6 @@ public class FBProcessor implements Runnable {
 		}
 		FBDelegator.INSTANCE.close();
 		fblDelegator.close();
+		langCounter.write();
 	}
 }
@@ -84,7 +84,7 @@ public class WDDelegator {
 		}
 	}
 
-	public List<String[]> getItemWikiURL(int limit, int offset) {
+	public List<String[]> getItemWikiURL(int limit, long offset) {
 		List<String[]> resultList = new ArrayList<String[]>();
 		String[] fields = { COL_ITEM, COL_SITE_ID, COL_SITE_PAGE };
 		List<Map<String, Object>> qResult = null;
@@ -119,7 +119,7 @@ public class WDDelegator {
 		return resultList;
 	}
 
-	public List<String[]> getItemWikiMediaURL(int limit, int offset) {
+	public List<String[]> getItemWikiMediaURL(int limit, long offset) {
 		List<String[]> resultList = new ArrayList<String[]>();
 		String[] fields = { COL_ITEM, COL_SITE_ID, COL_SITE_PAGE };
 		List<Map<String, Object>> qResult = null;
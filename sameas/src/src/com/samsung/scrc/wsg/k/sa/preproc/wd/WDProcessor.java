@@ -11,6 +11,7 @@ import java.util.List;
 //import org.apache.logging.log4j.Logger;
 
 import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.preproc.EntityLangCounter;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -32,16 +33,20 @@ public class WDProcessor implements Runnable {
 		// init
 		WDDelegator.INSTANCE.init();
 		SAWriter wdlDelegator = new SAWriter(GlobalParameters.PATH_INDEX_WD);
+		EntityLangCounter langCounter = new EntityLangCounter(
+				GlobalParameters.PATH_INDEX_STAT_WD);
 		// process
 		List<String[]> tmpResult = new ArrayList<String[]>();
-		int offset = 0;
+		long offset = 0;
 		while (!(tmpResult = WDDelegator.INSTANCE.getItemWikiURL(DEFAULT_LIMIT,
 				offset)).isEmpty()) {
-			wdlDelegator.insertData(tmpResult);
+			wdlDelegator.insert(tmpResult);
+			langCounter.count(tmpResult);
 			offset += DEFAULT_LIMIT;
 //			log.trace("Offset:\t" + offset);
 		}
 		WDDelegator.INSTANCE.close();
 		wdlDelegator.close();
+		langCounter.write();
 	}
 }
@@ -0,0 +1,160 @@
+/**
+ * LangCountTable.java
+ * Language counts of a statistics index by entity number
+ */
+package com.samsung.scrc.wsg.k.sa.stat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.samsung.scrc.wsg.k.sa.core.SASearcher;
+import com.samsung.scrc.wsg.k.util.DenseCountTable;
+import com.samsung.scrc.wsg.k.util.EntityIds;
+import com.samsung.scrc.wsg.k.var.GlobalParameters;
+
+/**
+ * Language counts of a statistics index loaded once into a DenseCountTable
+ * indexed by the entity number (Q number, MID value), so that enriching a pair
+ * costs an array read instead of a term lookup. A slot holds the count with
+ * the shape of the id (EntityIds.shape), so an id which only shares the
+ * number of a counted id reads no count. Ids without a dense number, with a
+ * large count, or sharing their number with another counted id are kept in a
+ * map
+ */
+public class LangCountTable {
+	// bits of a slot holding the shape of its id, below the count
+	private static final int SHAPE_BITS = 6;
+	private static final int SHAPE_MASK = (1 << SHAPE_BITS) - 1;
+	// counts as strings, the way statistics rows carry them
+	private static final String[] COUNT_STRINGS = new String[256];
+	static {
+		for (int i = 0; i < COUNT_STRINGS.length; i++) {
+			COUNT_STRINGS[i] = String.valueOf(i);
+		}
+	}
+
+	private DenseCountTable table;
+	private Map<String, Integer> otherCounts = new HashMap<String, Integer>();
+
+	private LangCountTable(DenseCountTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Load the counts of a statistics index
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static LangCountTable load(String path) {
+		DenseCountTable table = null;
+		try {
+			table = new DenseCountTable(new File(GlobalParameters.PATH_INDEX_TMP
+					+ "langs/" + new File(path).getName() + ".counts"));
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		LangCountTable counts = new LangCountTable(table);
+		// numbers shared by several ids (MIDs of different lengths)
+		Set<Long> shared = new HashSet<Long>();
+		// read shard after shard
+		SASearcher[] searchers = SASearcher.openShards(path);
+		try {
+			for (SASearcher searcher : searchers) {
+				String[][] items = searcher.fetchLangCounts(true);
+				while (items != null) {
+					for (String[] item : items) {
+						if (item[0] != null && item[1] != null) {
+							counts.put(item[0], Integer.parseInt(item[1]),
+									shared);
+						}
+					}
+					items = searcher.fetchLangCounts(false);
+				}
+			}
+			if (!shared.isEmpty()) {
+				// the ids of a shared number go to the map
+				for (SASearcher searcher : searchers) {
+					String[][] items = searcher.fetchLangCounts(true);
+					while (items != null) {
+						for (String[] item : items) {
+							long ordinal = ordinal(EntityIds.encode(item[0]));
+							if (ordinal >= 0 && shared.contains(ordinal)) {
+								counts.otherCounts.put(item[0],
+										Integer.parseInt(item[1]));
+							}
+						}
+						items = searcher.fetchLangCounts(false);
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		} finally {
+			for (SASearcher searcher : searchers) {
+				searcher.close();
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @param code
+	 * @return the slot of a code, -1 if it has none
+	 */
+	private static long ordinal(long code) {
+		if (code < 0) {
+			return -1;
+		}
+		long ordinal = EntityIds.ordinal(code);
+		return DenseCountTable.fits(ordinal) ? ordinal : -1;
+	}
+
+	private void put(String id, int count, Set<Long> shared) throws IOException {
+		long code = EntityIds.encode(id);
+		long ordinal = ordinal(code);
+		if (ordinal < 0 || count < 1
+				|| count > DenseCountTable.MAX_COUNT >>> SHAPE_BITS) {
+			otherCounts.put(id, count);
+		} else if (table.put(ordinal, count << SHAPE_BITS
+				| EntityIds.shape(code)) != 0) {
+			table.put(ordinal, DenseCountTable.SHARED);
+			shared.add(ordinal);
+		}
+	}
+
+	/**
+	 * Same as SASearcher.fetchLangCount
+	 *
+	 * @param id
+	 * @return the count, null if the entity is absent
+	 */
+	public String get(String id) {
+		long code = EntityIds.encode(id);
+		long ordinal = ordinal(code);
+		int slot = ordinal < 0 ? DenseCountTable.SHARED : table.get(ordinal);
+		if (slot == DenseCountTable.SHARED) {
+			Integer other = otherCounts.get(id);
+			return other == null ? null : String.valueOf(other);
+		}
+		// empty, or the count of another id of the number
+		if (slot == 0 || (slot & SHAPE_MASK) != EntityIds.shape(code)) {
+			return null;
+		}
+		int count = slot >>> SHAPE_BITS;
+		return count < COUNT_STRINGS.length ? COUNT_STRINGS[count] : String
+				.valueOf(count);
+	}
+
+	/**
+	 * Unmap and delete the table
+	 */
+	public void close() {
+		table.close();
+	}
+}
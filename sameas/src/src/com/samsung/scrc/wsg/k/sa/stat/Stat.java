@@ -6,12 +6,18 @@ package com.samsung.scrc.wsg.k.sa.stat;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
 import com.samsung.scrc.wsg.k.sa.core.SASearcher;
 import com.samsung.scrc.wsg.k.sa.core.SAWriter;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor;
+import com.samsung.scrc.wsg.k.sa.core.ShardExecutor.ShardTask;
+import com.samsung.scrc.wsg.k.sa.preproc.EntityLangCounter;
+import com.samsung.scrc.wsg.k.util.LangSet;
+import com.samsung.scrc.wsg.k.util.LangSetTable;
 import com.samsung.scrc.wsg.k.var.GlobalParameters;
 
 /**
@@ -27,138 +33,211 @@ public class Stat {
 
 	}
 
+	/**
+	 * Entity counts of a shard of a key index, in id order
+	 */
+	private static class EntityCursor implements Comparable<EntityCursor> {
+		private SASearcher searcher;
+		private List<String[]> entityCounts;
+		private int next = 0;
+
+		private EntityCursor(SASearcher searcher) {
+			this.searcher = searcher;
+			entityCounts = searcher.fetchEntityCount(true);
+		}
+
+		/**
+		 * @return ID, LANG_COUNT, LANG_SET of the next entity, null once all
+		 *         are read
+		 */
+		private String[] entity() {
+			return entityCounts == null || next >= entityCounts.size() ? null
+					: entityCounts.get(next);
+		}
+
+		private void advance() {
+			next++;
+			if (next >= entityCounts.size()) {
+				entityCounts = searcher.fetchEntityCount(false);
+				next = 0;
+			}
+		}
+
+		@Override
+		public int compareTo(EntityCursor other) {
+			return entity()[0].compareTo(other.entity()[0]);
+		}
+	}
+
 	/**
 	 * Count <Entity, Available Language Count> into a Lucene indexing directory
 	 * for follow-up matchers For example, the Freebase entity.
 	 * http://rdf.freebase.com/ns/m.01k9rg has 3-language Wikipedia links, noted
 	 * as <http://rdf.freebase.com/ns/m.01k9rg, 3>
 	 * 
+	 * The key index is sharded by MD5, so the items of an entity may be spread
+	 * over several shards: the counts of every shard are merged in id order,
+	 * those of an id being summed, over shards and pages alike
+	 * 
 	 * @param indexWriter
 	 * @param indexReader
 	 */
 	private static void statEntityLang(String indexWriter, String indexReader) {
 		SAWriter saWriter = new SAWriter(indexWriter);
-		SASearcher saSearcher = new SASearcher(indexReader);
-		List<String[]> entityCounts = saSearcher.fetchEntityCount(true);
-		String lastEntity = entityCounts.get(0)[0];
-		int lastCount = 0;
-		boolean removeFirst = false;
-		while (entityCounts != null && !entityCounts.isEmpty()) {
-			String[] adjustEntityCount = new String[2];
-			adjustEntityCount[0] = lastEntity;
-			if (!entityCounts.get(0)[0].equalsIgnoreCase(lastEntity)) {
-				adjustEntityCount[1] = String.valueOf(lastCount);
-				removeFirst = false;
-			} else {
-				adjustEntityCount[1] = String.valueOf(lastCount
-						+ Integer.valueOf(entityCounts.get(0)[1]));
-				removeFirst = true;
+		PriorityQueue<EntityCursor> heads = new PriorityQueue<EntityCursor>();
+		List<SASearcher> searchers = new ArrayList<SASearcher>();
+		for (SASearcher searcher : SASearcher.openShards(indexReader)) {
+			searchers.add(searcher);
+			EntityCursor cursor = new EntityCursor(searcher);
+			if (cursor.entity() != null) {
+				heads.add(cursor);
+			}
+		}
+		List<String[]> entityCounts = new ArrayList<String[]>();
+		while (!heads.isEmpty()) {
+			String entity = heads.peek().entity()[0];
+			int count = 0;
+			String set = null;
+			while (!heads.isEmpty() && heads.peek().entity()[0].equals(entity)) {
+				EntityCursor cursor = heads.poll();
+				count += Integer.valueOf(cursor.entity()[1]);
+				if (GlobalParameters.LANG_SETS) {
+					set = LangSet.union(set, cursor.entity()[2]);
+				}
+				cursor.advance();
+				if (cursor.entity() != null) {
+					heads.add(cursor);
+				}
 			}
-			lastEntity = entityCounts.get(entityCounts.size() - 1)[0];
-			lastCount = Integer
-					.valueOf(entityCounts.get(entityCounts.size() - 1)[1]);
-			entityCounts.remove(entityCounts.get(entityCounts.size() - 1));
-			if (removeFirst) {
-				entityCounts.remove(0);
+			String[] entityCount = { entity, String.valueOf(count), set };
+			entityCounts.add(entityCount);
+			if (entityCounts.size() >= GlobalParameters.BATCH_SIZE_MAX) {
+				System.out.println("Insert doc size:\t" + entityCounts.size());
+				saWriter.insert(entityCounts);
+				entityCounts.clear();
 			}
-			entityCounts.add(adjustEntityCount);
-			saWriter.insertLangStat(entityCounts);
-			entityCounts = saSearcher.fetchEntityCount(false);
 		}
-		String[] remainEntityCount = { lastEntity, String.valueOf(lastCount) };
-		entityCounts.add(remainEntityCount);
-		saWriter.insertLangStat(entityCounts);
+		System.out.println("Insert doc size:\t" + entityCounts.size());
+		saWriter.insert(entityCounts);
 		saWriter.close();
-		saSearcher.close();
+		for (SASearcher searcher : searchers) {
+			searcher.close();
+		}
 	}
 
 	/**
 	 * The STAT_SA indexing doc format is: ID_FB, ID_FB_SORT, ID_WD, ID_WD_SORT,
-	 * LANG_COUNT, LANG_COUNT_FB, LANG_COUNT_WD
+	 * LANG_COUNT, LANG_COUNT_FB, LANG_COUNT_WD, LANG_SET, LANG_SET_FB,
+	 * LANG_SET_WD. The pairs with their language count & set come aggregated
+	 * by the join, only the entity counts & sets are added
 	 */
 	public static void statSA() {
-		SASearcher fbStat = new SASearcher(GlobalParameters.PATH_INDEX_STAT_FB);
-		SASearcher wdStat = new SASearcher(GlobalParameters.PATH_INDEX_STAT_WD);
-		SASearcher searcher = new SASearcher(GlobalParameters.PATH_INDEX_SA_RAW);
-		SAWriter statWriter = new SAWriter(GlobalParameters.PATH_INDEX_STAT_SA);
-		List<String[]> pairCounts = searcher.fetchPairsCount(true);
-		List<String[]> pairCountFulls = new ArrayList<String[]>();
-		String lastFB = pairCounts.get(0)[0];
-		String lastWD = pairCounts.get(0)[1];
-		int lastCount = 0;
-		boolean removeFirst = false;
-		while (pairCounts != null && !pairCounts.isEmpty()) {
-			String[] adjustPC = new String[3];
-			adjustPC[0] = lastFB;
-			adjustPC[1] = lastWD;
-			if (pairCounts.get(0)[0].equalsIgnoreCase(lastFB)
-
-			&& pairCounts.get(0)[1].equalsIgnoreCase(lastWD)) {
-				adjustPC[2] = String.valueOf(lastCount + pairCounts.get(0)[2]);
-				removeFirst = true;
-			} else {
-				adjustPC[2] = String.valueOf(lastCount);
-				removeFirst = false;
-			}
-			lastFB = pairCounts.get(pairCounts.size() - 1)[0];
-			lastWD = pairCounts.get(pairCounts.size() - 1)[1];
-			lastCount = Integer
-					.valueOf(pairCounts.get(pairCounts.size() - 1)[2]);
-			pairCounts.remove(pairCounts.get(pairCounts.size() - 1));
-			if (removeFirst) {
-				pairCounts.remove(0);
+		final SAWriter statWriter = new SAWriter(
+				GlobalParameters.PATH_INDEX_STAT_SA);
+		// entity counts are read for every pair, loaded once and shared
+		final LangCountTable fbCounts = LangCountTable
+				.load(GlobalParameters.PATH_INDEX_STAT_FB);
+		final LangCountTable wdCounts = LangCountTable
+				.load(GlobalParameters.PATH_INDEX_STAT_WD);
+		// and so are the entity sets, if recorded
+		final LangSetTable fbSets = GlobalParameters.LANG_SETS ? loadSets(
+				GlobalParameters.PATH_INDEX_STAT_FB) : null;
+		final LangSetTable wdSets = GlobalParameters.LANG_SETS ? loadSets(
+				GlobalParameters.PATH_INDEX_STAT_WD) : null;
+		// pairs are sharded by Freebase id
+		ShardExecutor.run(
+				SASearcher.shards(GlobalParameters.PATH_INDEX_SA_ORIGIN),
+				new ShardTask() {
+					@Override
+					public void process(int shard) {
+						statSA(shard, statWriter, fbCounts, wdCounts, fbSets,
+								wdSets);
+					}
+				});
+		fbCounts.close();
+		wdCounts.close();
+		statWriter.close();
+	}
+
+	/**
+	 * Load the language sets of a statistics index
+	 * 
+	 * @param path
+	 * @return
+	 */
+	private static LangSetTable loadSets(String path) {
+		LangSetTable sets = new LangSetTable();
+		long[] set = LangSet.create();
+		for (SASearcher searcher : SASearcher.openShards(path)) {
+			String[][] items = searcher.fetchLangSets(true);
+			while (items != null) {
+				for (String[] item : items) {
+					if (item[0] != null) {
+						LangSet.read(item[1], set);
+						sets.or(item[0], set);
+					}
+				}
+				items = searcher.fetchLangSets(false);
 			}
-			pairCounts.add(adjustPC);
+			searcher.close();
+		}
+		return sets;
+	}
 
-			String currFB = null;
-			String currWD = null;
-			String currFBCount = null;
-			String currWDCount = null;
+	private static void statSA(int shard, SAWriter statWriter,
+			LangCountTable fbCounts, LangCountTable wdCounts,
+			LangSetTable fbSets, LangSetTable wdSets) {
+		SASearcher searcher = new SASearcher(
+				GlobalParameters.PATH_INDEX_SA_ORIGIN, shard);
+		List<String[]> pairCountFulls = new ArrayList<String[]>();
+		long[] set = LangSet.create();
+		String[][] pairCounts = searcher.fetchPairsCountFBSorted(true);
+		while (pairCounts != null) {
 			for (String[] pairCount : pairCounts) {
-				String[] pairCountFull = new String[pairCount.length + 2];
-				int i = 0;
-				while (i < pairCount.length) {
-					pairCountFull[i] = pairCount[i];
-					i++;
-				}
-				if (!pairCountFull[0].equalsIgnoreCase(currFB)) {
-					currFB = pairCount[0];
-					currFBCount = fbStat.fetchLangCount(currFB);
-				}
-				if (!pairCountFull[1].equalsIgnoreCase(currWD)) {
-					currWD = pairCount[1];
-					currWDCount = wdStat.fetchLangCount(currWD);
+				String[] pairCountFull = { pairCount[0], pairCount[1],
+						pairCount[2], fbCounts.get(pairCount[0]),
+						wdCounts.get(pairCount[1]), null, null, null };
+				if (fbSets != null) {
+					pairCountFull[5] = pairCount[3];
+					fbSets.get(pairCount[0], set);
+					pairCountFull[6] = LangSet.toHex(set);
+					wdSets.get(pairCount[1], set);
+					pairCountFull[7] = LangSet.toHex(set);
 				}
-				pairCountFull[i] = currFBCount;
-				pairCountFull[++i] = currWDCount;
 				pairCountFulls.add(pairCountFull);
 			}
-			statWriter.insertSAStat(pairCountFulls);
+			statWriter.insert(pairCountFulls);
 			pairCountFulls.clear();
-			pairCounts = searcher.fetchPairsCount(false);
+			pairCounts = searcher.fetchPairsCountFBSorted(false);
 		}
-		// add remain
-		String[] remainPair = { lastFB, lastWD, String.valueOf(lastCount),
-				fbStat.fetchLangCount(lastFB), wdStat.fetchLangCount(lastWD) };
-		pairCountFulls.add(remainPair);
-		statWriter.insertSAStat(pairCountFulls);
-		// close all
 		searcher.close();
-		statWriter.close();
-		fbStat.close();
-		wdStat.close();
 	}
 
 	/**
-	 * Indexing Freebase & Wikidata <entity, langue count>
+	 * Indexing Freebase & Wikidata <entity, langue count>. The counts are
+	 * normally written by the ingestion; an index ingested by another run is
+	 * counted here, over all its (MD5) shards at once
 	 */
 	public static void statLang() {
 		// freebase
-		statEntityLang(GlobalParameters.PATH_INDEX_STAT_FB,
+		statLang(GlobalParameters.PATH_INDEX_STAT_FB,
 				GlobalParameters.PATH_INDEX_FB);
 		// wikidata
-		statEntityLang(GlobalParameters.PATH_INDEX_STAT_WD,
+		statLang(GlobalParameters.PATH_INDEX_STAT_WD,
 				GlobalParameters.PATH_INDEX_WD);
 	}
 
+	/**
+	 * Indexing the <entity, langue count> of one side, independent of the
+	 * other side
+	 * 
+	 * @param statPath
+	 * @param keyPath
+	 */
+	public static void statLang(String statPath, String keyPath) {
+		if (!EntityLangCounter.isWritten(statPath)) {
+			statEntityLang(statPath, keyPath);
+		}
+	}
+
 }
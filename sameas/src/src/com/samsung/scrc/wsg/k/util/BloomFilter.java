@@ -0,0 +1,84 @@
+/**
+ * BloomFilter.java
+ * Bloom filter of MD5 keys
+ */
+package com.samsung.scrc.wsg.k.util;
+
+/**
+ * Bloom filter of MD5 keys. An MD5 is already a uniform hash, so the k probe
+ * positions are derived from its two halves by double hashing instead of
+ * rehashing the key
+ */
+public class BloomFilter {
+	private long[] bits;
+	private long bitSize;
+	private int hashCount;
+	private long keyCount = 0;
+
+	/**
+	 * @param expected
+	 *            number of keys
+	 * @param fpp
+	 *            target false positive probability
+	 */
+	public BloomFilter(long expected, double fpp) {
+		expected = Math.max(1, expected);
+		long m = (long) Math.ceil(-expected * Math.log(fpp)
+				/ (Math.log(2) * Math.log(2)));
+		bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64)];
+		bitSize = bits.length * 64L;
+		hashCount = Math.max(1,
+				(int) Math.round((double) bitSize / expected * Math.log(2)));
+	}
+
+	public void add(long hi, long lo) {
+		for (int i = 0; i < hashCount; i++) {
+			long bit = ((hi + i * lo) & Long.MAX_VALUE) % bitSize;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		keyCount++;
+	}
+
+	public boolean mightContain(long hi, long lo) {
+		for (int i = 0; i < hashCount; i++) {
+			long bit = ((hi + i * lo) & Long.MAX_VALUE) % bitSize;
+			if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void add(String md5) {
+		long[] key = MD5SlotTable.parse(md5);
+		add(key[0], key[1]);
+	}
+
+	public boolean mightContain(String md5) {
+		long[] key = MD5SlotTable.parse(md5);
+		return mightContain(key[0], key[1]);
+	}
+
+	/**
+	 * @return false positive probability expected from the bits set so far
+	 */
+	public double expectedFpp() {
+		long set = 0;
+		for (long word : bits) {
+			set += Long.bitCount(word);
+		}
+		return Math.pow((double) set / bitSize, hashCount);
+	}
+
+	public long getBitSize() {
+		return bitSize;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	public long getKeyCount() {
+		return keyCount;
+	}
+}
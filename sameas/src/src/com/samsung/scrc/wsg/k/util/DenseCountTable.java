@@ -0,0 +1,110 @@
+/**
+ * DenseCountTable.java
+ * Memory-mapped array of small counts
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped array of small counts indexed by a dense number, two bytes per
+ * entry. The backing file is sparse and mapped in segments as the numbers grow,
+ * so reading a count is a single array access
+ */
+public class DenseCountTable {
+	// largest number held, 2 GB of file
+	public static final long MAX_ORDINAL = (1L << 30) - 1;
+	// largest count held, the next value marks a shared number
+	public static final int MAX_COUNT = 0xfffe;
+	public static final int SHARED = 0xffff;
+	// entries per mapped segment (128 MB)
+	private static final int SEGMENT_BITS = 26;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[(int) (MAX_ORDINAL >>> SEGMENT_BITS) + 1];
+
+	/**
+	 * @param file
+	 *            backing file, deleted on close
+	 * @throws IOException
+	 */
+	public DenseCountTable(File file) throws IOException {
+		this.file = file;
+		file.getParentFile().mkdirs();
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+	}
+
+	public static boolean fits(long ordinal) {
+		return ordinal >= 0 && ordinal <= MAX_ORDINAL;
+	}
+
+	private MappedByteBuffer segment(int index, boolean create)
+			throws IOException {
+		if (segments[index] == null && create) {
+			long end = (long) (index + 1) << (SEGMENT_BITS + 1);
+			if (raf.length() < end) {
+				raf.setLength(end);
+			}
+			segments[index] = channel.map(FileChannel.MapMode.READ_WRITE,
+					(long) index << (SEGMENT_BITS + 1), 1L << (SEGMENT_BITS + 1));
+		}
+		return segments[index];
+	}
+
+	/**
+	 * @param ordinal
+	 *            a number which fits
+	 * @param count
+	 *            at most MAX_COUNT, or SHARED
+	 * @return the previous count, 0 if none
+	 * @throws IOException
+	 */
+	public int put(long ordinal, int count) throws IOException {
+		MappedByteBuffer segment = segment((int) (ordinal >>> SEGMENT_BITS),
+				true);
+		int position = (int) (ordinal & SEGMENT_MASK) << 1;
+		int previous = segment.getChar(position);
+		segment.putChar(position, (char) count);
+		return previous;
+	}
+
+	/**
+	 * @param ordinal
+	 *            a number which fits
+	 * @return the count, 0 if none
+	 */
+	public int get(long ordinal) {
+		MappedByteBuffer segment = segments[(int) (ordinal >>> SEGMENT_BITS)];
+		if (segment == null) {
+			return 0;
+		}
+		return segment.getChar((int) (ordinal & SEGMENT_MASK) << 1);
+	}
+
+	/**
+	 * Drop the mappings and delete the file
+	 */
+	public void close() {
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = null;
+		}
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException ioe) {
+			System.err.println(ioe);
+		}
+		file.delete();
+		// the directory goes along once empty
+		file.getParentFile().delete();
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * EntityCoder.java
+ * EntityIds codes for any id
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EntityIds codes for any id: the ids EntityIds cannot encode get negative
+ * codes, kept in a map by the coder
+ */
+public class EntityCoder {
+	private List<String> otherIds = new ArrayList<String>();
+	private Map<String, Long> otherCodes = new HashMap<String, Long>();
+
+	public long encode(String id) {
+		long code = EntityIds.encode(id);
+		if (code >= 0) {
+			return code;
+		}
+		synchronized (this) {
+			Long other = otherCodes.get(id);
+			if (other == null) {
+				otherIds.add(id);
+				other = (long) -otherIds.size();
+				otherCodes.put(id, other);
+			}
+			return other;
+		}
+	}
+
+	public String decode(long code) {
+		if (code >= 0) {
+			return EntityIds.decode(code);
+		}
+		synchronized (this) {
+			return otherIds.get((int) (-code - 1));
+		}
+	}
+}
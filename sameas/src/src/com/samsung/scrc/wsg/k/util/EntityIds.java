@@ -0,0 +1,178 @@
+/**
+ * EntityIds.java
+ * Encodes Freebase MIDs and Wikidata Q ids as longs
+ */
+package com.samsung.scrc.wsg.k.util;
+
+/**
+ * Encodes Freebase MIDs and Wikidata Q ids as positive longs, two bits of tag,
+ * and decodes them back. Other ids are not encodable
+ */
+public class EntityIds {
+	public static final String FB_PREFIX = "http://rdf.freebase.com/ns/";
+	public static final String WD_PREFIX = "http://www.wikidata.org/wiki/Q";
+	// MID characters, 5 bits each
+	private static final String MID_ALPHABET = "0123456789bcdfghjklmnpqrstvwxyz_";
+	private static final int MAX_MID_LENGTH = 11;
+	private static final long TAG_M = 1;
+	private static final long TAG_G = 2;
+	private static final long TAG_Q = 3;
+	private static final int TAG_SHIFT = 59;
+	private static final int LENGTH_SHIFT = 55;
+	private static final long PAYLOAD_MASK = (1L << LENGTH_SHIFT) - 1;
+
+	/**
+	 * @param id
+	 *            a Freebase (m. or g.) or Wikidata (Q) entity URL
+	 * @return the code, -1 if the id cannot be encoded
+	 */
+	public static long encode(String id) {
+		if (id == null) {
+			return -1;
+		}
+		return encode(id, null, 0, id.length());
+	}
+
+	/**
+	 * Encode an id from its UTF-8 bytes, without decoding them
+	 * 
+	 * @param utf8
+	 * @param offset
+	 * @param length
+	 * @return the code, -1 if the id cannot be encoded
+	 */
+	public static long encode(byte[] utf8, int offset, int length) {
+		return encode(null, utf8, offset, length);
+	}
+
+	/**
+	 * Either id or utf8 is set; the encodable ids are ASCII, so any other
+	 * byte fails like an unexpected char
+	 */
+	private static long encode(String id, byte[] utf8, int offset, int length) {
+		if (startsWith(id, utf8, offset, length, WD_PREFIX)) {
+			int start = WD_PREFIX.length();
+			int digits = length - start;
+			if (digits == 0 || digits > 16
+					|| (digits > 1 && charAt(id, utf8, offset, start) == '0')) {
+				return -1;
+			}
+			long value = 0;
+			for (int i = start; i < length; i++) {
+				char c = charAt(id, utf8, offset, i);
+				if (c < '0' || c > '9') {
+					return -1;
+				}
+				value = value * 10 + (c - '0');
+			}
+			return value > PAYLOAD_MASK ? -1 : TAG_Q << TAG_SHIFT | value;
+		}
+		if (startsWith(id, utf8, offset, length, FB_PREFIX)
+				&& length > FB_PREFIX.length() + 2
+				&& charAt(id, utf8, offset, FB_PREFIX.length() + 1) == '.') {
+			long tag;
+			switch (charAt(id, utf8, offset, FB_PREFIX.length())) {
+			case 'm':
+				tag = TAG_M;
+				break;
+			case 'g':
+				tag = TAG_G;
+				break;
+			default:
+				return -1;
+			}
+			int start = FB_PREFIX.length() + 2;
+			int midLength = length - start;
+			if (midLength > MAX_MID_LENGTH) {
+				return -1;
+			}
+			long value = 0;
+			for (int i = start; i < length; i++) {
+				int digit = MID_ALPHABET.indexOf(charAt(id, utf8, offset, i));
+				if (digit < 0) {
+					return -1;
+				}
+				value = value << 5 | digit;
+			}
+			return tag << TAG_SHIFT | (long) midLength << LENGTH_SHIFT
+					| value;
+		}
+		return -1;
+	}
+
+	private static char charAt(String id, byte[] utf8, int offset, int i) {
+		if (id != null) {
+			return id.charAt(i);
+		}
+		// bytes of multibyte chars are negative, no ASCII char
+		return utf8[offset + i] < 0 ? '\uffff' : (char) utf8[offset + i];
+	}
+
+	private static boolean startsWith(String id, byte[] utf8, int offset,
+			int length, String prefix) {
+		if (id != null) {
+			return id.startsWith(prefix);
+		}
+		if (length < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (utf8[offset + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param code
+	 *            an encode result other than -1
+	 * @return the entity URL
+	 */
+	public static String decode(long code) {
+		long tag = code >>> TAG_SHIFT;
+		if (tag == TAG_Q) {
+			return WD_PREFIX + (code & PAYLOAD_MASK);
+		}
+		int length = (int) (code >>> LENGTH_SHIFT & 0xf);
+		char[] mid = new char[length];
+		long value = code & PAYLOAD_MASK;
+		for (int i = length - 1; i >= 0; i--) {
+			mid[i] = MID_ALPHABET.charAt((int) (value & 0x1f));
+			value >>>= 5;
+		}
+		return FB_PREFIX + (tag == TAG_M ? "m." : "g.") + new String(mid);
+	}
+
+	/**
+	 * Dense number of an id: the number of a Q id, the base-32 value of an m.
+	 * MID. MIDs of different lengths may share a number
+	 *
+	 * @param code
+	 *            an encode result other than -1
+	 * @return the number, -1 for g. ids which are too sparse
+	 */
+	public static long ordinal(long code) {
+		long tag = code >>> TAG_SHIFT;
+		if (tag == TAG_G) {
+			return -1;
+		}
+		return code & PAYLOAD_MASK;
+	}
+
+	/**
+	 * The bits of a code its ordinal drops: the tag and the MID length. An
+	 * ordinal and a shape identify a code
+	 *
+	 * @param code
+	 *            an encode result other than -1
+	 * @return 6 bits
+	 */
+	public static int shape(long code) {
+		return (int) (code >>> LENGTH_SHIFT);
+	}
+
+	public static boolean isWikidata(long code) {
+		return code >>> TAG_SHIFT == TAG_Q;
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * EntitySet.java
+ * Set of entity ids by EntityIds code
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Set of entity ids kept by their EntityIds code, the ids EntityIds cannot
+ * encode being kept as strings
+ */
+public class EntitySet {
+	private LongIntHashMap codes = new LongIntHashMap();
+	private Set<String> others = new HashSet<String>();
+
+	/**
+	 * It may be called from several threads
+	 *
+	 * @param id
+	 */
+	public synchronized void add(String id) {
+		long code = EntityIds.encode(id);
+		if (code >= 0) {
+			codes.put(code, 1);
+		} else {
+			others.add(id);
+		}
+	}
+
+	/**
+	 * Reads are not synchronized: the set is filled first, then read
+	 *
+	 * @param id
+	 * @return
+	 */
+	public boolean contains(String id) {
+		long code = EntityIds.encode(id);
+		return code >= 0 ? codes.containsKey(code) : others.contains(id);
+	}
+
+	/**
+	 * @param code
+	 *            EntityIds code of the id
+	 * @param id
+	 *            only read if the code is negative
+	 * @return
+	 */
+	public boolean contains(long code, String id) {
+		return code >= 0 ? codes.containsKey(code) : others.contains(id);
+	}
+
+	public int size() {
+		return codes.size() + others.size();
+	}
+}
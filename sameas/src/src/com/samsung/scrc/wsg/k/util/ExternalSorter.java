@@ -0,0 +1,447 @@
+/**
+ * ExternalSorter.java
+ * External merge sort of pipeline records
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External merge sort of pipeline records (String[]). Records are buffered in
+ * memory up to a byte budget, then sorted and written as a run in a compact
+ * binary format: a fixed-width key followed by varint-prefixed UTF-8 fields.
+ * Runs are read back with buffered NIO and k-way merged. The key encoding and
+ * the key order are pluggable, equal keys keep their insertion order
+ */
+public class ExternalSorter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	// estimated heap overhead of a buffered record
+	private static final int RECORD_OVERHEAD = 64;
+
+	/**
+	 * Writes the fixed-width key of a record
+	 */
+	public interface KeyEncoder {
+		void encode(String[] record, byte[] key);
+	}
+
+	/**
+	 * Unsigned lexicographic order of the key bytes
+	 */
+	public static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			for (int i = 0; i < a.length; i++) {
+				int diff = (a[i] & 0xff) - (b[i] & 0xff);
+				if (diff != 0) {
+					return diff;
+				}
+			}
+			return 0;
+		}
+	};
+
+	/**
+	 * Sorted records, one at a time
+	 */
+	public interface Cursor {
+		/**
+		 * @return the next record, null at the end
+		 * @throws IOException
+		 */
+		String[] next() throws IOException;
+
+		/**
+		 * @return the key of the record last returned by next, valid until
+		 *         the next call
+		 */
+		byte[] key();
+
+		void close();
+	}
+
+	private static class Entry {
+		private byte[] key;
+		private byte[] payload;
+
+		private Entry(byte[] key, byte[] payload) {
+			this.key = key;
+			this.payload = payload;
+		}
+	}
+
+	private File dir;
+	private int keyWidth;
+	private KeyEncoder encoder;
+	private Comparator<byte[]> comparator;
+	private MemoryBudget budget;
+	private List<Entry> buffer = new ArrayList<Entry>();
+	private long buffered = 0;
+	private List<File> runs = new ArrayList<File>();
+	private Comparator<Entry> entryComparator;
+
+	/**
+	 * @param dir
+	 *            where the runs are written
+	 * @param keyWidth
+	 *            key bytes per record
+	 * @param encoder
+	 * @param comparator
+	 *            order of the keys
+	 * @param budget
+	 *            lease whose part is the bytes of records buffered before a
+	 *            run is written
+	 */
+	public ExternalSorter(File dir, int keyWidth, KeyEncoder encoder,
+			final Comparator<byte[]> comparator, MemoryBudget budget) {
+		this.dir = dir;
+		this.keyWidth = keyWidth;
+		this.encoder = encoder;
+		this.comparator = comparator;
+		this.budget = budget;
+		entryComparator = new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return comparator.compare(a.key, b.key);
+			}
+		};
+	}
+
+	public synchronized void add(String[] record) throws IOException {
+		byte[] key = new byte[keyWidth];
+		encoder.encode(record, key);
+		add(key, record);
+	}
+
+	/**
+	 * Add a record under a key of its own rather than the encoder's, so the
+	 * key may carry more than the record
+	 *
+	 * @param key
+	 *            keyWidth bytes
+	 * @param record
+	 * @throws IOException
+	 */
+	public synchronized void add(byte[] key, String[] record)
+			throws IOException {
+		byte[] payload = encodeFields(record);
+		buffer.add(new Entry(key, payload));
+		buffered += keyWidth + payload.length + RECORD_OVERHEAD;
+		if (buffered > budget.bytes()) {
+			spill();
+		}
+	}
+
+	public void addAll(List<String[]> records) throws IOException {
+		for (String[] record : records) {
+			add(record);
+		}
+	}
+
+	/**
+	 * @return number of runs written so far
+	 */
+	public synchronized int getRunCount() {
+		return runs.size();
+	}
+
+	// sort the buffer and write it as a run
+	private void spill() throws IOException {
+		if (buffer.isEmpty()) {
+			return;
+		}
+		Collections.sort(buffer, entryComparator);
+		dir.mkdirs();
+		File run = new File(dir, "run-" + runs.size());
+		RandomAccessFile file = new RandomAccessFile(run, "rw");
+		FileChannel channel = file.getChannel();
+		ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+		for (Entry entry : buffer) {
+			int size = keyWidth + entry.payload.length;
+			if (out.remaining() < size) {
+				out.flip();
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+				out.clear();
+			}
+			if (out.remaining() < size) {
+				// larger than the buffer
+				channel.write(ByteBuffer.wrap(entry.key));
+				channel.write(ByteBuffer.wrap(entry.payload));
+			} else {
+				out.put(entry.key);
+				out.put(entry.payload);
+			}
+		}
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		channel.close();
+		file.close();
+		runs.add(run);
+		buffer.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * Records added so far in key order. Once sorted, records may still be
+	 * added before the next call
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized Cursor sort() throws IOException {
+		if (runs.isEmpty()) {
+			// everything fits in memory
+			Collections.sort(buffer, entryComparator);
+			final List<Entry> entries = new ArrayList<Entry>(buffer);
+			return new Cursor() {
+				private int i = 0;
+
+				@Override
+				public String[] next() {
+					if (i >= entries.size()) {
+						return null;
+					}
+					return decodeFields(ByteBuffer.wrap(entries.get(i++).payload));
+				}
+
+				@Override
+				public byte[] key() {
+					return entries.get(i - 1).key;
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+		spill();
+		return new MergeCursor(runs);
+	}
+
+	/**
+	 * Drop the buffered records and delete the runs
+	 */
+	public synchronized void close() {
+		buffer.clear();
+		buffered = 0;
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+		dir.delete();
+	}
+
+	private class MergeCursor implements Cursor {
+		private PriorityQueue<RunReader> heads;
+		private List<RunReader> readers = new ArrayList<RunReader>();
+		private byte[] key = new byte[keyWidth];
+
+		private MergeCursor(List<File> runs) throws IOException {
+			heads = new PriorityQueue<RunReader>(Math.max(1, runs.size()),
+					new Comparator<RunReader>() {
+						@Override
+						public int compare(RunReader a, RunReader b) {
+							int diff = comparator.compare(a.key, b.key);
+							// equal keys: earlier run first
+							return diff != 0 ? diff : a.index - b.index;
+						}
+					});
+			for (int i = 0; i < runs.size(); i++) {
+				RunReader reader = new RunReader(runs.get(i), i);
+				readers.add(reader);
+				if (reader.advance()) {
+					heads.add(reader);
+				}
+			}
+		}
+
+		@Override
+		public String[] next() throws IOException {
+			RunReader head = heads.poll();
+			if (head == null) {
+				return null;
+			}
+			String[] record = head.record;
+			System.arraycopy(head.key, 0, key, 0, keyWidth);
+			if (head.advance()) {
+				heads.add(head);
+			}
+			return record;
+		}
+
+		@Override
+		public byte[] key() {
+			return key;
+		}
+
+		@Override
+		public void close() {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	private class RunReader {
+		private int index;
+		private RandomAccessFile file;
+		private FileChannel channel;
+		private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private boolean eof = false;
+		private byte[] key = new byte[keyWidth];
+		private String[] record;
+
+		private RunReader(File run, int index) throws IOException {
+			this.index = index;
+			file = new RandomAccessFile(run, "r");
+			channel = file.getChannel();
+			in.flip();
+		}
+
+		// make sure n bytes can be read, growing the buffer for big records
+		private boolean ensure(int n) throws IOException {
+			if (in.remaining() >= n) {
+				return true;
+			}
+			if (n > in.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocateDirect(Integer
+						.highestOneBit(n) << 1);
+				larger.put(in);
+				larger.flip();
+				in = larger;
+			}
+			in.compact();
+			while (!eof && in.position() < n) {
+				if (channel.read(in) < 0) {
+					eof = true;
+				}
+			}
+			in.flip();
+			return in.remaining() >= n;
+		}
+
+		private boolean advance() throws IOException {
+			if (!ensure(keyWidth)) {
+				return false;
+			}
+			in.get(key);
+			// fields: count then lengths, read a varint at a time
+			int count = readVarint();
+			record = new String[count];
+			for (int i = 0; i < count; i++) {
+				int length = readVarint();
+				if (length == 0) {
+					continue;
+				}
+				ensure(length - 1);
+				byte[] bytes = new byte[length - 1];
+				in.get(bytes);
+				record[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			return true;
+		}
+
+		private int readVarint() throws IOException {
+			int value = 0;
+			int shift = 0;
+			while (true) {
+				ensure(1);
+				byte b = in.get();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+				shift += 7;
+			}
+		}
+
+		private void close() {
+			try {
+				channel.close();
+				file.close();
+			} catch (IOException ioe) {
+				System.err.println(ioe);
+			}
+		}
+	}
+
+	private static byte[] encodeFields(String[] record) {
+		byte[][] fields = new byte[record.length][];
+		int size = varintSize(record.length);
+		for (int i = 0; i < record.length; i++) {
+			if (record[i] == null) {
+				size += 1;
+				continue;
+			}
+			fields[i] = record[i].getBytes(StandardCharsets.UTF_8);
+			size += varintSize(fields[i].length + 1) + fields[i].length;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(size);
+		putVarint(payload, record.length);
+		for (byte[] field : fields) {
+			// 0 stands for null, otherwise length + 1
+			putVarint(payload, field == null ? 0 : field.length + 1);
+			if (field != null) {
+				payload.put(field);
+			}
+		}
+		return payload.array();
+	}
+
+	private static String[] decodeFields(ByteBuffer payload) {
+		String[] record = new String[getVarint(payload)];
+		for (int i = 0; i < record.length; i++) {
+			int length = getVarint(payload);
+			if (length > 0) {
+				byte[] bytes = new byte[length - 1];
+				payload.get(bytes);
+				record[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
+		return record;
+	}
+
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7f) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7f) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * LangSet.java
+ * Sets of Wikipedia languages as bitsets
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sets of Wikipedia languages as bitsets over a fixed dictionary of language
+ * codes, ordered by wiki size so that usual sets fit in their first bytes. The
+ * dictionary only grows at its end: a bit keeps its language from one run to
+ * the next. Rows carry a set as the hex of its bytes, bit i in byte i / 8,
+ * without trailing zero bytes
+ */
+public class LangSet {
+	// language codes of the Wikipedia databases (zh_min_nan, not zh-min-nan)
+	private static final String[] LANGUAGES = {
+			"en", "ceb", "de", "sv", "fr", "nl", "ru", "es", "it", "arz", "pl",
+			"ja", "zh", "vi", "war", "uk", "ar", "pt", "fa", "ca", "sr", "id",
+			"ko", "no", "ce", "fi", "hu", "cs", "tr", "tt", "sh", "ro",
+			"zh_min_nan", "eu", "ms", "eo", "he", "hy", "da", "bg", "cy", "sk",
+			"azb", "uz", "et", "simple", "be", "kk", "min", "el", "hr", "lt",
+			"gl", "az", "ur", "sl", "lld", "ka", "nn", "hi", "th", "ta", "bn",
+			"la", "mk", "zh_yue", "ast", "lv", "af", "tg", "my", "mg", "mr",
+			"sq", "bs", "oc", "te", "ml", "nds", "br", "be_x_old", "ky", "sw",
+			"jv", "lmo", "new", "pnb", "vec", "ht", "pms", "ba", "lb", "su",
+			"ku", "ga", "szl", "is", "fy", "cv", "ckb", "pa", "tl", "an",
+			"wuu", "diq", "io", "sco", "vo", "yo", "ne", "ia", "kn", "gu",
+			"als", "ha", "avk", "bar", "crh", "scn", "bpy", "qu", "mn", "nv",
+			"xmf", "ban", "si", "mzn", "frr", "ps", "tum", "os", "or",
+			"bat_smg", "sah", "cdo", "gd", "bug", "yi", "sd", "ilo", "am",
+			"nap", "li", "bcl", "fo", "gor", "hsb", "map_bms", "mai", "shn",
+			"eml", "ace", "zh_classical", "sa", "as", "wa", "ie", "hyw", "lij",
+			"mhr", "zu", "sn", "hif", "mrj", "bjn", "km", "mni", "hak",
+			"roa_tara", "pam", "sat", "nso", "bh", "rue", "se", "vls",
+			"nds_nl", "mi", "myv", "nah", "sc", "vep", "gan", "glk", "kab",
+			"tk", "co", "fiu_vro", "bo", "ab", "kv", "csb", "frp", "pcd", "kw",
+			"ug", "udm", "gv", "ary", "ay", "zea", "nrm", "gn", "bxr", "stq",
+			"lez", "olo", "lfn", "mt", "kaa", "ext", "lad", "mwl", "haw",
+			"gom", "dty", "ang", "rw", "koi", "pdc", "pag", "tyv", "av", "skr",
+			"fur", "dv", "ln", "dsb", "smn", "nia", "cbk_zam", "tet", "lo",
+			"gag", "kbp", "xal", "krc", "ig", "pfl", "zgh", "pap", "kbd",
+			"mdf", "szy", "inh", "lg", "ks", "blk", "pi", "ltg", "ts", "rm",
+			"to", "arc", "pih", "jam", "mad", "sm", "za", "tn", "srn", "bi",
+			"ss", "tcy", "nqo", "din", "ki", "atj", "chr", "got", "guw", "kg",
+			"st", "fj", "ff", "iu", "ady", "ny", "ee", "tw", "bm", "ch", "xh",
+			"ami", "ve", "cu", "dz", "rmy", "pnt", "ik", "sg", "ti", "chy",
+			"om", "cr", "ak", "roa_rup", "ksh", "lbe", "gcr", "awa", "alt",
+			"anp", "bew", "btm", "dag", "fat", "fon", "gpe", "guc", "gur",
+			"kcg", "kus", "mnw", "nov", "nr", "pcm", "pwn", "rsk", "shi",
+			"tay", "trv", "tly", "ty", "tpi", "ann", "bbc", "iba", "igl",
+			"kge", "knc", "mos", "nup", "tdd", "tig", "aa", "ho", "hz", "ii",
+			"kj", "kr", "mh", "mo", "mus", "na", "ng", "cho"
+	};
+	// bit of the languages out of the dictionary
+	public static final int OTHER = LANGUAGES.length;
+	// long words of a set
+	public static final int WORDS = OTHER / 64 + 1;
+
+	private static final String WIKIPEDIA_HOST = ".wikipedia.org";
+	private static final Map<String, Integer> BITS = new HashMap<String, Integer>();
+	static {
+		for (int i = 0; i < LANGUAGES.length; i++) {
+			BITS.put(LANGUAGES[i], i);
+		}
+	}
+
+	/**
+	 * @param lang
+	 * @return the bit of a language, -1 for none
+	 */
+	public static int bit(String lang) {
+		if (lang == null || lang.isEmpty()) {
+			return -1;
+		}
+		Integer bit = BITS.get(lang);
+		if (bit == null) {
+			bit = BITS.get(lang.toLowerCase(Locale.ROOT).replace('-', '_'));
+		}
+		return bit == null ? OTHER : bit;
+	}
+
+	/**
+	 * @param url
+	 * @return the language of a Wikipedia URL (its host), null if it is not
+	 *         one
+	 */
+	public static String language(String url) {
+		if (url == null) {
+			return null;
+		}
+		int start = url.indexOf("://") + 3;
+		int end = url.indexOf(WIKIPEDIA_HOST, start);
+		return start < 3 || end < 0 ? null : url.substring(start, end);
+	}
+
+	public static long[] create() {
+		return new long[WORDS];
+	}
+
+	/**
+	 * @param set
+	 * @param bit
+	 *            ignored if negative
+	 */
+	public static void add(long[] set, int bit) {
+		if (bit >= 0) {
+			set[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	public static void or(long[] set, long[] other) {
+		for (int i = 0; i < WORDS; i++) {
+			set[i] |= other[i];
+		}
+	}
+
+	public static int cardinality(long[] set) {
+		int count = 0;
+		for (int i = 0; i < WORDS; i++) {
+			count += Long.bitCount(set[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * @param set
+	 * @return the hex a row carries a set as
+	 */
+	public static String toHex(long[] set) {
+		int length = 0;
+		for (int i = WORDS * 8 - 1; i >= 0; i--) {
+			if ((set[i >>> 3] >>> ((i & 7) << 3) & 0xFF) != 0) {
+				length = i + 1;
+				break;
+			}
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (set[i >>> 3] >>> ((i & 7) << 3));
+		}
+		return Tools.encodeBytes2Hex(bytes, 0, length);
+	}
+
+	/**
+	 * Read the bytes of a set into words of an array
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param words
+	 * @param at
+	 *            first of the WORDS words written
+	 */
+	public static void read(byte[] bytes, int offset, int length,
+			long[] words, int at) {
+		for (int i = 0; i < WORDS; i++) {
+			words[at + i] = 0;
+		}
+		for (int i = 0; i < length && i < WORDS * 8; i++) {
+			words[at + (i >>> 3)] |= (bytes[offset + i] & 0xFFL) << ((i & 7) << 3);
+		}
+	}
+
+	/**
+	 * @param hex
+	 *            null for the empty set
+	 * @param set
+	 */
+	public static void read(String hex, long[] set) {
+		byte[] bytes = hex == null ? new byte[0] : Tools.decodeHex2Bytes(hex);
+		read(bytes, 0, bytes.length, set, 0);
+	}
+
+	/**
+	 * @param hex
+	 * @param other
+	 * @return the hex of the union of two sets
+	 */
+	public static String union(String hex, String other) {
+		long[] set = create();
+		long[] otherSet = create();
+		read(hex, set);
+		read(other, otherSet);
+		or(set, otherSet);
+		return toHex(set);
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * LangSetTable.java
+ * Language sets of entities by EntityIds code
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Language sets of entities by EntityIds code. Most entities only have
+ * languages among the first 31 of the dictionary, kept as an int in a
+ * LongIntHashMap; the others are flagged there and have their full set in a
+ * map, as have the ids EntityIds cannot encode
+ */
+public class LangSetTable {
+	// languages 0..30 of an entity, or WIDE if its set is in wide
+	private LongIntHashMap narrow = new LongIntHashMap();
+	private static final int WIDE = Integer.MIN_VALUE;
+	private Map<Long, long[]> wide = new HashMap<Long, long[]>();
+	private Map<String, long[]> others = new HashMap<String, long[]>();
+
+	/**
+	 * @param id
+	 * @param bit
+	 *            ignored if negative
+	 */
+	public void add(String id, int bit) {
+		if (bit < 0) {
+			return;
+		}
+		long code = EntityIds.encode(id);
+		if (code < 0) {
+			LangSet.add(other(id), bit);
+		} else {
+			add(code, bit);
+		}
+	}
+
+	/**
+	 * @param code
+	 *            EntityIds code
+	 * @param bit
+	 */
+	public void add(long code, int bit) {
+		int bits = narrow.get(code, 0);
+		if (bits == WIDE) {
+			LangSet.add(wide.get(code), bit);
+		} else if (bit < 31) {
+			narrow.put(code, bits | 1 << bit);
+		} else {
+			long[] set = widen(code, bits);
+			LangSet.add(set, bit);
+		}
+	}
+
+	/**
+	 * Add a set of languages to the set of an entity
+	 *
+	 * @param id
+	 * @param set
+	 */
+	public void or(String id, long[] set) {
+		long code = EntityIds.encode(id);
+		if (code < 0) {
+			LangSet.or(other(id), set);
+			return;
+		}
+		int bits = narrow.get(code, 0);
+		boolean fits = bits != WIDE && set[0] >>> 31 == 0;
+		for (int i = 1; fits && i < LangSet.WORDS; i++) {
+			fits = set[i] == 0;
+		}
+		if (fits) {
+			narrow.put(code, bits | (int) set[0]);
+			return;
+		}
+		LangSet.or(bits == WIDE ? wide.get(code) : widen(code, bits), set);
+	}
+
+	private long[] widen(long code, int bits) {
+		long[] set = LangSet.create();
+		set[0] = bits;
+		wide.put(code, set);
+		narrow.put(code, WIDE);
+		return set;
+	}
+
+	private long[] other(String id) {
+		long[] set = others.get(id);
+		if (set == null) {
+			set = LangSet.create();
+			others.put(id, set);
+		}
+		return set;
+	}
+
+	/**
+	 * @param id
+	 * @param set
+	 *            filled with the languages of the entity, empty if it has none
+	 */
+	public void get(String id, long[] set) {
+		long code = EntityIds.encode(id);
+		if (code >= 0) {
+			get(code, set);
+			return;
+		}
+		long[] other = others.get(id);
+		for (int i = 0; i < LangSet.WORDS; i++) {
+			set[i] = other == null ? 0 : other[i];
+		}
+	}
+
+	public void get(long code, long[] set) {
+		int bits = narrow.get(code, 0);
+		if (bits == WIDE) {
+			System.arraycopy(wide.get(code), 0, set, 0, LangSet.WORDS);
+			return;
+		}
+		set[0] = bits;
+		for (int i = 1; i < LangSet.WORDS; i++) {
+			set[i] = 0;
+		}
+	}
+
+	/**
+	 * @return the ids EntityIds cannot encode, with their set
+	 */
+	public Map<String, long[]> getOthers() {
+		return others;
+	}
+
+	public long bytes() {
+		return narrow.bytes() + (wide.size() + others.size())
+				* (LangSet.WORDS * 8L + 64);
+	}
+}
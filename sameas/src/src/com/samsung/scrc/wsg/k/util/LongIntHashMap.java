@@ -0,0 +1,141 @@
+/**
+ * LongIntHashMap.java
+ * Open addressing map from long to int
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from long to int on two primitive arrays, for counting
+ * entities by their EntityIds code without a Java object per entry
+ */
+public class LongIntHashMap {
+	// marks a free slot, cannot be used as a key
+	public static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	public LongIntHashMap(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2 && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		int mask = keys.length - 1;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Add delta to the value of a key, a missing key counting as 0
+	 *
+	 * @param key
+	 * @param delta
+	 * @return the new value
+	 */
+	public int addTo(long key, int delta) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("Reserved key:\t" + key);
+		}
+		int slot = slot(key);
+		if (keys[slot] == EMPTY) {
+			if ((size + 1) * 10 > keys.length * 6) {
+				grow();
+				slot = slot(key);
+			}
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] += delta;
+		return values[slot];
+	}
+
+	public void put(long key, int value) {
+		int slot = slot(key);
+		if (keys[slot] != key) {
+			addTo(key, value);
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param missing
+	 *            returned when the key is absent
+	 * @return
+	 */
+	public int get(long key, int missing) {
+		int slot = slot(key);
+		return keys[slot] == EMPTY ? missing : values[slot];
+	}
+
+	public boolean containsKey(long key) {
+		return keys[slot(key)] != EMPTY;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return bytes taken by the slots
+	 */
+	public long bytes() {
+		return keys.length * 12L;
+	}
+
+	/**
+	 * Slots are visited with capacity(), isUsed, keyAt and valueAt
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return keys[slot] != EMPTY;
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+}
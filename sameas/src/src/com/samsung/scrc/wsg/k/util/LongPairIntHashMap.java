@@ -0,0 +1,146 @@
+/**
+ * LongPairIntHashMap.java
+ * Open addressing map from a pair of longs to int
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from a pair of longs to int on primitive arrays, for
+ * counting (Freebase, Wikidata) pairs by their EntityIds codes
+ */
+public class LongPairIntHashMap {
+	// marks a free slot, cannot be used as first key
+	public static final long EMPTY = Long.MIN_VALUE;
+	// bytes taken per slot
+	public static final int SLOT_BYTES = 20;
+
+	private long[] firsts;
+	private long[] seconds;
+	private int[] values;
+	private int size = 0;
+
+	public LongPairIntHashMap() {
+		allocate(16);
+	}
+
+	private void allocate(int capacity) {
+		firsts = new long[capacity];
+		seconds = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(firsts, EMPTY);
+	}
+
+	private int slot(long first, long second) {
+		long h = (first * 31 + second) * 0x9E3779B97F4A7C15L;
+		int mask = firsts.length - 1;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (firsts[slot] != EMPTY
+				&& (firsts[slot] != first || seconds[slot] != second)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Add delta to the value of a pair, a missing pair counting as 0
+	 *
+	 * @param first
+	 * @param second
+	 * @param delta
+	 * @return the new value
+	 */
+	public int addTo(long first, long second, int delta) {
+		if (first == EMPTY) {
+			throw new IllegalArgumentException("Reserved key:\t" + first);
+		}
+		int slot = slot(first, second);
+		if (firsts[slot] == EMPTY) {
+			if ((size + 1) * 10 > firsts.length * 6) {
+				grow();
+				slot = slot(first, second);
+			}
+			firsts[slot] = first;
+			seconds[slot] = second;
+			size++;
+		}
+		values[slot] += delta;
+		return values[slot];
+	}
+
+	public void put(long first, long second, int value) {
+		int slot = slot(first, second);
+		if (firsts[slot] == EMPTY) {
+			addTo(first, second, value);
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	public int get(long first, long second, int missing) {
+		int slot = slot(first, second);
+		return firsts[slot] == EMPTY ? missing : values[slot];
+	}
+
+	private void grow() {
+		long[] oldFirsts = firsts;
+		long[] oldSeconds = seconds;
+		int[] oldValues = values;
+		allocate(firsts.length << 1);
+		for (int i = 0; i < oldFirsts.length; i++) {
+			if (oldFirsts[i] != EMPTY) {
+				int slot = slot(oldFirsts[i], oldSeconds[i]);
+				firsts[slot] = oldFirsts[i];
+				seconds[slot] = oldSeconds[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Remove every pair, keeping the allocated slots
+	 */
+	public void clear() {
+		Arrays.fill(firsts, EMPTY);
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return bytes taken by the slots
+	 */
+	public long bytes() {
+		return (long) firsts.length * SLOT_BYTES;
+	}
+
+	/**
+	 * Slots are visited with capacity(), isUsed, firstAt, secondAt and
+	 * valueAt
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return firsts.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return firsts[slot] != EMPTY;
+	}
+
+	public long firstAt(int slot) {
+		return firsts[slot];
+	}
+
+	public long secondAt(int slot) {
+		return seconds[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+}
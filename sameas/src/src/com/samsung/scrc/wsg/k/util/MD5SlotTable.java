@@ -0,0 +1,142 @@
+/**
+ * MD5SlotTable.java
+ * Off-heap hash table keyed by MD5
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open addressing hash table kept in native memory, keyed by a 128-bit MD5,
+ * each slot holding a long value and an int ordinal. Slots are fixed-width, so
+ * the table holds no Java object per entry
+ */
+public class MD5SlotTable {
+	// MD5 (16) + value (8) + ordinal (4) + used flag (4)
+	public static final int SLOT_SIZE = 32;
+	private static final int VALUE = 16;
+	private static final int ORDINAL = 24;
+	private static final int USED = 28;
+	// largest table, a direct buffer is int addressed
+	public static final long MAX_BYTES = 1L << 30;
+
+	private ByteBuffer slots;
+	private int mask;
+	private int size = 0;
+
+	/**
+	 * @param expected
+	 *            number of keys, kept under half of the slots
+	 */
+	public MD5SlotTable(long expected) {
+		long capacity = capacity(expected);
+		if (capacity * SLOT_SIZE > MAX_BYTES) {
+			throw new IllegalArgumentException("MD5SlotTable too large:\t"
+					+ expected);
+		}
+		slots = ByteBuffer.allocateDirect((int) capacity * SLOT_SIZE);
+		mask = (int) capacity - 1;
+	}
+
+	private static long capacity(long expected) {
+		long capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Native memory taken by a table for the expected number of keys
+	 *
+	 * @param expected
+	 * @return
+	 */
+	public static long bytes(long expected) {
+		return capacity(expected) * SLOT_SIZE;
+	}
+
+	/**
+	 * Split a 32-digit hex MD5 into its high and low 64 bits
+	 *
+	 * @param md5
+	 * @return
+	 */
+	public static long[] parse(String md5) {
+		long[] key = { Long.parseUnsignedLong(md5.substring(0, 16), 16),
+				Long.parseUnsignedLong(md5.substring(16, 32), 16) };
+		return key;
+	}
+
+	public static String format(long hi, long lo) {
+		return String.format("%016x%016x", hi, lo);
+	}
+
+	private int find(long hi, long lo) {
+		int slot = (int) (hi ^ (hi >>> 32)) & mask;
+		while (slots.getInt(slot * SLOT_SIZE + USED) != 0) {
+			int offset = slot * SLOT_SIZE;
+			if (slots.getLong(offset) == hi && slots.getLong(offset + 8) == lo) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Insert a key unless it is already there, the first value is kept
+	 *
+	 * @param hi
+	 * @param lo
+	 * @param value
+	 * @param ordinal
+	 * @return false if the key was already there
+	 */
+	public boolean putIfAbsent(long hi, long lo, long value, int ordinal) {
+		int offset = find(hi, lo) * SLOT_SIZE;
+		if (slots.getInt(offset + USED) != 0) {
+			return false;
+		}
+		if ((size + 1) * 2 > mask + 1) {
+			throw new IllegalStateException("MD5SlotTable is full:\t" + size);
+		}
+		slots.putLong(offset, hi);
+		slots.putLong(offset + 8, lo);
+		slots.putLong(offset + VALUE, value);
+		slots.putInt(offset + ORDINAL, ordinal);
+		slots.putInt(offset + USED, 1);
+		size++;
+		return true;
+	}
+
+	/**
+	 * @param hi
+	 * @param lo
+	 * @return the slot of a key, -1 if absent
+	 */
+	public int get(long hi, long lo) {
+		int slot = find(hi, lo);
+		return slots.getInt(slot * SLOT_SIZE + USED) != 0 ? slot : -1;
+	}
+
+	public long getValue(int slot) {
+		return slots.getLong(slot * SLOT_SIZE + VALUE);
+	}
+
+	public int getOrdinal(int slot) {
+		return slots.getInt(slot * SLOT_SIZE + ORDINAL);
+	}
+
+	public void setValue(int slot, long value) {
+		slots.putLong(slot * SLOT_SIZE + VALUE, value);
+	}
+
+	public void setOrdinal(int slot, int ordinal) {
+		slots.putInt(slot * SLOT_SIZE + ORDINAL, ordinal);
+	}
+
+	public int size() {
+		return size;
+	}
+}
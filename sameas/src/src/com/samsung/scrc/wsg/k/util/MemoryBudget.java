@@ -0,0 +1,67 @@
+/**
+ * MemoryBudget.java
+ * A share of a memory budget shared by the consumers using it at once
+ */
+package com.samsung.scrc.wsg.k.util;
+
+/**
+ * A lease on a memory budget. The budget is split evenly among the open
+ * leases, and a lease among its parts (the sorters or tables of one
+ * consumer). A share is read again at every check, so it shrinks as soon as
+ * another consumer opens a lease, and the consumers using the budget at once,
+ * in concurrent pipeline stages, stay within it together. A lease is released
+ * once its consumer has dropped its data
+ */
+public class MemoryBudget {
+	// leases open
+	private static volatile int leases = 0;
+
+	private long total;
+	private int parts;
+	private boolean open = true;
+
+	private MemoryBudget(long total, int parts) {
+		this.total = total;
+		this.parts = Math.max(1, parts);
+	}
+
+	/**
+	 * Open a lease
+	 *
+	 * @param total
+	 *            bytes of the budget shared by every lease
+	 * @param parts
+	 *            parts the share of the lease is split into
+	 * @return
+	 */
+	public static synchronized MemoryBudget lease(long total, int parts) {
+		leases++;
+		return new MemoryBudget(total, parts);
+	}
+
+	/**
+	 * @return bytes of the lease, its share of the budget
+	 */
+	public long share() {
+		return total / Math.max(1, open ? leases : 1);
+	}
+
+	/**
+	 * @return bytes of one part of the lease
+	 */
+	public long bytes() {
+		return share() / parts;
+	}
+
+	/**
+	 * Give the share back to the other leases
+	 */
+	public void release() {
+		synchronized (MemoryBudget.class) {
+			if (open) {
+				open = false;
+				leases--;
+			}
+		}
+	}
+}
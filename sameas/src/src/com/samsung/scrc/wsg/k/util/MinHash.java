@@ -0,0 +1,136 @@
+/**
+ * MinHash.java
+ * MinHash signatures of character trigrams, cut into LSH bands
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * MinHash signatures of the character trigrams of a text, cut into LSH bands:
+ * two texts share a band key with a probability growing steeply with the
+ * Jaccard similarity of their trigrams
+ */
+public class MinHash {
+	private int bands;
+	private int rows;
+	// one seed per hash function
+	private long[] seeds;
+
+	/**
+	 * @param bands
+	 * @param rows
+	 *            hash functions per band
+	 */
+	public MinHash(int bands, int rows) {
+		this.bands = bands;
+		this.rows = rows;
+		seeds = new long[bands * rows];
+		long seed = 0x5DEECE66DL;
+		for (int i = 0; i < seeds.length; i++) {
+			seed += 0x9E3779B97F4A7C15L;
+			seeds[i] = mix(seed);
+		}
+	}
+
+	public int getBands() {
+		return bands;
+	}
+
+	/**
+	 * @param text
+	 *            not empty
+	 * @return minimum of every hash function over the trigrams
+	 */
+	public long[] signature(String text) {
+		long[] signature = new long[seeds.length];
+		for (int i = 0; i < signature.length; i++) {
+			signature[i] = Long.MAX_VALUE;
+		}
+		String padded = " " + text + " ";
+		for (int j = 0; j + 3 <= padded.length(); j++) {
+			long trigram = (long) padded.charAt(j) << 32
+					| (long) padded.charAt(j + 1) << 16 | padded.charAt(j + 2);
+			for (int i = 0; i < seeds.length; i++) {
+				long hash = mix(trigram ^ seeds[i]);
+				if (hash < signature[i]) {
+					signature[i] = hash;
+				}
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * @param signature
+	 * @param band
+	 * @param block
+	 *            texts of different blocks never share a key
+	 * @return the LSH key of a band
+	 */
+	public long bandKey(long[] signature, int band, String block) {
+		long key = mix(block.hashCode() * 31L + band);
+		for (int i = band * rows; i < (band + 1) * rows; i++) {
+			key = mix(key ^ signature[i]);
+		}
+		return key;
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return the first band two signatures agree on, -1 if none
+	 */
+	public int firstBand(long[] a, long[] b) {
+		BAND: for (int band = 0; band < bands; band++) {
+			for (int i = band * rows; i < (band + 1) * rows; i++) {
+				if (a[i] != b[i]) {
+					continue BAND;
+				}
+			}
+			return band;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return Jaccard similarity of the trigrams of two texts
+	 */
+	public static double similarity(String a, String b) {
+		if (a.equals(b)) {
+			return 1;
+		}
+		Set<String> trigramsA = trigrams(a);
+		Set<String> trigramsB = trigrams(b);
+		int common = 0;
+		for (String trigram : trigramsA) {
+			if (trigramsB.contains(trigram)) {
+				common++;
+			}
+		}
+		return (double) common
+				/ (trigramsA.size() + trigramsB.size() - common);
+	}
+
+	private static Set<String> trigrams(String text) {
+		Set<String> trigrams = new HashSet<String>();
+		String padded = " " + text + " ";
+		for (int j = 0; j + 3 <= padded.length(); j++) {
+			trigrams.add(padded.substring(j, j + 3));
+		}
+		return trigrams;
+	}
+
+	// finalizer of MurmurHash3
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -45,6 +45,24 @@ public class Tools {
 		return new String(baos.toByteArray());
 	}
 
+	public static String encodeBytes2Hex(byte[] bytes, int offset, int length) {
+		StringBuilder sb = new StringBuilder(length * 2);
+		for (int i = offset; i < offset + length; i++) {
+			sb.append(hexString.charAt((bytes[i] & 0xf0) >> 4));
+			sb.append(hexString.charAt(bytes[i] & 0x0f));
+		}
+		return sb.toString();
+	}
+
+	public static byte[] decodeHex2Bytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4 | Character
+					.digit(hex.charAt(2 * i + 1), 16));
+		}
+		return bytes;
+	}
+
 	public static String md52String(String message) {
 		String digest = null;
 		MessageDigest md = null;
@@ -0,0 +1,87 @@
+/**
+ * UnionFind.java
+ * Disjoint sets of int nodes
+ */
+package com.samsung.scrc.wsg.k.util;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint sets of the nodes 0..count-1 on primitive int arrays: union by size,
+ * paths compressed by halving on every find
+ */
+public class UnionFind {
+	private int[] parent;
+	// nodes of a set, only meaningful for its root
+	private int[] size;
+	private int count = 0;
+
+	public UnionFind() {
+		this(16);
+	}
+
+	public UnionFind(int capacity) {
+		parent = new int[Math.max(capacity, 16)];
+		size = new int[parent.length];
+	}
+
+	/**
+	 * @return a new node, alone in its set
+	 */
+	public int add() {
+		if (count == parent.length) {
+			parent = Arrays.copyOf(parent, count * 2);
+			size = Arrays.copyOf(size, count * 2);
+		}
+		parent[count] = count;
+		size[count] = 1;
+		return count++;
+	}
+
+	/**
+	 * @param node
+	 * @return the root of the set of a node
+	 */
+	public int find(int node) {
+		while (parent[node] != node) {
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Merge the sets of two nodes
+	 *
+	 * @param a
+	 * @param b
+	 * @return the root of the merged set
+	 */
+	public int union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB) {
+			return rootA;
+		}
+		if (size[rootA] < size[rootB]) {
+			int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+		return rootA;
+	}
+
+	/**
+	 * @param root
+	 * @return the nodes of the set of a root
+	 */
+	public int size(int root) {
+		return size[root];
+	}
+
+	public int count() {
+		return count;
+	}
+}
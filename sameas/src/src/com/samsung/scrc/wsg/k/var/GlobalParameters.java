@@ -12,11 +12,16 @@ import java.util.Map;
 //import org.apache.logging.log4j.LogManager;
 //import org.apache.logging.log4j.Logger;
 
+import com.samsung.scrc.wsg.k.sa.matcher.AssignmentMatcher;
 import com.samsung.scrc.wsg.k.sa.matcher.BeliefBasedMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.ClusterMatcher;
 import com.samsung.scrc.wsg.k.sa.matcher.Matcher;
 import com.samsung.scrc.wsg.k.sa.matcher.MaxConfMatcher;
 import com.samsung.scrc.wsg.k.sa.matcher.One2OneMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.OverlapMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.ResidueMatcher;
 import com.samsung.scrc.wsg.k.sa.matcher.ThresholdMatcher;
+import com.samsung.scrc.wsg.k.sa.matcher.VoteMatcher;
 
 /**
  * @author yuxie
@@ -47,12 +52,44 @@ public class GlobalParameters {
 	public static final String PROP_WD_DB = "wd.database";
 	public static final String PROP_FB_FILE = "fb.file";
 	public static final String PROP_SA_MATCHER = "sa.matcher";
+	public static final String PROP_TMP_BUDGET = "sa.tmp.budget.mb";
+	public static final String PROP_SHARDS = "sa.shards";
+	public static final String PROP_WORKERS = "sa.workers";
+	public static final String PROP_JOIN_RANGES = "sa.join.ranges";
+	public static final String PROP_JOIN = "sa.join";
+	public static final String PROP_JOIN_BUDGET = "sa.join.budget.mb";
+	public static final String PROP_INTERMEDIATE = "sa.intermediate";
+	public static final String PROP_BLOOM = "sa.bloom";
+	public static final String PROP_BLOOM_FPP = "sa.bloom.fpp";
+	public static final String PROP_STAGE_WORKERS = "sa.stage.workers";
+	public static final String PROP_THRESHOLD = "sa.threshold";
+	public static final String PROP_THRESHOLD_SWEEP = "sa.threshold.sweep";
+	public static final String PROP_THRESHOLD_GOLD = "sa.threshold.gold";
+	public static final String PROP_RESIDUE_BANDS = "sa.residue.bands";
+	public static final String PROP_RESIDUE_ROWS = "sa.residue.rows";
+	public static final String PROP_RESIDUE_SIMILARITY = "sa.residue.similarity";
+	public static final String PROP_INCREMENTAL_BASE = "sa.incremental.base";
+	public static final String PROP_ASSIGNMENT_EXACT = "sa.assignment.exact";
+	public static final String PROP_LANG_SETS = "sa.lang.sets";
+	public static final String PROP_OVERLAP_MEASURE = "sa.overlap.measure";
+	public static final String PROP_OVERLAP_THRESHOLD = "sa.overlap.threshold";
+	public static final String PROP_VOTE_MATCHERS = "sa.vote.matchers";
+	public static final String PROP_VOTE_MIN = "sa.vote.min";
+	public static final String PROP_EXPORT_COMPRESSION = "sa.export.compression";
+	public static final String PROP_EXPORT_PARTS = "sa.export.parts";
+	public static final String PROP_EXPORT_FORMAT = "sa.export.format";
+	public static final String PROP_RDF_GRAPH = "sa.rdf.graph";
 
 	// matchers
 	public static final String MATCHER_MC = "maxconf";
 	public static final String MATCHER_THRESHOLD = "threshold";
 	public static final String MATCHER_ONE2ONE = "oneonly";
 	public static final String MATCHER_BELIEF = "belief";
+	public static final String MATCHER_RESIDUE = "residue";
+	public static final String MATCHER_CLUSTER = "cluster";
+	public static final String MATCHER_ASSIGNMENT = "assignment";
+	public static final String MATCHER_OVERLAP = "overlap";
+	public static final String MATCHER_VOTE = "vote";
 
 	public static Map<String, Matcher> MATCHER_MAPPING = new HashMap<String, Matcher>();
 	static {
@@ -60,6 +97,11 @@ public class GlobalParameters {
 		MATCHER_MAPPING.put(MATCHER_THRESHOLD, new ThresholdMatcher());
 		MATCHER_MAPPING.put(MATCHER_ONE2ONE, new One2OneMatcher());
 		MATCHER_MAPPING.put(MATCHER_BELIEF, new BeliefBasedMatcher());
+		MATCHER_MAPPING.put(MATCHER_RESIDUE, new ResidueMatcher());
+		MATCHER_MAPPING.put(MATCHER_CLUSTER, new ClusterMatcher());
+		MATCHER_MAPPING.put(MATCHER_ASSIGNMENT, new AssignmentMatcher());
+		MATCHER_MAPPING.put(MATCHER_OVERLAP, new OverlapMatcher());
+		MATCHER_MAPPING.put(MATCHER_VOTE, new VoteMatcher());
 	}
 
 	// by default, contains four matchers: max confidence, threshold filtering, one-to-one only, belief based
@@ -80,33 +122,45 @@ public class GlobalParameters {
 			+ calendar.get(Calendar.DAY_OF_MONTH);
 	public static String PATH_INDEX_FB = PATH_INDEX + SCHEMA + "/freebase/";
 	public static String PATH_INDEX_WD = PATH_INDEX + SCHEMA + "/wikidata/";
+	// Freebase keys dropped by the Bloom filter, kept for the residue matcher
+	public static String PATH_INDEX_FB_FILTERED = PATH_INDEX + SCHEMA
+			+ "/freebase-filtered/";
 	public static String PATH_INDEX_STAT = PATH_INDEX + SCHEMA + "/stat/";
 	public static String PATH_INDEX_STAT_FB = PATH_INDEX_STAT + "/freebase/";
 	public static String PATH_INDEX_STAT_WD = PATH_INDEX_STAT + "/wikidata/";
 	public static String PATH_INDEX_STAT_SA = PATH_INDEX_STAT + "/sa/";
-	public static String PATH_INDEX_STAT_SA_FULL = PATH_INDEX_STAT
-			+ "/sa-full/";
-	public static String PATH_INDEX_SA_RAW = PATH_INDEX + SCHEMA
-			+ "/result/raw/";
 	public static String PATH_INDEX_SA_ORIGIN = PATH_INDEX + SCHEMA
 			+ "/result/origin/";
-	public static String PATH_INDEX_SA_MC_RAW = PATH_INDEX + SCHEMA
-			+ "/result/mc_raw/";
 	public static String PATH_INDEX_SA_MC = PATH_INDEX + SCHEMA + "/result/mc/";
-	public static String PATH_INDEX_SA_THRESHOLD_RAW = PATH_INDEX + SCHEMA
-			+ "/result/threshold_raw/";
-	public static String PATH_INDEX_SA_THRESHOLD_RAW_1 = PATH_INDEX + SCHEMA
-			+ "/result/threshold_raw1/";
 	public static String PATH_INDEX_SA_THRESHOLD = PATH_INDEX + SCHEMA
 			+ "/result/threshold/";
-	public static String PATH_INDEX_SA_ONE_ONLY_RAW = PATH_INDEX + SCHEMA
-			+ "/result/oneonly_raw/";
 	public static String PATH_INDEX_SA_ONE_ONLY = PATH_INDEX + SCHEMA
 			+ "/result/oneonly/";
 	public static String PATH_INDEX_SA_BELIEF = PATH_INDEX + SCHEMA
 			+ "/result/belief/";
+	public static String PATH_INDEX_SA_RESIDUE = PATH_INDEX + SCHEMA
+			+ "/result/residue/";
+	public static String PATH_INDEX_SA_CLUSTER_ONE = PATH_INDEX + SCHEMA
+			+ "/result/cluster_one/";
+	public static String PATH_INDEX_SA_CLUSTER = PATH_INDEX + SCHEMA
+			+ "/result/cluster/";
+	public static String PATH_INDEX_SA_CLUSTER_SHAPES = PATH_INDEX + SCHEMA
+			+ "/result/cluster_shapes/";
+	public static String PATH_INDEX_SA_ASSIGNMENT = PATH_INDEX + SCHEMA
+			+ "/result/assignment/";
+	public static String PATH_INDEX_SA_OVERLAP = PATH_INDEX + SCHEMA
+			+ "/result/overlap/";
+	public static String PATH_INDEX_SA_VOTE = PATH_INDEX + SCHEMA
+			+ "/result/vote/";
 	// all the temporary index files
 	public static String PATH_INDEX_TMP = PATH_INDEX + SCHEMA + "/tmp/";
+	// memory budget (MB) for intermediate data, spilled to disk over it,
+	// shared by the stages running at once
+	public static long TMP_INDEX_BUDGET_MB = 512;
+	// where the intermediate indexes read by a single stage are kept: "index"
+	// (Lucene) or "sort" (external sort runs, deleted once read, so the run
+	// cannot be the base of an incremental one)
+	public static String INTERMEDIATE_STORE = "index";
 
 	// output file
 	public static String PATH_RESULT = getRootPath() + "/result/";
@@ -120,6 +174,22 @@ public class GlobalParameters {
 			+ "/one2one.tsv";
 	public static String FILE_RESULT_BELIEF_BASED = PATH_RESULT + SCHEMA
 			+ "/belief.tsv";
+	public static String FILE_RESULT_THRESHOLD_SWEEP = PATH_RESULT + SCHEMA
+			+ "/threshold_sweep.tsv";
+	public static String FILE_RESULT_RESIDUE = PATH_RESULT + SCHEMA
+			+ "/residue.tsv";
+	public static String FILE_RESULT_CLUSTER = PATH_RESULT + SCHEMA
+			+ "/cluster.tsv";
+	public static String FILE_RESULT_CLUSTER_SHAPES = PATH_RESULT + SCHEMA
+			+ "/cluster_shapes.tsv";
+	public static String FILE_RESULT_CLUSTER_ONE = PATH_RESULT + SCHEMA
+			+ "/cluster_one2one.tsv";
+	public static String FILE_RESULT_ASSIGNMENT = PATH_RESULT + SCHEMA
+			+ "/assignment.tsv";
+	public static String FILE_RESULT_OVERLAP = PATH_RESULT + SCHEMA
+			+ "/overlap.tsv";
+	public static String FILE_RESULT_VOTE = PATH_RESULT + SCHEMA
+			+ "/vote.tsv";
 
 	// lucene key
 	public static final String COL_ID = "id";
@@ -143,7 +213,85 @@ public class GlobalParameters {
 	public static final String COL_LANG_COUNT_WD = "lang_count_wd";
 	public static final String COL_LANG_RATIO_FB = "lang_ratio_fb";
 	public static final String COL_LANG_RATIO_WD = "lang_ratio_wd";
+	public static final String COL_LANG_SET = "lang_set";
+	public static final String COL_LANG_SET_FB = "lang_set_fb";
+	public static final String COL_LANG_SET_WD = "lang_set_wd";
+	public static final String COL_VOTE_MASK = "vote_mask";
+	public static final String COL_VOTE_COUNT = "vote_count";
+	public static final String COL_CLUSTER = "cluster";
+	public static final String COL_FB_COUNT = "fb_count";
+	public static final String COL_WD_COUNT = "wd_count";
+	public static final String COL_CLUSTER_COUNT = "cluster_count";
+	public static final String COL_PAIR_COUNT = "pair_count";
 
 	// max batch size
 	public static int BATCH_SIZE_MAX = 500000;
+
+	// number of hash shards of every index (1: a single index per path)
+	public static int SHARD_COUNT = 1;
+	// number of shards processed concurrently
+	public static int WORKER_COUNT = Runtime.getRuntime()
+			.availableProcessors();
+	// number of MD5 key ranges each shard of the Freebase & Wikidata join is
+	// cut into (at most 65536)
+	public static int JOIN_RANGES = 16;
+	// Freebase & Wikidata join: "merge" (sort-merge) or "hash"
+	public static String JOIN_MODE = "merge";
+	// native memory budget (MB) of the hash join tables, shared by the
+	// workers
+	public static long JOIN_BUDGET_MB = 256;
+	// drop the Freebase keys missing from a Bloom filter of Wikidata keys
+	// (set aside, rather than dropped, when the residue matcher runs)
+	public static boolean BLOOM_FILTER = false;
+	// target false positive probability of that filter
+	public static double BLOOM_FPP = 0.01;
+	// number of independent pipeline stages run concurrently, each with its
+	// own shard workers
+	public static int STAGE_WORKERS = 2;
+	// share of both entity language counts a threshold pair must exceed
+	public static double THRESHOLD = 0.5;
+	// thresholds also evaluated, in the same scan, by the threshold matcher
+	// (empty: no sweep)
+	public static double[] THRESHOLD_SWEEP = {};
+	// TSV sample of correct pairs (Freebase id, Wikidata id) the sweep is
+	// scored against, or null
+	public static String THRESHOLD_GOLD = null;
+	// LSH of the residue matcher: bands of rows MinHash functions each
+	public static int RESIDUE_BANDS = 8;
+	public static int RESIDUE_ROWS = 4;
+	// trigram Jaccard similarity of the titles of a residue pair
+	public static double RESIDUE_SIMILARITY = 0.8;
+	// SCHEMA directory of an earlier run whose results are patched for the
+	// entities whose keys changed since, or null for a full run
+	public static String INCREMENTAL_BASE = null;
+	// largest side (entities) of a component the assignment matcher solves
+	// exactly, the larger ones being solved greedily
+	public static int ASSIGNMENT_EXACT = 100;
+	// record the language set (LangSet) of every entity & pair next to its
+	// language count, for the overlap matcher
+	public static boolean LANG_SETS = false;
+	// score of the overlap matcher: "jaccard" (shared languages of the union
+	// of both entities) or "overlap" (of the smaller entity)
+	public static String OVERLAP_MEASURE = "jaccard";
+	// score a pair of the overlap matcher must reach
+	public static double OVERLAP_THRESHOLD = 0.5;
+	// matchers whose results the vote matcher merges, bit i of a vote mask
+	// standing for the i-th
+	public static String[] VOTE_MATCHERS = { MATCHER_MC, MATCHER_THRESHOLD,
+			MATCHER_ONE2ONE, MATCHER_BELIEF };
+	// votes a pair needs to be kept by the vote matcher
+	public static int VOTE_MIN = 2;
+	// compression of the exported TSV files: "none" or "gzip"
+	public static String EXPORT_COMPRESSION = "none";
+	// part files a result TSV is split into, each written from its own
+	// shards of the index (at most the number of shards)
+	public static int EXPORT_PARTS = 1;
+	// bytes buffered before a write to an exported file
+	public static int EXPORT_BUFFER = 1 << 20;
+	// format of the exported results: "tsv", "nt" (owl:sameAs N-Triples) or
+	// "nq" (N-Quads, in a named graph per matcher)
+	public static String EXPORT_FORMAT = "tsv";
+	// prefix of the IRI of the named graph of a matcher, completed by the
+	// name of its result file
+	public static String RDF_GRAPH = "urn:sameas:";
 }